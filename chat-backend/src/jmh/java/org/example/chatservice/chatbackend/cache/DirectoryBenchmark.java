@@ -0,0 +1,66 @@
+package org.example.chatservice.chatbackend.cache;
+
+import com.example.chat.proto.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DirectoryBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int entries;
+
+    private Map<String, User> legacyByName;
+    private Directory<User> heapDirectory;
+    private Directory<User> offHeapDirectory;
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        legacyByName = new HashMap<>();
+        heapDirectory = new Directory<>(Cache.USER_CODEC, false);
+        offHeapDirectory = new Directory<>(Cache.USER_CODEC, true);
+        names = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            User user = User.newBuilder()
+                    .setUserId("id-" + i)
+                    .setUsername("user" + i)
+                    .setDisplayName("Chat User " + i)
+                    .build();
+            names[i] = user.getUsername();
+            legacyByName.put(user.getUsername(), user);
+            heapDirectory.put(user);
+            offHeapDirectory.put(user);
+        }
+    }
+
+    private String randomName() {
+        return names[ThreadLocalRandom.current().nextInt(names.length)];
+    }
+
+    @Benchmark
+    public User legacyHashMapLookup() {
+        return legacyByName.get(randomName());
+    }
+
+    @Benchmark
+    public User heapDirectoryLookup() {
+        return heapDirectory.getByName(randomName());
+    }
+
+    @Benchmark
+    public User offHeapDirectoryLookup() {
+        return offHeapDirectory.getByName(randomName());
+    }
+
+    @Benchmark
+    public boolean heapDirectoryContains() {
+        return heapDirectory.containsName(randomName());
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.chatservice.chatbackend.cache;
+
+import com.example.chat.proto.User;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Retained-memory comparison between the legacy pair of HashMaps holding User protos and the compact directory.
+ */
+public class DirectoryFootprint {
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.printf("%-10s %12s %14s %14s%n", "layout", "entries", "heap MB", "direct MB");
+        for (String layout : new String[]{"hashmap", "heap", "offheap"}) {
+            measure(layout, entries);
+        }
+    }
+
+    private static void measure(String layout, int entries) {
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+
+        Object retained;
+        if (layout.equals("hashmap")) {
+            Map<String, User> byId = new HashMap<>();
+            Map<String, User> byName = new HashMap<>();
+            for (int i = 0; i < entries; i++) {
+                User user = user(i);
+                byId.put(user.getUserId(), user);
+                byName.put(user.getUsername(), user);
+            }
+            retained = new Object[]{byId, byName};
+        } else {
+            Directory<User> directory = new Directory<>(Cache.USER_CODEC, layout.equals("offheap"));
+            for (int i = 0; i < entries; i++) {
+                directory.put(user(i));
+            }
+            retained = directory;
+        }
+
+        long heapAfter = usedHeap();
+        long directAfter = usedDirect();
+        System.out.printf("%-10s %12d %14.1f %14.1f%n", layout, entries,
+                (heapAfter - heapBefore) / 1048576.0, (directAfter - directBefore) / 1048576.0);
+        Reference.reachabilityFence(retained);
+    }
+
+    private static User user(int i) {
+        return User.newBuilder()
+                .setUserId(UUID.nameUUIDFromBytes(Integer.toString(i).getBytes()).toString())
+                .setUsername("user" + i)
+                .setDisplayName("Chat User " + i)
+                .build();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0L;
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.chatservice.chatbackend.controller;
+
+import ch.qos.logback.classic.Level;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.example.chat.proto.Channel;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.example.chatservice.chatbackend.archive.ArchiveStore;
+import org.example.chatservice.chatbackend.cache.Cache;
+import org.example.chatservice.chatbackend.cache.HotHistory;
+import org.example.chatservice.chatbackend.kafka.KafkaHandler;
+import org.example.chatservice.chatbackend.scylla.ScyllaDB;
+import org.example.chatservice.chatbackend.scylla.session.ScyllaSession;
+import org.example.chatservice.chatbackend.search.SearchIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Drives createUser and the first history page from a small pool of request threads through the real ScyllaDB
+ * class, whose session answers every query after a fixed latency from a stand-in driver thread. Prints throughput
+ * against the bound a blocking data path would have (requestThreads / latency) and the threads the run needed.
+ * Nothing is asserted, timings depend on the machine.
+ */
+public class ScyllaLatencyLoad {
+    private static final int REQUEST_THREADS = 8;
+    private static final int DRIVER_THREADS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        long latencyMs = args.length > 1 ? Long.parseLong(args[1]) : 50;
+        // The controllers log every request, which would drown the table
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        ScheduledExecutorService driver = Executors.newScheduledThreadPool(DRIVER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "driver-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+        ArchiveStore archiveStore = new ArchiveStore("build/tmp/latency-load-archive", 16, 1);
+        ScyllaDB scyllaDB = new ScyllaDB(stubbedSession(driver, latencyMs), archiveStore, 1, 1, 1000, 8);
+        try {
+            System.out.printf("%d requests, %d request threads, %d ms per query%n", requests, REQUEST_THREADS, latencyMs);
+            System.out.printf("%-20s %10s %12s %16s %14s %14s%n",
+                    "endpoint", "ms", "req/s", "blocking req/s", "live threads", "peak threads");
+
+            UserController users = new UserController(scyllaDB, mock(KafkaHandler.class), 50, 500);
+            String run = UUID.randomUUID().toString();
+            measure("createUser", requests, latencyMs, requestThreads, i -> users.createUser("load-" + run + "-" + i, "Load " + i));
+
+            Channel channel = Channel.newBuilder()
+                    .setChannelId(UUID.randomUUID().toString())
+                    .setName("load-" + run)
+                    .setDescription("latency load")
+                    .build();
+            Cache.channels.put(channel);
+            // No chat-stream partitions are assigned, so every read goes to the stubbed session
+            MessageController messages = new MessageController(scyllaDB, mock(KafkaHandler.class),
+                    new HotHistory(200, 10000, 1_000_000), new ObjectMapper(), mock(SearchIndex.class), 50, 500, 500);
+            measure("getMessageHistory", requests, latencyMs, requestThreads,
+                    i -> messages.getMessageHistory(channel.getChannelId(), null, 50));
+        } finally {
+            requestThreads.shutdownNow();
+            driver.shutdownNow();
+            scyllaDB.close();
+            archiveStore.close();
+        }
+    }
+
+    // Issues every request from the request pool and waits for all responses
+    private static void measure(String endpoint, int requests, long latencyMs, ExecutorService requestThreads,
+                                IntFunction<CompletableFuture<? extends ResponseEntity<?>>> request)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        List<Future<CompletableFuture<? extends ResponseEntity<?>>>> submitted = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            int index = i;
+            submitted.add(requestThreads.submit(() -> request.apply(index)));
+        }
+        int failed = 0;
+        for (Future<CompletableFuture<? extends ResponseEntity<?>>> future : submitted) {
+            if (!future.get().get(60, TimeUnit.SECONDS).getStatusCode().is2xxSuccessful()) {
+                failed++;
+            }
+        }
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        System.out.printf("%-20s %10d %12.0f %16.0f %14d %14d%n", endpoint, elapsedMs, requests * 1000.0 / elapsedMs,
+                REQUEST_THREADS * 1000.0 / latencyMs, threads.getThreadCount(), threads.getPeakThreadCount());
+        if (failed > 0) {
+            System.out.printf("%-20s %d requests failed%n", endpoint, failed);
+        }
+    }
+
+    // Schema statements succeed, every asynchronous query answers an empty, applied result after latencyMs
+    private static ScyllaSession stubbedSession(ScheduledExecutorService driver, long latencyMs) {
+        ResultSet empty = mock(ResultSet.class, withSettings().stubOnly());
+        when(empty.wasApplied()).thenReturn(true);
+        when(empty.isFullyFetched()).thenReturn(true);
+        when(empty.getAvailableWithoutFetching()).thenReturn(0);
+
+        Session session = mock(Session.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS).stubOnly());
+        when(session.executeAsync(any(Statement.class))).thenAnswer(invocation -> {
+            DelayedResultSetFuture future = new DelayedResultSetFuture();
+            driver.schedule(() -> future.set(empty), latencyMs, TimeUnit.MILLISECONDS);
+            return future;
+        });
+        ScyllaSession scyllaSession = mock(ScyllaSession.class);
+        when(scyllaSession.getSession()).thenReturn(session);
+        return scyllaSession;
+    }
+
+    private static final class DelayedResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+        @Override
+        protected boolean set(ResultSet value) {
+            return super.set(value);
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            try {
+                return Uninterruptibles.getUninterruptibly(this);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException {
+            try {
+                return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.chatservice.chatbackend.kafka;
+
+import com.example.chat.proto.Channel;
+import com.example.chat.proto.ChatMessage;
+import com.example.chat.proto.User;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.example.chatservice.chatbackend.websockets.SubscriptionRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record cost of the chat-stream listener up to the broadcast: parsing every record and concatenating its
+ * destination, against routing by key through the subscription registry and parsing only routed records.
+ * interestedPercent is the share of channels with a local subscriber.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ListenerRoutingBenchmark {
+    private static final int CHANNELS = 1_000;
+    private static final int RECORDS = 10_000;
+
+    @Param({"0", "10", "100"})
+    private int interestedPercent;
+
+    private ConsumerRecord<String, byte[]>[] records;
+    private SubscriptionRegistry registry;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(1);
+        String[] channelIds = new String[CHANNELS];
+        registry = new SubscriptionRegistry();
+        for (int i = 0; i < CHANNELS; i++) {
+            channelIds[i] = "channel-" + i;
+            if (i * 100 < interestedPercent * CHANNELS) {
+                registry.subscribe("session", "sub-" + i, SubscriptionRegistry.CHANNEL_TOPIC_PREFIX + channelIds[i]);
+            }
+        }
+        records = new ConsumerRecord[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            String channelId = channelIds[random.nextInt(CHANNELS)];
+            ChatMessage message = ChatMessage.newBuilder()
+                    .setMessageId("message-" + i)
+                    .setChannel(Channel.newBuilder().setChannelId(channelId).setName(channelId).setDescription("benchmark channel"))
+                    .setSender(User.newBuilder().setUserId("user-" + i % 500).setUsername("user" + i % 500).setDisplayName("Chat User"))
+                    .setBody("message body number " + i + " with some ordinary chat text in it")
+                    .setTimeStamp(1_700_000_000_000L + i)
+                    .build();
+            records[i] = new ConsumerRecord<>("chat-stream", i % 15, i, channelId, message.toByteArray());
+        }
+    }
+
+    private ConsumerRecord<String, byte[]> nextRecord() {
+        ConsumerRecord<String, byte[]> record = records[next];
+        next = next + 1 == RECORDS ? 0 : next + 1;
+        return record;
+    }
+
+    // The listener before routing: parse, then build the destination from the parsed channel
+    @Benchmark
+    public void parseEveryRecord(Blackhole blackhole) throws InvalidProtocolBufferException {
+        ConsumerRecord<String, byte[]> record = nextRecord();
+        ChatMessage message = ChatMessage.parseFrom(record.value());
+        String channelId = message.getChannel().getChannelId();
+        if (registry.routeOf(channelId) != null) {
+            blackhole.consume("/topic/channel/" + channelId);
+            blackhole.consume(message);
+        }
+    }
+
+    @Benchmark
+    public void routeByKey(Blackhole blackhole) throws InvalidProtocolBufferException {
+        ConsumerRecord<String, byte[]> record = nextRecord();
+        SubscriptionRegistry.Route route = registry.routeOf(record.key());
+        if (route != null) {
+            blackhole.consume(route.destination());
+            blackhole.consume(ChatMessage.parseFrom(record.value()));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.chatservice.chatbackend.scylla;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Read-path CPU per message body: the plain text column against a dictionary-compressed blob.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BodyCodecBenchmark {
+    private static final int MESSAGES = 10_000;
+
+    private ByteBuffer[] plain;
+    private ByteBuffer[] compressed;
+    private BodyDictionaries dictionaries;
+
+    @Setup
+    public void setUp() {
+        List<String> training = ChatCorpus.messages(100_000, 1);
+        ZstdDictTrainer trainer = new ZstdDictTrainer(16 * 1024 * 1024, 64 * 1024);
+        for (String body : training) {
+            trainer.addSample(body.getBytes(UTF_8));
+        }
+        byte[] dictionary = trainer.trainSamples();
+        ZstdDictCompress compressor = new ZstdDictCompress(dictionary, 3);
+        dictionaries = new BodyDictionaries();
+        dictionaries.put(1, ByteBuffer.wrap(dictionary));
+
+        List<String> bodies = ChatCorpus.messages(MESSAGES, 2);
+        plain = new ByteBuffer[MESSAGES];
+        compressed = new ByteBuffer[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            byte[] bytes = bodies.get(i).getBytes(UTF_8);
+            plain[i] = ByteBuffer.wrap(bytes);
+            compressed[i] = ByteBuffer.wrap(Zstd.compress(bytes, compressor));
+        }
+    }
+
+    // What the driver's text codec does for the body column
+    @Benchmark
+    public String plainText() {
+        ByteBuffer bytes = plain[ThreadLocalRandom.current().nextInt(MESSAGES)];
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.duplicate().get(copy);
+        return new String(copy, UTF_8);
+    }
+
+    @Benchmark
+    public String dictionaryCompressed() {
+        return dictionaries.decode(1, compressed[ThreadLocalRandom.current().nextInt(MESSAGES)]);
+    }
+}
@@ -0,0 +1,79 @@
+package org.example.chatservice.chatbackend.scylla;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Body bytes per message for plain text against dictionary-compressed blobs, before and after sstable
+ * compression. Scylla compresses sstables in 4 KB chunks (LZ4 by default); zstd level 1 over 4 KB chunks of the
+ * concatenated cell values stands in for it here, which flatters the plain layout rather than the compressed one.
+ * <p>
+ * Without a bodies file the synthetic {@link ChatCorpus} is used. It draws from a few dozen phrases, so a trained
+ * dictionary covers it far better than real chat and the dictionary figures are a best case. Pass a file with one
+ * real body per line, e.g. exported with {@code COPY channel_messages (body) TO 'bodies.txt'}, to measure those
+ * instead: every other line trains the dictionary and the rest are measured.
+ */
+public class BodyStorageFootprint {
+    private static final int CHUNK_BYTES = 4096;
+
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<String> training = new ArrayList<>();
+        List<String> bodies = new ArrayList<>();
+        if (args.length > 1) {
+            List<String> lines = Files.readAllLines(Path.of(args[1]), UTF_8);
+            for (int i = 0; i < lines.size() && bodies.size() < messages; i++) {
+                if (!lines.get(i).isEmpty()) {
+                    (i % 2 == 0 ? training : bodies).add(lines.get(i));
+                }
+            }
+            messages = bodies.size();
+            System.out.printf("%d bodies from %s, %d used for training%n", messages, args[1], training.size());
+        } else {
+            training = ChatCorpus.messages(100_000, 1);
+            bodies = ChatCorpus.messages(messages, 2);
+            System.out.println("Synthetic corpus: dictionary figures are a best case, pass a bodies file to measure real ones");
+        }
+
+        ZstdDictTrainer trainer = new ZstdDictTrainer(16 * 1024 * 1024, 64 * 1024);
+        for (String body : training) {
+            trainer.addSample(body.getBytes(UTF_8));
+        }
+        byte[] dictionary = trainer.trainSamples();
+        ZstdDictCompress compressor = new ZstdDictCompress(dictionary, 3);
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (String body : bodies) {
+            plain.writeBytes(body.getBytes(UTF_8));
+            compressed.writeBytes(Zstd.compress(body.getBytes(UTF_8), compressor));
+        }
+
+        System.out.printf("%-12s %12s %16s %20s%n", "encoding", "messages", "cell bytes/msg", "sstable bytes/msg");
+        print("plain", messages, plain.toByteArray());
+        print("dictionary", messages, compressed.toByteArray());
+        System.out.printf("dictionary size: %d bytes%n", dictionary.length);
+    }
+
+    private static void print(String encoding, int messages, byte[] cells) {
+        long chunked = 0;
+        for (int offset = 0; offset < cells.length; offset += CHUNK_BYTES) {
+            int length = Math.min(CHUNK_BYTES, cells.length - offset);
+            byte[] chunk = new byte[length];
+            System.arraycopy(cells, offset, chunk, 0, length);
+            chunked += Math.min(length, Zstd.compress(chunk, 1).length);
+        }
+        System.out.printf("%-12s %12d %16.1f %20.1f%n", encoding, messages,
+                (double) cells.length / messages, (double) chunked / messages);
+    }
+}
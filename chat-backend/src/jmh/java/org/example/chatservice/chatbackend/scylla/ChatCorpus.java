@@ -0,0 +1,50 @@
+package org.example.chatservice.chatbackend.scylla;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic chat-like message bodies for the body storage benchmarks: short, informal, repetitive phrasing
+ * with a long tail of names, numbers and links.
+ */
+final class ChatCorpus {
+    private static final String[] OPENERS = {"hey", "ok", "lol", "yeah", "hi all", "morning", "thanks", "sure", "hmm", "nice"};
+    private static final String[] PHRASES = {
+            "can you take a look at the deploy", "I think the build is broken again", "see you in the standup",
+            "let me check and get back to you", "did anyone see the alert from prod", "the PR is ready for review",
+            "I'll be a few minutes late", "sounds good to me", "can we move the meeting to tomorrow",
+            "the tests are green now", "has anyone tried restarting it", "I pushed a fix for that",
+            "what time is the release", "merging after lunch", "looks like a network issue", "works on my machine"};
+    private static final String[] NAMES = {"alice", "bob", "carol", "dave", "erin", "frank", "grace", "heidi"};
+    private static final String[] ENDINGS = {"", "", "!", "?", " :)", " thanks", " asap", "..."};
+
+    private ChatCorpus() {
+        // private constructor to prevent instantiation
+    }
+
+    static List<String> messages(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder body = new StringBuilder();
+            if (random.nextInt(3) == 0) {
+                body.append(OPENERS[random.nextInt(OPENERS.length)]).append(' ');
+            }
+            if (random.nextInt(4) == 0) {
+                body.append('@').append(NAMES[random.nextInt(NAMES.length)]).append(' ');
+            }
+            body.append(PHRASES[random.nextInt(PHRASES.length)]);
+            switch (random.nextInt(6)) {
+                case 0 -> body.append(" #").append(1000 + random.nextInt(9000));
+                case 1 -> body.append(" https://tickets.example.org/browse/CHAT-").append(random.nextInt(5000));
+                case 2 -> body.append(", ").append(PHRASES[random.nextInt(PHRASES.length)]);
+                default -> {
+                }
+            }
+            body.append(ENDINGS[random.nextInt(ENDINGS.length)]);
+            messages.add(body.toString());
+        }
+        return messages;
+    }
+}
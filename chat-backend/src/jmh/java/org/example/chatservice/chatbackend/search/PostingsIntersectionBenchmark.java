@@ -0,0 +1,116 @@
+package org.example.chatservice.chatbackend.search;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Two-term query against one segment: decoding both postings lists and intersecting the arrays, against
+ * advancing from the rarer list through the skip tables. query names the terms; "rare" is in one doc of 1000,
+ * "frequent" in one of 5 and "common" in every other doc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PostingsIntersectionBenchmark {
+    private static final int DOCS = 1_000_000;
+    private static final String CHANNEL = "channel";
+
+    @Param({"rare common", "frequent common"})
+    private String query;
+
+    private Path directory;
+    private Segment segment;
+    private String[] keys;
+    private int[] terms;
+
+    @Setup
+    public void setUp() throws IOException {
+        TreeMap<String, int[]> postings = new TreeMap<>(Comparator.comparing((String key) -> key.getBytes(UTF_8), Arrays::compareUnsigned));
+        postings.put(IndexSource.key(CHANNEL, "rare"), every(1000));
+        postings.put(IndexSource.key(CHANNEL, "frequent"), every(5));
+        postings.put(IndexSource.key(CHANNEL, "common"), every(2));
+        List<SegmentWriter.Term> sorted = new ArrayList<>();
+        postings.forEach((key, docIds) -> sorted.add(new SegmentWriter.Term(key.getBytes(UTF_8), docIds)));
+        Iterator<SegmentWriter.Term> termIterator = sorted.iterator();
+
+        directory = Files.createTempDirectory("postings-benchmark");
+        Path file = directory.resolve("benchmark.seg");
+        SegmentWriter.write(file, DOCS, docId -> new IndexedMessage("m" + docId, "u", "", docId), termIterator);
+        segment = Segment.open(file);
+
+        String[] words = query.split(" ");
+        keys = new String[words.length];
+        terms = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            keys[i] = IndexSource.key(CHANNEL, words[i]);
+            byte[] key = keys[i].getBytes(UTF_8);
+            for (int term = 0; term < segment.termCount(); term++) {
+                if (Arrays.equals(segment.keyAt(term), key)) {
+                    terms[i] = term;
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(directory.resolve("benchmark.seg"));
+        Files.deleteIfExists(directory);
+    }
+
+    private static int[] every(int interval) {
+        int[] docIds = new int[DOCS / interval];
+        for (int i = 0; i < docIds.length; i++) {
+            docIds[i] = i * interval;
+        }
+        return docIds;
+    }
+
+    // The search path before skip tables: full decode of every list, then a merge of the arrays
+    @Benchmark
+    public int[] decodeAndMerge() {
+        int[] matches = segment.postingsAt(terms[0]);
+        for (int i = 1; i < terms.length; i++) {
+            int[] other = segment.postingsAt(terms[i]);
+            int[] result = new int[Math.min(matches.length, other.length)];
+            int size = 0;
+            int a = 0;
+            int b = 0;
+            while (a < matches.length && b < other.length) {
+                if (matches[a] < other[b]) {
+                    a++;
+                } else if (matches[a] > other[b]) {
+                    b++;
+                } else {
+                    result[size++] = matches[a];
+                    a++;
+                    b++;
+                }
+            }
+            matches = Arrays.copyOf(result, size);
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int[] advanceFromRarest() {
+        DocIterator[] lists = new DocIterator[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            lists[i] = segment.postings(keys[i]);
+        }
+        Arrays.sort(lists, Comparator.comparingInt(DocIterator::cost));
+        return Postings.intersect(lists);
+    }
+}
@@ -0,0 +1,133 @@
+package org.example.chatservice.chatbackend.archive;
+
+import com.github.luben.zstd.Zstd;
+import org.example.chatservice.chatbackend.scylla.HistoryCursor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Read-only view of an archive segment written by db-persistence's ArchiveSegmentWriter: messages of one channel
+ * newest first in zstd blocks, plus a sparse index of the first key of every block. The file is memory-mapped and
+ * its checksum verified on the first open; a read binary-searches the index and decompresses only the blocks it
+ * needs.
+ */
+final class ArchiveSegment {
+    private static final int MAGIC = 0x43484152;
+    private static final int FORMAT_VERSION = 1;
+    private final MappedByteBuffer buffer;
+    private final long[] firstCreatedAt;
+    private final String[] firstMessageId;
+    private final int[] offset;
+    private final int[] compressedLength;
+    private final int[] uncompressedLength;
+
+    private ArchiveSegment(MappedByteBuffer buffer, long[] firstCreatedAt, String[] firstMessageId, int[] offset,
+                           int[] compressedLength, int[] uncompressedLength) {
+        this.buffer = buffer;
+        this.firstCreatedAt = firstCreatedAt;
+        this.firstMessageId = firstMessageId;
+        this.offset = offset;
+        this.compressedLength = compressedLength;
+        this.uncompressedLength = uncompressedLength;
+    }
+
+    // verifyChecksum scans the whole file, otherwise only the header is checked before the index is read
+    static ArchiveSegment open(Path file, boolean verifyChecksum) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive segment too large to map: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int bodyLength = buffer.limit() - Long.BYTES;
+        if (bodyLength < 2 * Integer.BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != FORMAT_VERSION) {
+            throw new IOException("Invalid archive segment: " + file);
+        }
+        if (verifyChecksum) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, bodyLength));
+            if (crc.getValue() != buffer.getLong(bodyLength)) {
+                throw new IOException("Invalid archive segment: " + file);
+            }
+        }
+
+        ByteBuffer index = buffer.duplicate();
+        index.position((int) buffer.getLong(bodyLength - 2 * Long.BYTES));
+        int blocks = index.getInt();
+        long[] firstCreatedAt = new long[blocks];
+        String[] firstMessageId = new String[blocks];
+        int[] offset = new int[blocks];
+        int[] compressedLength = new int[blocks];
+        int[] uncompressedLength = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            firstCreatedAt[i] = index.getLong();
+            firstMessageId[i] = readString(index);
+            offset[i] = (int) index.getLong();
+            compressedLength[i] = index.getInt();
+            uncompressedLength[i] = index.getInt();
+            index.getInt();
+        }
+        return new ArchiveSegment(buffer, firstCreatedAt, firstMessageId, offset, compressedLength, uncompressedLength);
+    }
+
+    // Up to limit messages older than before (from the newest when before is null), newest first
+    List<ArchivedMessage> readBefore(HistoryCursor before, int limit) {
+        List<ArchivedMessage> messages = new ArrayList<>(Math.min(limit, 1024));
+        for (int block = firstBlock(before); block < offset.length && messages.size() < limit; block++) {
+            byte[] compressed = new byte[compressedLength[block]];
+            buffer.get(offset[block], compressed);
+            ByteBuffer entries = ByteBuffer.wrap(Zstd.decompress(compressed, uncompressedLength[block]));
+            while (entries.hasRemaining() && messages.size() < limit) {
+                long createdAt = entries.getLong();
+                String messageId = readString(entries);
+                String sender = readString(entries);
+                String body = readString(entries);
+                if (before == null || compare(createdAt, messageId, before) < 0) {
+                    messages.add(new ArchivedMessage(createdAt, messageId, sender, body));
+                }
+            }
+        }
+        return messages;
+    }
+
+    // Blocks are in descending key order. Messages older than the cursor start in the block before the first one
+    // whose first key is already older.
+    private int firstBlock(HistoryCursor before) {
+        if (before == null) {
+            return 0;
+        }
+        int low = 0;
+        int high = offset.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(firstCreatedAt[mid], firstMessageId[mid], before) < 0) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return Math.max(0, low - 1);
+    }
+
+    static int compare(long createdAt, String messageId, HistoryCursor cursor) {
+        int byTime = Long.compare(createdAt, cursor.createdAt());
+        return byTime != 0 ? byTime : messageId.compareTo(cursor.messageId());
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.chatservice.chatbackend.archive;
+
+/**
+ * Catalog entry of an archive segment, from {@code channel_archive_segments}. file is relative to archive.path.
+ */
+public record ArchiveSegmentInfo(String channelId, int firstBucket, int lastBucket, long generation, String file) {
+}
@@ -0,0 +1,164 @@
+package org.example.chatservice.chatbackend.archive;
+
+import jakarta.annotation.PreDestroy;
+import org.example.chatservice.chatbackend.scylla.HistoryCursor;
+import org.example.chatservice.chatbackend.scylla.MessageBuckets;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads channel history that db-persistence's archive job moved out of ScyllaDB into segment files under
+ * archive.path. Opened segments stay mapped in a small LRU. Reads run on a dedicated pool so page faults on cold
+ * files never block driver or request threads. A segment's checksum is verified the first time its file is opened;
+ * files are never rewritten in place, so reopening one after eviction only checks its header.
+ */
+@Component
+public class ArchiveStore {
+    private static final Comparator<ArchivedMessage> NEWEST_FIRST = Comparator.comparingLong(ArchivedMessage::createdAt)
+            .thenComparing(ArchivedMessage::messageId).reversed();
+    // Entries are a file name and two longs, far more files than stay mapped are remembered
+    private static final int MAX_VERIFIED_FILES = 65_536;
+    private final Path directory;
+    private final Map<String, CompletableFuture<ArchiveSegment>> openSegments;
+    // Size and modification time of files whose checksum matched, a file that changed is verified again
+    private final Map<String, FileVersion> verifiedFiles = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FileVersion> eldest) {
+            return size() > MAX_VERIFIED_FILES;
+        }
+    };
+    private final ExecutorService readers;
+
+    public ArchiveStore(@Value("${archive.path:../data/archive}") String path,
+                        @Value("${archive.open-segments:256}") int maxOpenSegments,
+                        @Value("${archive.reader-threads:4}") int readerThreads) {
+        this.directory = Paths.get(path);
+        this.openSegments = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<ArchiveSegment>> eldest) {
+                // Dropped mappings are released once no reader holds them
+                return size() > maxOpenSegments;
+            }
+        };
+        AtomicInteger threads = new AtomicInteger();
+        this.readers = Executors.newFixedThreadPool(readerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "archive-reader-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Executor executor() {
+        return readers;
+    }
+
+    // Up to limit archived messages older than before, newest first. segments come from the catalog, newest range
+    // first. A range archived again after backfill or replay wrote into it, or by a rerun after an interrupted one,
+    // has several generations, so each range is merged and de-duplicated.
+    public List<ArchivedMessage> readBefore(List<ArchiveSegmentInfo> segments, HistoryCursor before, int limit) {
+        List<ArchivedMessage> result = new ArrayList<>();
+        HistoryCursor cursor = before;
+        int i = 0;
+        while (i < segments.size() && result.size() < limit) {
+            int firstBucket = segments.get(i).firstBucket();
+            List<ArchiveSegmentInfo> range = new ArrayList<>();
+            while (i < segments.size() && segments.get(i).firstBucket() == firstBucket) {
+                range.add(segments.get(i++));
+            }
+            if (cursor != null && firstBucket > MessageBuckets.bucketOf(cursor.createdAt())) {
+                continue;
+            }
+
+            int remaining = limit - result.size();
+            List<ArchivedMessage> merged = new ArrayList<>();
+            for (ArchiveSegmentInfo info : range) {
+                merged.addAll(segment(info).readBefore(cursor, remaining));
+            }
+            if (range.size() > 1) {
+                merged.sort(NEWEST_FIRST);
+            }
+            ArchivedMessage previous = null;
+            for (ArchivedMessage message : merged) {
+                if (remaining == 0) {
+                    break;
+                }
+                if (previous == null || !previous.messageId().equals(message.messageId())) {
+                    result.add(message);
+                    remaining--;
+                }
+                previous = message;
+            }
+            if (!result.isEmpty()) {
+                ArchivedMessage last = result.get(result.size() - 1);
+                cursor = new HistoryCursor(last.createdAt(), last.messageId());
+            }
+        }
+        return result;
+    }
+
+    // Only the map is touched under the lock. Mapping a file and checking its checksums runs outside it, readers of
+    // the same file wait on the one opening it. A failed open is not kept, the next read tries again.
+    private ArchiveSegment segment(ArchiveSegmentInfo info) {
+        CompletableFuture<ArchiveSegment> claimed = new CompletableFuture<>();
+        CompletableFuture<ArchiveSegment> opening;
+        synchronized (openSegments) {
+            opening = openSegments.putIfAbsent(info.file(), claimed);
+        }
+        if (opening == null) {
+            opening = claimed;
+            try {
+                claimed.complete(open(info.file()));
+            } catch (IOException | RuntimeException e) {
+                synchronized (openSegments) {
+                    openSegments.remove(info.file(), claimed);
+                }
+                claimed.completeExceptionally(e);
+            }
+        }
+        try {
+            return opening.join();
+        } catch (CompletionException e) {
+            throw new ArchiveUnavailableException("Archive segment " + info.file() + " cannot be read", e.getCause());
+        }
+    }
+
+    private ArchiveSegment open(String name) throws IOException {
+        Path file = directory.resolve(name);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        FileVersion version = new FileVersion(attributes.size(), attributes.lastModifiedTime().toMillis());
+        boolean verified;
+        synchronized (verifiedFiles) {
+            verified = version.equals(verifiedFiles.get(name));
+        }
+        ArchiveSegment segment = ArchiveSegment.open(file, !verified);
+        synchronized (verifiedFiles) {
+            verifiedFiles.put(name, version);
+        }
+        return segment;
+    }
+
+    @PreDestroy
+    public void close() {
+        readers.shutdown();
+    }
+
+    private record FileVersion(long size, long lastModified) {
+    }
+}
@@ -0,0 +1,10 @@
+package org.example.chatservice.chatbackend.archive;
+
+/**
+ * An archive segment listed in the catalog cannot be read, e.g. its file is missing from archive.path.
+ */
+public class ArchiveUnavailableException extends RuntimeException {
+    public ArchiveUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.chatservice.chatbackend.archive;
+
+/**
+ * One message read back from an archive segment.
+ */
+public record ArchivedMessage(long createdAt, String messageId, String sender, String body) {
+}
@@ -2,26 +2,31 @@ package org.example.chatservice.chatbackend.cache;
 
 import com.example.chat.proto.Channel;
 import com.example.chat.proto.User;
-import org.example.chatservice.chatbackend.scylla.ScyllaDB;
-
-import java.util.HashMap;
-import java.util.Map;
 
 public class Cache {
-    public static Map<String, Channel> channelCache = new HashMap<>();
-    public static Map<String, Channel> channelNameCache = new HashMap<>();
-    public static Map<String, User> userCache = new HashMap<>();
-    public static Map<String, User> userNameCache = new HashMap<>();
+    // Start the JVM with -Dchat.directory.off-heap=true to keep directory strings outside the Java heap
+    private static final boolean OFF_HEAP = Boolean.getBoolean("chat.directory.off-heap");
 
-    private Cache() {
-        // Private constructor to prevent instantiation
-    }
+    public static final DirectoryCodec<Channel> CHANNEL_CODEC = DirectoryCodec.of(
+            Channel::getChannelId, Channel::getName, Channel::getDescription,
+            (id, name, description) -> Channel.newBuilder()
+                    .setChannelId(id)
+                    .setName(name)
+                    .setDescription(description)
+                    .build());
 
-    public static void populateChannelCache(ScyllaDB scyllaDB) {
-        scyllaDB.populateChannelsPaging();
-    }
+    public static final DirectoryCodec<User> USER_CODEC = DirectoryCodec.of(
+            User::getUserId, User::getUsername, User::getDisplayName,
+            (id, username, displayName) -> User.newBuilder()
+                    .setUserId(id)
+                    .setUsername(username)
+                    .setDisplayName(displayName)
+                    .build());
+
+    public static final Directory<Channel> channels = new Directory<>(CHANNEL_CODEC, OFF_HEAP);
+    public static final Directory<User> users = new Directory<>(USER_CODEC, OFF_HEAP);
 
-    public static void populateUserCache(ScyllaDB scyllaDB) {
-        scyllaDB.populateUsersPaging();
+    private Cache() {
+        // Private constructor to prevent instantiation
     }
 }
@@ -0,0 +1,507 @@
+package org.example.chatservice.chatbackend.cache;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compact id and name indexed store for directory entries (users or channels).
+ * Every entry is three UTF-8 strings appended to one byte arena (on or off heap) and referenced from dense
+ * int arrays; lookups go through open-addressing hash indexes and only the entry being returned is turned
+ * back into an object. Reads are optimistic and lock-free unless they race a writer; writes are serialized.
+ */
+public class Directory<T> {
+    private static final int ID = 0;
+    private static final int NAME = 2;
+    private static final int DETAIL = 4;
+    private static final int STRIDE = 6;
+    private static final int FREE = -1;
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int INITIAL_ARENA_BYTES = 64 * 1024;
+    private static final int MIN_COMPACTION_GARBAGE = 1024 * 1024;
+
+    private final DirectoryCodec<T> codec;
+    private final boolean offHeap;
+    private final StampedLock lock = new StampedLock();
+
+    private ByteBuffer arena;
+    private int arenaUsed;
+    private int arenaGarbage;
+
+    // Per slot: (offset, length) of the id, name and detail bytes in the arena. A FREE id length marks a free slot.
+    private int[] records;
+    private int[] idHashes;
+    private int[] nameHashes;
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int live;
+
+    // Open-addressing indexes holding slot + 1, EMPTY or TOMBSTONE.
+    private int[] idIndex;
+    private int[] nameIndex;
+    private int idTombstones;
+    private int nameEntries;
+    private int nameTombstones;
+
+    public Directory(DirectoryCodec<T> codec, boolean offHeap) {
+        this.codec = codec;
+        this.offHeap = offHeap;
+        this.arena = allocate(INITIAL_ARENA_BYTES);
+        this.records = new int[INITIAL_SLOTS * STRIDE];
+        this.idHashes = new int[INITIAL_SLOTS];
+        this.nameHashes = new int[INITIAL_SLOTS];
+        this.idIndex = new int[INITIAL_SLOTS * 2];
+        this.nameIndex = new int[INITIAL_SLOTS * 2];
+    }
+
+    public T getById(String id) {
+        return id == null ? null : lookup(ID, id);
+    }
+
+    public T getByName(String name) {
+        return name == null ? null : lookup(NAME, name);
+    }
+
+    public boolean containsName(String name) {
+        if (name == null) {
+            return false;
+        }
+        byte[] key = name.getBytes(UTF_8);
+        int hash = hash(key);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                boolean found = findPos(NAME, key, hash) >= 0;
+                if (lock.validate(stamp)) {
+                    return found;
+                }
+            } catch (RuntimeException e) {
+                // torn read while a writer was active, retry under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return findPos(NAME, key, hash) >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public List<T> values() {
+        long stamp = lock.readLock();
+        try {
+            List<T> values = new ArrayList<>(live);
+            for (int slot = 0; slot < slotCount; slot++) {
+                int base = slot * STRIDE;
+                if (records[base + ID + 1] != FREE) {
+                    values.add(materialize(arena, records[base + ID], records[base + ID + 1],
+                            records[base + NAME], records[base + NAME + 1],
+                            records[base + DETAIL], records[base + DETAIL + 1]));
+                }
+            }
+            return values;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Captures the live entries for a snapshot file. Only the slot table is copied under the read lock, arena bytes
+    // are never rewritten in place and are streamed from the captured arena afterwards.
+    public Entries entries() {
+        long stamp = lock.readLock();
+        try {
+            return new Entries(arena, Arrays.copyOf(records, slotCount * STRIDE), live);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int size = live;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                size = live;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    public long storageBytes() {
+        long stamp = lock.readLock();
+        try {
+            return (long) arena.capacity()
+                    + 4L * (records.length + idHashes.length + nameHashes.length + idIndex.length + nameIndex.length);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void put(T entry) {
+        byte[] id = codec.id(entry).getBytes(UTF_8);
+        byte[] name = codec.name(entry).getBytes(UTF_8);
+        byte[] detail = codec.detail(entry).getBytes(UTF_8);
+        int idHash = hash(id);
+        int nameHash = hash(name);
+
+        long stamp = lock.writeLock();
+        try {
+            int pos = findPos(ID, id, idHash);
+            if (pos >= 0) {
+                int slot = idIndex[pos] - 1;
+                int base = slot * STRIDE;
+                if (!matches(slot, NAME, name)) {
+                    unlinkName(slot);
+                    arenaGarbage += records[base + NAME + 1];
+                    records[base + NAME] = append(name);
+                    records[base + NAME + 1] = name.length;
+                    nameHashes[slot] = nameHash;
+                    linkName(slot, name, nameHash);
+                }
+                if (!matches(slot, DETAIL, detail)) {
+                    arenaGarbage += records[base + DETAIL + 1];
+                    records[base + DETAIL] = append(detail);
+                    records[base + DETAIL + 1] = detail.length;
+                }
+            } else {
+                ensureIdIndexCapacity();
+                int slot = allocateSlot();
+                int base = slot * STRIDE;
+                records[base + ID] = append(id);
+                records[base + ID + 1] = id.length;
+                records[base + NAME] = append(name);
+                records[base + NAME + 1] = name.length;
+                records[base + DETAIL] = append(detail);
+                records[base + DETAIL + 1] = detail.length;
+                idHashes[slot] = idHash;
+                nameHashes[slot] = nameHash;
+                if (insert(idIndex, slot, idHash)) {
+                    idTombstones--;
+                }
+                linkName(slot, name, nameHash);
+                live++;
+            }
+            maybeCompactArena();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void remove(String id) {
+        if (id == null) {
+            return;
+        }
+        byte[] key = id.getBytes(UTF_8);
+        int hash = hash(key);
+        long stamp = lock.writeLock();
+        try {
+            int pos = findPos(ID, key, hash);
+            if (pos < 0) {
+                return;
+            }
+            int slot = idIndex[pos] - 1;
+            int base = slot * STRIDE;
+            idIndex[pos] = TOMBSTONE;
+            idTombstones++;
+            unlinkName(slot);
+            arenaGarbage += records[base + ID + 1] + records[base + NAME + 1] + records[base + DETAIL + 1];
+            records[base + ID + 1] = FREE;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            live--;
+            maybeCompactArena();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private T lookup(int field, String key) {
+        byte[] bytes = key.getBytes(UTF_8);
+        int hash = hash(bytes);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                ByteBuffer a = arena;
+                int pos = findPos(field, bytes, hash);
+                if (pos < 0) {
+                    if (lock.validate(stamp)) {
+                        return null;
+                    }
+                } else {
+                    int base = (indexFor(field)[pos] - 1) * STRIDE;
+                    int[] r = records;
+                    int idOff = r[base + ID], idLen = r[base + ID + 1];
+                    int nameOff = r[base + NAME], nameLen = r[base + NAME + 1];
+                    int detailOff = r[base + DETAIL], detailLen = r[base + DETAIL + 1];
+                    // Arena bytes are never rewritten in place, so once validated the captured refs stay readable.
+                    if (lock.validate(stamp)) {
+                        return materialize(a, idOff, idLen, nameOff, nameLen, detailOff, detailLen);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // torn read while a writer was active, retry under the read lock
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            int pos = findPos(field, bytes, hash);
+            if (pos < 0) {
+                return null;
+            }
+            int base = (indexFor(field)[pos] - 1) * STRIDE;
+            return materialize(arena, records[base + ID], records[base + ID + 1],
+                    records[base + NAME], records[base + NAME + 1],
+                    records[base + DETAIL], records[base + DETAIL + 1]);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private T materialize(ByteBuffer a, int idOff, int idLen, int nameOff, int nameLen, int detailOff, int detailLen) {
+        return codec.build(decode(a, idOff, idLen), decode(a, nameOff, nameLen), decode(a, detailOff, detailLen));
+    }
+
+    private static String decode(ByteBuffer a, int offset, int length) {
+        byte[] bytes = new byte[length];
+        a.get(offset, bytes, 0, length);
+        return new String(bytes, UTF_8);
+    }
+
+    private int[] indexFor(int field) {
+        return field == ID ? idIndex : nameIndex;
+    }
+
+    private int findPos(int field, byte[] key, int hash) {
+        int[] index = indexFor(field);
+        int[] hashes = field == ID ? idHashes : nameHashes;
+        int mask = index.length - 1;
+        int pos = hash & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            int value = index[pos];
+            if (value == EMPTY) {
+                return -1;
+            }
+            if (value > 0) {
+                int slot = value - 1;
+                if (hashes[slot] == hash && matches(slot, field, key)) {
+                    return pos;
+                }
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int slot, int field, byte[] key) {
+        int base = slot * STRIDE;
+        int offset = records[base + field];
+        if (records[base + field + 1] != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (arena.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns true when the new entry took the place of a tombstone
+    private static boolean insert(int[] index, int slot, int hash) {
+        int mask = index.length - 1;
+        int pos = hash & mask;
+        while (index[pos] > 0) {
+            pos = (pos + 1) & mask;
+        }
+        boolean reused = index[pos] == TOMBSTONE;
+        index[pos] = slot + 1;
+        return reused;
+    }
+
+    private void linkName(int slot, byte[] name, int nameHash) {
+        int pos = findPos(NAME, name, nameHash);
+        if (pos >= 0) {
+            // Another entry already owns this name, the newest write wins as with a plain map
+            nameIndex[pos] = slot + 1;
+            return;
+        }
+        ensureNameIndexCapacity();
+        if (insert(nameIndex, slot, nameHash)) {
+            nameTombstones--;
+        }
+        nameEntries++;
+    }
+
+    private void unlinkName(int slot) {
+        int mask = nameIndex.length - 1;
+        int pos = nameHashes[slot] & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            int value = nameIndex[pos];
+            if (value == EMPTY) {
+                return;
+            }
+            if (value == slot + 1) {
+                nameIndex[pos] = TOMBSTONE;
+                nameTombstones++;
+                nameEntries--;
+                return;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    private void ensureIdIndexCapacity() {
+        if ((live + idTombstones + 1) * 2 <= idIndex.length) {
+            return;
+        }
+        int[] rebuilt = new int[tableSize(live + 1)];
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (records[slot * STRIDE + ID + 1] != FREE) {
+                insert(rebuilt, slot, idHashes[slot]);
+            }
+        }
+        idIndex = rebuilt;
+        idTombstones = 0;
+    }
+
+    private void ensureNameIndexCapacity() {
+        if ((nameEntries + nameTombstones + 1) * 2 <= nameIndex.length) {
+            return;
+        }
+        int[] rebuilt = new int[tableSize(nameEntries + 1)];
+        for (int value : nameIndex) {
+            if (value > 0) {
+                insert(rebuilt, value - 1, nameHashes[value - 1]);
+            }
+        }
+        nameIndex = rebuilt;
+        nameTombstones = 0;
+    }
+
+    private static int tableSize(int entries) {
+        int size = Integer.highestOneBit(Math.max(16, entries * 4) - 1) << 1;
+        if (size <= 0) {
+            throw new IllegalStateException("Directory index is full");
+        }
+        return size;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == idHashes.length) {
+            int capacity = idHashes.length * 2;
+            records = Arrays.copyOf(records, capacity * STRIDE);
+            idHashes = Arrays.copyOf(idHashes, capacity);
+            nameHashes = Arrays.copyOf(nameHashes, capacity);
+        }
+        return slotCount++;
+    }
+
+    private int append(byte[] bytes) {
+        if ((long) arenaUsed + bytes.length > arena.capacity()) {
+            long required = (long) arenaUsed + bytes.length;
+            long capacity = Math.max((long) arena.capacity() * 2, required);
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Directory arena is full");
+            }
+            ByteBuffer grown = allocate((int) Math.min(capacity, Integer.MAX_VALUE - 8));
+            grown.put(0, arena, 0, arenaUsed);
+            arena = grown;
+        }
+        int offset = arenaUsed;
+        arena.put(offset, bytes);
+        arenaUsed += bytes.length;
+        return offset;
+    }
+
+    private void maybeCompactArena() {
+        if (arenaGarbage < MIN_COMPACTION_GARBAGE || arenaGarbage < arenaUsed / 2) {
+            return;
+        }
+        ByteBuffer previous = arena;
+        arena = allocate(Math.max(INITIAL_ARENA_BYTES, (arenaUsed - arenaGarbage) * 2));
+        arenaUsed = 0;
+        arenaGarbage = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = slot * STRIDE;
+            if (records[base + ID + 1] == FREE) {
+                continue;
+            }
+            for (int field = ID; field <= DETAIL; field += 2) {
+                int length = records[base + field + 1];
+                arena.put(arenaUsed, previous, records[base + field], length);
+                records[base + field] = arenaUsed;
+                arenaUsed += length;
+            }
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int hash(byte[] bytes) {
+        int h = 0x811c9dc5;
+        for (byte b : bytes) {
+            h = (h ^ b) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    public static final class Entries {
+        private final ByteBuffer arena;
+        private final int[] records;
+        private final int count;
+
+        private Entries(ByteBuffer arena, int[] records, int count) {
+            this.arena = arena;
+            this.records = records;
+            this.count = count;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        // Every field as an int length followed by its UTF-8 bytes, copied straight from the arena
+        public void writeTo(DataOutput out) throws IOException {
+            byte[] bytes = new byte[256];
+            for (int base = 0; base < records.length; base += STRIDE) {
+                if (records[base + ID + 1] == FREE) {
+                    continue;
+                }
+                for (int field = ID; field <= DETAIL; field += 2) {
+                    int length = records[base + field + 1];
+                    if (length > bytes.length) {
+                        bytes = new byte[Math.max(length, bytes.length * 2)];
+                    }
+                    arena.get(records[base + field], bytes, 0, length);
+                    out.writeInt(length);
+                    out.write(bytes, 0, length);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.chatservice.chatbackend.cache;
+
+import java.util.function.Function;
+
+/**
+ * Maps a directory entry to its three stored fields (id, name, detail) and back.
+ */
+public interface DirectoryCodec<T> {
+    String id(T entry);
+
+    String name(T entry);
+
+    String detail(T entry);
+
+    T build(String id, String name, String detail);
+
+    interface Factory<T> {
+        T build(String id, String name, String detail);
+    }
+
+    static <T> DirectoryCodec<T> of(Function<T, String> idOf, Function<T, String> nameOf,
+                                    Function<T, String> detailOf, Factory<T> factory) {
+        return new DirectoryCodec<>() {
+            @Override
+            public String id(T entry) {
+                return idOf.apply(entry);
+            }
+
+            @Override
+            public String name(T entry) {
+                return nameOf.apply(entry);
+            }
+
+            @Override
+            public String detail(T entry) {
+                return detailOf.apply(entry);
+            }
+
+            @Override
+            public T build(String id, String name, String detail) {
+                return factory.build(id, name, detail);
+            }
+        };
+    }
+}
@@ -0,0 +1,187 @@
+package org.example.chatservice.chatbackend.cache;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Periodically writes the user/channel directory together with the update-topic positions it reflects to a
+ * local file. On boot the file is memory-mapped and loaded, and the directory consumer resumes the update
+ * topics from the recorded positions instead of the whole directory being scanned from ScyllaDB.
+ */
+@Component
+public class DirectorySnapshot {
+    private static final Logger log = LoggerFactory.getLogger(DirectorySnapshot.class.getSimpleName());
+    private static final int MAGIC = 0x43484453;
+    private static final int FORMAT_VERSION = 1;
+
+    private final boolean enabled;
+    private final Path path;
+    // Next offset to read per update-topic partition, as applied to the local directory
+    private final Map<TopicPartition, Long> positions = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, Long> restoredPositions = new HashMap<>();
+    private boolean restored;
+
+    public DirectorySnapshot(@Value("${directory.snapshot.enabled:true}") boolean enabled,
+                             @Value("${directory.snapshot.path:data/directory.snapshot}") String path) {
+        this.enabled = enabled;
+        this.path = Paths.get(path);
+        if (enabled && Files.exists(this.path)) {
+            restore();
+        }
+    }
+
+    public boolean restored() {
+        return restored;
+    }
+
+    public Long restoredPosition(TopicPartition topicPartition) {
+        return restoredPositions.get(topicPartition);
+    }
+
+    public void recordApplied(String topic, int partition, long offset) {
+        positions.put(new TopicPartition(topic, partition), offset + 1);
+    }
+
+    @Scheduled(initialDelayString = "${directory.snapshot.interval-ms:60000}",
+            fixedDelayString = "${directory.snapshot.interval-ms:60000}")
+    public void scheduledWrite() {
+        if (enabled) {
+            write();
+        }
+    }
+
+    @PreDestroy
+    public void writeOnShutdown() {
+        if (enabled) {
+            write();
+        }
+    }
+
+    public synchronized void write() {
+        long start = System.currentTimeMillis();
+        // Positions are captured before the entries, so replaying from them can only re-apply updates
+        Map<TopicPartition, Long> capturedPositions = new HashMap<>(positions);
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+            CRC32 crc = new CRC32();
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(start);
+                out.writeInt(capturedPositions.size());
+                for (Map.Entry<TopicPartition, Long> position : capturedPositions.entrySet()) {
+                    writeString(out, position.getKey().topic());
+                    out.writeInt(position.getKey().partition());
+                    out.writeLong(position.getValue());
+                }
+                writeEntries(out, Cache.users.entries());
+                writeEntries(out, Cache.channels.entries());
+                out.flush();
+                file.write(ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue()).array());
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Wrote directory snapshot {} in {} ms", path, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.error("Failed to write directory snapshot {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void restore() {
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < 3 * Integer.BYTES + 2 * Long.BYTES || buffer.getInt(0) != MAGIC) {
+                log.warn("Ignoring directory snapshot {}: not a snapshot file", path);
+                return;
+            }
+            if (buffer.getInt(Integer.BYTES) != FORMAT_VERSION) {
+                log.warn("Ignoring directory snapshot {}: unsupported format version {}", path, buffer.getInt(Integer.BYTES));
+                return;
+            }
+            int bodyLength = buffer.limit() - Long.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, bodyLength));
+            if (crc.getValue() != buffer.getLong(bodyLength)) {
+                log.warn("Ignoring directory snapshot {}: checksum mismatch", path);
+                return;
+            }
+
+            buffer.position(2 * Integer.BYTES);
+            long writtenAt = buffer.getLong();
+            Map<TopicPartition, Long> snapshotPositions = new HashMap<>();
+            int positionCount = buffer.getInt();
+            for (int i = 0; i < positionCount; i++) {
+                String topic = readString(buffer);
+                int partition = buffer.getInt();
+                snapshotPositions.put(new TopicPartition(topic, partition), buffer.getLong());
+            }
+            int users = readEntries(buffer, Cache.users, Cache.USER_CODEC);
+            int channels = readEntries(buffer, Cache.channels, Cache.CHANNEL_CODEC);
+
+            restoredPositions.putAll(snapshotPositions);
+            positions.putAll(snapshotPositions);
+            restored = true;
+            log.info("Restored {} users and {} channels from directory snapshot written at {} in {} ms",
+                    users, channels, writtenAt, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable directory snapshot {}: {}", path, e.getMessage());
+        }
+    }
+
+    // The fields are copied from the directory's arena without building an entry object
+    private static void writeEntries(DataOutputStream out, Directory.Entries entries) throws IOException {
+        out.writeInt(entries.count());
+        entries.writeTo(out);
+    }
+
+    private static <T> int readEntries(ByteBuffer buffer, Directory<T> directory, DirectoryCodec<T> codec) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            directory.put(codec.build(readString(buffer), readString(buffer), readString(buffer)));
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
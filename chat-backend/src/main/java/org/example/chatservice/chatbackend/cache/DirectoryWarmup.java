@@ -0,0 +1,34 @@
+package org.example.chatservice.chatbackend.cache;
+
+import org.example.chatservice.chatbackend.scylla.ScyllaDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads the user and channel directory from ScyllaDB before the application starts serving, unless it was
+ * already restored from a local snapshot.
+ */
+@Component
+public class DirectoryWarmup {
+    private static final Logger log = LoggerFactory.getLogger(DirectoryWarmup.class.getSimpleName());
+
+    public DirectoryWarmup(ScyllaDB scyllaDB, DirectorySnapshot directorySnapshot) {
+        if (directorySnapshot.restored()) {
+            log.info("Directory restored from snapshot, skipping full scan; updates catch up from Kafka");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        CompletableFuture<Long> users = scyllaDB.populateUsers();
+        CompletableFuture<Long> channels = scyllaDB.populateChannels();
+        try {
+            CompletableFuture.allOf(users, channels).join();
+            log.info("Directory warm-up loaded {} users and {} channels in {} ms",
+                    users.join(), channels.join(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Directory warm-up failed after {} ms: {}", System.currentTimeMillis() - start, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.example.chatservice.chatbackend.cache;
+
+import com.example.chat.proto.ChatMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.kafka.common.utils.Utils;
+import org.example.chatservice.chatbackend.config.KafkaTopicConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Bounded in-memory buffer of the newest messages per channel, fed by the chat-stream listener.
+ * A channel's buffer only answers history reads once it has been seeded from ScyllaDB by a page reaching the
+ * oldest message the listener buffered, and while this node consumes the channel's partition, so it never serves
+ * a page with gaps. Channels are evicted least recently used first, bounded both by channel count and total
+ * buffered messages. A channel whose records the listener
+ * skips (no local subscribers) is cold: its buffer is dropped and it is not seeded again until one of its
+ * records is consumed. Records the listener did not parse, because the channel only has binary subscribers, are
+ * buffered as bytes and parsed when the channel's history is first read.
+ */
+@Component
+public class HotHistory {
+    private final int messagesPerChannel;
+    private final int maxChannels;
+    private final long maxMessages;
+    private final Set<Integer> livePartitions = ConcurrentHashMap.newKeySet();
+    private final Set<String> coldChannels = ConcurrentHashMap.newKeySet();
+    private final LinkedHashMap<String, Ring> rings = new LinkedHashMap<>(16, 0.75f, true);
+    private long bufferedMessages;
+
+    public HotHistory(@Value("${history.hot.messages-per-channel:200}") int messagesPerChannel,
+                      @Value("${history.hot.max-channels:10000}") int maxChannels,
+                      @Value("${history.hot.max-messages:1000000}") long maxMessages) {
+        this.messagesPerChannel = messagesPerChannel;
+        this.maxChannels = maxChannels;
+        this.maxMessages = maxMessages;
+    }
+
+    public void onMessage(int partition, ChatMessage message) {
+        coldChannels.remove(message.getChannel().getChannelId());
+        Ring ring;
+        synchronized (this) {
+            ring = rings.computeIfAbsent(message.getChannel().getChannelId(), id -> new Ring(messagesPerChannel));
+        }
+        int added = ring.add(message);
+        if (added != 0) {
+            adjust(added);
+        }
+    }
+
+    // A record the listener forwarded without parsing it, keyed by channel id
+    public void onRecord(int partition, String channelId, byte[] value) {
+        coldChannels.remove(channelId);
+        Ring ring;
+        synchronized (this) {
+            ring = rings.computeIfAbsent(channelId, id -> new Ring(messagesPerChannel));
+        }
+        int added = ring.addUnparsed(value);
+        if (added != 0) {
+            adjust(added);
+        }
+    }
+
+    // The listener dropped a record of the channel without reading it, the buffer would have a gap
+    public void skipped(String channelId) {
+        if (coldChannels.add(channelId)) {
+            synchronized (this) {
+                Ring ring = rings.remove(channelId);
+                if (ring != null) {
+                    bufferedMessages -= ring.size();
+                }
+            }
+        }
+    }
+
+    public List<ChatMessage> latest(String channelId, int limit) {
+        if (limit > messagesPerChannel || !livePartitions.contains(partitionOf(channelId))) {
+            return null;
+        }
+        Ring ring;
+        synchronized (this) {
+            ring = rings.get(channelId);
+        }
+        if (ring == null) {
+            return null;
+        }
+        int parsed = ring.parsePending();
+        if (parsed != 0) {
+            adjust(parsed);
+        }
+        return ring.latest(limit);
+    }
+
+    public void seed(String channelId, List<ChatMessage> newestFirst, boolean exhaustive) {
+        if (!livePartitions.contains(partitionOf(channelId))) {
+            return;
+        }
+        Ring ring;
+        synchronized (this) {
+            // Checked under the lock skipped() drops the ring with, so a ring seeded concurrently is dropped too
+            if (coldChannels.contains(channelId)) {
+                return;
+            }
+            ring = rings.computeIfAbsent(channelId, id -> new Ring(messagesPerChannel));
+        }
+        int added = ring.seed(newestFirst, exhaustive);
+        if (added != 0) {
+            adjust(added);
+        }
+    }
+
+    public void partitionsAssigned(Collection<Integer> partitions) {
+        livePartitions.addAll(partitions);
+    }
+
+    public synchronized void partitionsRevoked(Collection<Integer> partitions) {
+        livePartitions.removeAll(partitions);
+        Iterator<Map.Entry<String, Ring>> iterator = rings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Ring> entry = iterator.next();
+            if (partitions.contains(partitionOf(entry.getKey()))) {
+                bufferedMessages -= entry.getValue().size();
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void adjust(int delta) {
+        bufferedMessages += delta;
+        Iterator<Map.Entry<String, Ring>> eldest = rings.entrySet().iterator();
+        while ((rings.size() > maxChannels || bufferedMessages > maxMessages) && eldest.hasNext()) {
+            bufferedMessages -= eldest.next().getValue().size();
+            eldest.remove();
+        }
+    }
+
+    // Same placement as the default producer partitioner, chat-stream records are keyed by channel id
+    private static int partitionOf(String channelId) {
+        return Utils.toPositive(Utils.murmur2(channelId.getBytes(UTF_8))) % KafkaTopicConfig.CHAT_STREAM_PARTITIONS;
+    }
+
+    private static final class Ring {
+        private final ChatMessage[] buffer;
+        // Unparsed records, oldest first, at most one ring's worth
+        private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+        private int head;
+        private int size;
+        private boolean seeded;
+        private boolean complete;
+
+        private Ring(int capacity) {
+            this.buffer = new ChatMessage[capacity];
+        }
+
+        // Returns the change in buffered messages
+        private synchronized int add(ChatMessage message) {
+            int before = size;
+            insert(message);
+            return size - before;
+        }
+
+        // Returns the change in buffered messages
+        private synchronized int addUnparsed(byte[] value) {
+            pending.addLast(value);
+            if (pending.size() > buffer.length) {
+                // A full ring of newer records would push it out anyway
+                pending.removeFirst();
+                complete = false;
+                return 0;
+            }
+            return 1;
+        }
+
+        // Returns the change in buffered messages
+        private synchronized int parsePending() {
+            int before = size + pending.size();
+            insertPending();
+            return size - before;
+        }
+
+        private void insertPending() {
+            byte[] value;
+            while ((value = pending.pollFirst()) != null) {
+                try {
+                    insert(ChatMessage.parseFrom(value));
+                } catch (InvalidProtocolBufferException e) {
+                    // Dropped, as the listener drops records that do not parse
+                }
+            }
+        }
+
+        // The listener starts at the end of the partition and ScyllaDB may lag behind it, so a message can be in
+        // neither the page nor the buffer. The ring is only seeded when the page reaches its oldest buffered
+        // message; otherwise the page is not kept and reads stay on ScyllaDB until a later page does reach it.
+        private synchronized int seed(List<ChatMessage> newestFirst, boolean exhaustive) {
+            int before = size + pending.size();
+            insertPending();
+            if (!seeded && size > 0 && (newestFirst.isEmpty() || newestFirst.get(0).getTimeStamp() < at(0).getTimeStamp())) {
+                return size - before;
+            }
+            boolean dropped = false;
+            for (ChatMessage message : newestFirst) {
+                dropped |= !insert(message);
+            }
+            seeded = true;
+            complete = exhaustive && !dropped;
+            return size - before;
+        }
+
+        private synchronized List<ChatMessage> latest(int limit) {
+            if (!seeded || (size < limit && !complete)) {
+                return null;
+            }
+            int count = Math.min(limit, size);
+            List<ChatMessage> messages = new ArrayList<>(count);
+            for (int i = size - 1; i >= size - count; i--) {
+                messages.add(at(i));
+            }
+            return messages;
+        }
+
+        private synchronized int size() {
+            return size + pending.size();
+        }
+
+        private ChatMessage at(int index) {
+            return buffer[(head + index) % buffer.length];
+        }
+
+        // Keeps the buffer ordered oldest to newest by timestamp. Returns false if the message is not
+        // buffered because it is older than everything in a full ring.
+        private boolean insert(ChatMessage message) {
+            int position = size;
+            while (position > 0 && at(position - 1).getTimeStamp() >= message.getTimeStamp()) {
+                if (at(position - 1).getMessageId().equals(message.getMessageId())) {
+                    return true;
+                }
+                position--;
+            }
+            if (size == buffer.length) {
+                if (position == 0) {
+                    complete = false;
+                    return false;
+                }
+                // Drop the oldest message to make room
+                head = (head + 1) % buffer.length;
+                size--;
+                position--;
+                complete = false;
+            }
+            for (int i = size; i > position; i--) {
+                buffer[(head + i) % buffer.length] = at(i - 1);
+            }
+            buffer[(head + position) % buffer.length] = message;
+            size++;
+            return true;
+        }
+    }
+}
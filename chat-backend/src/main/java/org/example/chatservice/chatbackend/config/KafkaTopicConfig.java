@@ -7,16 +7,30 @@ import org.springframework.kafka.config.TopicBuilder;
 
 @Configuration
 public class KafkaTopicConfig {
+    public static final int CHAT_STREAM_PARTITIONS = 15;
+    public static final int UPDATES_TOPIC_PARTITIONS = 3;
+    // Holds chat-stream records, so it is sized like chat-stream rather than the update topics
+    public static final int DLQ_TOPIC_PARTITIONS = CHAT_STREAM_PARTITIONS;
+
     @Bean
     public NewTopic chatStreamTopic(){
-        return TopicBuilder.name("chat-stream").partitions(15).build();
+        return TopicBuilder.name("chat-stream").partitions(CHAT_STREAM_PARTITIONS).build();
+    }
+
+    // Records db-persistence could not parse or store, replayed with its dlq-replay command
+    @Bean
+    public NewTopic chatStreamDlqTopic(){
+        return TopicBuilder.name("chat-stream-dlq").partitions(DLQ_TOPIC_PARTITIONS).build();
     }
 
+    // Update topics are compacted so they always hold the latest state of every user and channel
+    @Bean
     public NewTopic userUpdatesTopic(){
-        return TopicBuilder.name("user-updates").partitions(3).build();
+        return TopicBuilder.name("user-updates").partitions(UPDATES_TOPIC_PARTITIONS).compact().build();
     }
 
+    @Bean
     public NewTopic channelUpdatesTopic(){
-        return TopicBuilder.name("channel-updates").partitions(3).build();
+        return TopicBuilder.name("channel-updates").partitions(UPDATES_TOPIC_PARTITIONS).compact().build();
     }
 }
@@ -0,0 +1,65 @@
+package org.example.chatservice.chatbackend.controller;
+
+import org.apache.kafka.streams.errors.InvalidStateStoreException;
+import org.example.chatservice.chatbackend.streams.ActivityQueries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.RestClientException;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+@RestController
+@RequestMapping("/api/v1/activity")
+public class ActivityController {
+    private static final Logger log = LoggerFactory.getLogger(ActivityController.class);
+    private final ActivityQueries activityQueries;
+    private final int maxMinutes;
+
+    public ActivityController(ActivityQueries activityQueries,
+                              @Value("${activity.retention-minutes:1440}") int maxMinutes) {
+        this.activityQueries = activityQueries;
+        this.maxMinutes = maxMinutes;
+    }
+
+    @GetMapping("/channel/{channelId}")
+    public ResponseEntity<?> getChannelActivity(@PathVariable("channelId") String channelId,
+                                                @RequestParam(value = "minutes", defaultValue = "15") int minutes,
+                                                @RequestParam(value = "local", defaultValue = "false") boolean local) {
+        return query(() -> activityQueries.channelActivity(channelId, clampMinutes(minutes), local));
+    }
+
+    @GetMapping("/user/{userId}")
+    public ResponseEntity<?> getUserActivity(@PathVariable("userId") String userId,
+                                             @RequestParam(value = "minutes", defaultValue = "15") int minutes,
+                                             @RequestParam(value = "local", defaultValue = "false") boolean local) {
+        return query(() -> activityQueries.userActivity(userId, clampMinutes(minutes), local));
+    }
+
+    @GetMapping("/channels/top")
+    public ResponseEntity<?> getTopChannels(@RequestParam(value = "minutes", defaultValue = "15") int minutes,
+                                            @RequestParam(value = "limit", defaultValue = "10") int limit,
+                                            @RequestParam(value = "local", defaultValue = "false") boolean local) {
+        return query(() -> activityQueries.topChannels(clampMinutes(minutes), Math.max(1, Math.min(limit, 100)), local));
+    }
+
+    private int clampMinutes(int minutes) {
+        return Math.max(1, Math.min(minutes, maxMinutes));
+    }
+
+    // The stores are not queryable while the streams instance starts or rebalances, clients should retry
+    private ResponseEntity<?> query(Supplier<?> query) {
+        try {
+            return ResponseEntity.ok(query.get());
+        } catch (InvalidStateStoreException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", e.getMessage()));
+        } catch (RestClientException e) {
+            log.warn("Activity query on another instance failed: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(Map.of("error", "Activity query on another instance failed"));
+        }
+    }
+}
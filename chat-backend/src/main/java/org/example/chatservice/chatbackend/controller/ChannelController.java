@@ -1,12 +1,14 @@
 package org.example.chatservice.chatbackend.controller;
 
-import com.datastax.driver.core.ResultSet;
 import com.example.chat.proto.Channel;
 import com.example.chat.proto.ChannelUpdate;
 import com.example.chat.proto.ChannelUpdateType;
+import com.example.chat.proto.User;
 import org.example.chatservice.chatbackend.cache.Cache;
 import org.example.chatservice.chatbackend.dto.ChannelDTO;
+import org.example.chatservice.chatbackend.dto.ChannelSummaryDTO;
 import org.example.chatservice.chatbackend.kafka.KafkaHandler;
+import org.example.chatservice.chatbackend.scylla.ChannelSummary;
 import org.example.chatservice.chatbackend.scylla.ScyllaDB;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.http.HttpStatus;
@@ -15,10 +17,13 @@ import org.springframework.web.bind.annotation.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @RestController
@@ -31,18 +36,17 @@ public class ChannelController {
 
     public ChannelController(ScyllaDB scyllaDB, KafkaHandler kafkaHandler) {
         this.scyllaDB = scyllaDB;
-        Cache.populateChannelCache(scyllaDB);
         this.kafkaHandler = kafkaHandler;
     }
 
     @PostMapping("/")
-    public ResponseEntity<Map<String, Object>> createChannel(@RequestParam("name") String channelName, @RequestBody String description) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> createChannel(@RequestParam("name") String channelName, @RequestBody String description) {
         log.info("Creating channel: {}", channelName);
 
-        if(Cache.channelNameCache.containsKey(channelName)){
+        Channel existing = Cache.channels.getByName(channelName);
+        if(existing != null){
             log.warn("Channel already exists in cache: {}", channelName);
-            Channel channel = Cache.channelNameCache.get(channelName);
-            return getMapResponseEntity(channel);
+            return CompletableFuture.completedFuture(getMapResponseEntity(existing));
         }
 
         Channel channel = Channel.newBuilder()
@@ -50,19 +54,20 @@ public class ChannelController {
                 .setDescription(description)
                 .setChannelId(UUID.randomUUID().toString())     //TODO: Replace with a hash function to generate consistent channel IDs for same names
                 .build();
-        ResultSet resultSet = scyllaDB.createChannel(channel.getChannelId(), channel.getName(), channel.getDescription());
-        log.info("Channel created in ScyllaDB: {}", resultSet.wasApplied());
+        // The request thread is released while the insert is in flight
+        return scyllaDB.createChannel(channel.getChannelId(), channel.getName(), channel.getDescription()).thenApplyAsync(resultSet -> {
+            log.info("Channel created in ScyllaDB: {}", resultSet.wasApplied());
 
-        Cache.channelCache.put(channel.getChannelId(), channel);
-        Cache.channelNameCache.put(channelName, channel);
+            Cache.channels.put(channel);
 
-        ChannelUpdate channelUpdate = ChannelUpdate.newBuilder()
-                .setType(ChannelUpdateType.NEW_CHANNEL)
-                .setChannel(channel)
-                .build();
-        kafkaHandler.sendChannelUpdate(channelUpdate);
+            ChannelUpdate channelUpdate = ChannelUpdate.newBuilder()
+                    .setType(ChannelUpdateType.NEW_CHANNEL)
+                    .setChannel(channel)
+                    .build();
+            kafkaHandler.sendChannelUpdate(channelUpdate);
 
-        return getMapResponseEntity(channel);
+            return getMapResponseEntity(channel);
+        }, scyllaDB.callbackExecutor());
     }
 
     @NotNull
@@ -79,7 +84,7 @@ public class ChannelController {
     public ResponseEntity<?> getChannel(@PathVariable String channelId) {
         log.info("Fetching channel with ID: {}", channelId);
 
-        Channel channel = Cache.channelCache.get(channelId);
+        Channel channel = Cache.channels.getById(channelId);
 
         return getResponseEntity(channel);
     }
@@ -88,7 +93,7 @@ public class ChannelController {
     public ResponseEntity<?> getChannelByName(@PathVariable String channelName) {
         log.info("Fetching channel with name: {}", channelName);
 
-        Channel channel = Cache.channelNameCache.get(channelName);
+        Channel channel = Cache.channels.getByName(channelName);
 
         return getResponseEntity(channel);
     }
@@ -104,11 +109,45 @@ public class ChannelController {
         return ResponseEntity.ok(ChannelDTO.fromProto(channel));
     }
 
+    // Latest message, activity and message count of the given channels, or of every channel when ids is omitted,
+    // most recently active first
+    @GetMapping("/summaries")
+    public CompletableFuture<ResponseEntity<List<ChannelSummaryDTO>>> getChannelSummaries(@RequestParam(value = "ids", required = false) List<String> channelIds) {
+        log.info("Fetching channel summaries for {}", channelIds == null ? "all channels" : channelIds.size() + " channels");
+
+        List<Channel> channels = new ArrayList<>();
+        if (channelIds == null) {
+            channels.addAll(Cache.channels.values());
+        } else {
+            for (String channelId : channelIds) {
+                Channel channel = Cache.channels.getById(channelId);
+                if (channel != null) {
+                    channels.add(channel);
+                }
+            }
+        }
+        if (channels.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.ok(List.of()));
+        }
+
+        List<String> knownIds = channelIds == null ? null : channels.stream().map(Channel::getChannelId).toList();
+        return scyllaDB.getChannelSummaries(knownIds).thenApplyAsync(summaries -> {
+            List<ChannelSummaryDTO> response = new ArrayList<>(channels.size());
+            for (Channel channel : channels) {
+                ChannelSummary summary = summaries.get(channel.getChannelId());
+                User sender = summary == null || summary.lastSenderId() == null ? null : Cache.users.getById(summary.lastSenderId());
+                response.add(ChannelSummaryDTO.from(channel, summary, sender));
+            }
+            response.sort(Comparator.comparingLong(ChannelSummaryDTO::getLastActivity).reversed());
+            return ResponseEntity.ok(response);
+        }, scyllaDB.callbackExecutor());
+    }
+
     @GetMapping("/all")
     public ResponseEntity<List<ChannelDTO>> getAllChannels() {
         log.info("Fetching all channels");
 
-        List<ChannelDTO> channels = Cache.channelCache.values().stream()
+        List<ChannelDTO> channels = Cache.channels.values().stream()
                 .map(ChannelDTO::fromProto)
                 .collect(Collectors.toList());
 
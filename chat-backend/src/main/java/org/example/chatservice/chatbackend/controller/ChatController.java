@@ -1,17 +1,23 @@
 package org.example.chatservice.chatbackend.controller;
 
 import org.example.chatservice.chatbackend.dto.ChatMessageDTO;
+import org.example.chatservice.chatbackend.dto.SendAckDTO;
 import org.example.chatservice.chatbackend.kafka.KafkaHandler;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.stereotype.Controller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletionException;
+
 @Controller
 public class ChatController {
     private static final Logger log = LoggerFactory.getLogger(ChatController.class.getSimpleName());
+    private static final String ACK_DESTINATION = "/queue/acks";
     private final SimpMessageSendingOperations messagingTemplate;
     private KafkaHandler kafkaHandler;
 
@@ -20,9 +26,31 @@ public class ChatController {
         this.messagingTemplate = messagingTemplate;
     }
 
+    // The sender gets an ack once Kafka has the message, or a nack, on its own session's /user/queue/acks
     @MessageMapping("/chat.sendMessage")
-    public void sendMessage(@Payload ChatMessageDTO messageRaw) throws Exception {
+    public void sendMessage(@Payload ChatMessageDTO messageRaw, SimpMessageHeaderAccessor headerAccessor) throws Exception {
         log.info("Broadcasting message to channel {}", messageRaw.getChannel().getChannelId());
-        kafkaHandler.processMessage(messageRaw);
+        String sessionId = headerAccessor.getSessionId();
+        String clientMessageId = messageRaw.getMessageId();
+        kafkaHandler.processMessage(messageRaw).whenCompleteAsync((message, error) -> {
+            SendAckDTO ack;
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                ack = SendAckDTO.nack(clientMessageId, cause.getMessage());
+            } else if (message.getMessageId().isEmpty()) {
+                ack = SendAckDTO.nack(clientMessageId, "Invalid user or channel");
+            } else {
+                ack = SendAckDTO.ack(clientMessageId, message.getMessageId(), message.getTimeStamp());
+            }
+            sendAck(sessionId, ack);
+        }, kafkaHandler.callbackExecutor());
+    }
+
+    // Sessions are anonymous, so the ack is addressed by session id rather than by user name
+    private void sendAck(String sessionId, SendAckDTO ack) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(sessionId, ACK_DESTINATION, ack, headers.getMessageHeaders());
     }
 }
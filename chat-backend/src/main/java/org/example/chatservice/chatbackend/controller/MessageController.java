@@ -2,19 +2,39 @@ package org.example.chatservice.chatbackend.controller;
 
 import com.example.chat.proto.Channel;
 import com.example.chat.proto.ChatMessage;
+import com.example.chat.proto.User;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.example.chatservice.chatbackend.archive.ArchiveUnavailableException;
 import org.example.chatservice.chatbackend.cache.Cache;
+import org.example.chatservice.chatbackend.cache.HotHistory;
 import org.example.chatservice.chatbackend.dto.ChatMessageDTO;
 import org.example.chatservice.chatbackend.kafka.KafkaHandler;
+import org.example.chatservice.chatbackend.scylla.HistoryCursor;
+import org.example.chatservice.chatbackend.scylla.MessagePage;
 import org.example.chatservice.chatbackend.scylla.ScyllaDB;
+import org.example.chatservice.chatbackend.search.IndexedMessage;
+import org.example.chatservice.chatbackend.search.SearchIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 @RestController
@@ -23,51 +43,194 @@ public class MessageController {
     private static final Logger log = LoggerFactory.getLogger(MessageController.class);
     private final ScyllaDB scyllaDB;
     private final KafkaHandler kafkaHandler;
+    private final HotHistory hotHistory;
+    private final int defaultHistoryLimit;
+    private final int maxHistoryLimit;
+    private final int streamFetchSize;
+    private final ObjectMapper objectMapper;
+    // Streamed lines are flushed once per driver page, not after every message
+    private final ObjectWriter streamWriter;
+    private final SearchIndex searchIndex;
 
-    public MessageController( ScyllaDB scyllaDB, KafkaHandler kafkaHandler) {
+    public MessageController( ScyllaDB scyllaDB, KafkaHandler kafkaHandler, HotHistory hotHistory, ObjectMapper objectMapper,
+                              SearchIndex searchIndex,
+                              @Value("${history.default-limit:50}") int defaultHistoryLimit,
+                              @Value("${history.max-limit:500}") int maxHistoryLimit,
+                              @Value("${history.stream.fetch-size:500}") int streamFetchSize) {
         this.scyllaDB = scyllaDB;
         this.kafkaHandler = kafkaHandler;
+        this.hotHistory = hotHistory;
+        this.defaultHistoryLimit = defaultHistoryLimit;
+        this.maxHistoryLimit = maxHistoryLimit;
+        this.streamFetchSize = streamFetchSize;
+        this.objectMapper = objectMapper;
+        this.streamWriter = objectMapper.writerFor(ChatMessageDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.searchIndex = searchIndex;
     }
 
+    // Answers once Kafka has acknowledged the message, the request thread is released meanwhile
     @PostMapping("/{channel}/send")
-    public ResponseEntity<Map<String, Object>> send(@RequestParam("user") String userName, @PathVariable("channel") String channelName, @RequestBody String body){
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> send(@RequestParam("user") String userName, @PathVariable("channel") String channelName, @RequestBody String body){
 
-        ChatMessage chatMessage = kafkaHandler.processMessage(userName, channelName, body);
-        if(chatMessage.getMessageId().isEmpty()){
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("error", "Failed to send message. Invalid user or channel.");
-            return ResponseEntity.badRequest().body(errorResponse);
-        }
+        return kafkaHandler.processMessage(userName, channelName, body).handleAsync((chatMessage, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Failed to send message. " + cause.getMessage());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorResponse);
+            }
+            if(chatMessage.getMessageId().isEmpty()){
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Failed to send message. Invalid user or channel.");
+                return ResponseEntity.badRequest().body(errorResponse);
+            }
 
-        Map<String, Object> successResponse = new HashMap<>();
-        successResponse.put("status", "OK");
-        successResponse.put("messageId", chatMessage.getMessageId());
-        successResponse.put("timestamp", chatMessage.getTimeStamp());
+            Map<String, Object> successResponse = new HashMap<>();
+            successResponse.put("status", "OK");
+            successResponse.put("messageId", chatMessage.getMessageId());
+            successResponse.put("timestamp", chatMessage.getTimeStamp());
 
-        return ResponseEntity.ok(successResponse);
+            return ResponseEntity.ok(successResponse);
+        }, kafkaHandler.callbackExecutor());
     }
 
     @GetMapping("/{channelId}/history")
-    public ResponseEntity<Map<String, Object>> getMessageHistory(@PathVariable("channelId") String channelId) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getMessageHistory(@PathVariable("channelId") String channelId,
+                                                                                    @RequestParam(value = "before", required = false) String before,
+                                                                                    @RequestParam(value = "limit", required = false) Integer limit) {
         log.info("Fetching message history for channel ID: {}", channelId);
-        Channel channel = Cache.channelCache.get(channelId);
+        Channel channel = Cache.channels.getById(channelId);
         if (channel == null) {
             Map<String, Object> errorResponse = new HashMap<>();
             errorResponse.put("error", "Channel not found");
-            return ResponseEntity.badRequest().body(errorResponse);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(errorResponse));
+        }
+
+        HistoryCursor cursor;
+        try {
+            cursor = before == null || before.isEmpty() ? null : HistoryCursor.decode(before);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", e.getMessage());
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(errorResponse));
         }
 
-        Map<Channel, ArrayList<ChatMessage>> messagesMap = scyllaDB.getMessagesByChannel(channelId);
-        ArrayList<ChatMessageDTO> messageDTOs = new ArrayList<>();
-        if (messagesMap.containsKey(channel)) {
-            for (ChatMessage message : messagesMap.get(channel)) {
-                messageDTOs.add(ChatMessageDTO.fromProto(message));
+        int pageSize = Math.max(1, Math.min(limit == null ? defaultHistoryLimit : limit, maxHistoryLimit));
+        if (cursor == null) {
+            List<ChatMessage> latest = hotHistory.latest(channelId, pageSize + 1);
+            if (latest != null) {
+                return CompletableFuture.completedFuture(historyResponse(channelId, MessagePage.of(latest, pageSize)));
+            }
+        }
+        // The request thread is released while ScyllaDB is queried
+        return scyllaDB.getMessagesByChannel(channelId, cursor, pageSize).thenApplyAsync(page -> {
+            if (cursor == null) {
+                hotHistory.seed(channelId, page.messages(), page.nextCursor() == null);
             }
+            return historyResponse(channelId, page);
+        }, scyllaDB.callbackExecutor()).exceptionally(MessageController::archiveUnavailable);
+    }
+
+    // A segment file missing or unreadable answers 503, any other failure stays a 500
+    private static ResponseEntity<Map<String, Object>> archiveUnavailable(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (!(cause instanceof ArchiveUnavailableException)) {
+            throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+        }
+        log.warn("Archived history is unavailable: {}", cause.getMessage());
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("error", "Archived history is unavailable");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorResponse);
+    }
+
+    private ResponseEntity<Map<String, Object>> historyResponse(String channelId, MessagePage page) {
+        ArrayList<ChatMessageDTO> messageDTOs = new ArrayList<>(page.messages().size());
+        for (ChatMessage message : page.messages()) {
+            messageDTOs.add(ChatMessageDTO.fromProto(message));
         }
         Map<String, Object> response = new HashMap<>();
         response.put("channelId", channelId);
         response.put("messages", messageDTOs);
+        response.put("nextCursor", page.nextCursor());
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping(value = "/{channelId}/history/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamMessageHistory(@PathVariable("channelId") String channelId,
+                                                                      @RequestParam(value = "before", required = false) String before) {
+        log.info("Streaming message history for channel ID: {}", channelId);
+        if (Cache.channels.getById(channelId) == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        HistoryCursor cursor;
+        try {
+            cursor = before == null || before.isEmpty() ? null : HistoryCursor.decode(before);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        // One JSON document per line, written as driver pages arrive
+        StreamingResponseBody body = outputStream -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Lines are separated by the newline alone, not the default space between root values
+            generator.setRootValueSeparator(null);
+            long streamed = scyllaDB.streamMessagesByChannel(channelId, cursor, streamFetchSize, message -> {
+                try {
+                    streamWriter.writeValue(generator, ChatMessageDTO.fromProto(message));
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, () -> {
+                try {
+                    generator.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.flush();
+            log.info("Streamed {} messages for channel ID: {}", streamed, channelId);
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    @GetMapping("/{channelId}/search")
+    public ResponseEntity<Map<String, Object>> searchMessages(@PathVariable("channelId") String channelId,
+                                                              @RequestParam("q") String query,
+                                                              @RequestParam(value = "limit", required = false) Integer limit) {
+        log.info("Searching messages in channel ID: {}", channelId);
+        Channel channel = Cache.channels.getById(channelId);
+        if (channel == null || !searchIndex.enabled()) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", channel == null ? "Channel not found" : "Search is disabled");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+
+        int pageSize = Math.max(1, Math.min(limit == null ? defaultHistoryLimit : limit, maxHistoryLimit));
+        List<IndexedMessage> matches = searchIndex.search(channelId, query, pageSize);
+        ArrayList<ChatMessageDTO> messageDTOs = new ArrayList<>(matches.size());
+        for (IndexedMessage match : matches) {
+            User sender = Cache.users.getById(match.senderId());
+            if (sender == null) {
+                sender = User.newBuilder()
+                        .setUsername(match.senderId())
+                        .setDisplayName("Unknown")
+                        .setUserId("unknown")
+                        .build();
+            }
+            messageDTOs.add(ChatMessageDTO.fromProto(ChatMessage.newBuilder()
+                    .setMessageId(match.messageId())
+                    .setChannel(channel)
+                    .setSender(sender)
+                    .setBody(match.body())
+                    .setTimeStamp(match.timestamp())
+                    .build()));
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("channelId", channelId);
+        response.put("query", query);
+        response.put("messages", messageDTOs);
+        return ResponseEntity.ok(response);
+    }
 }
@@ -1,24 +1,29 @@
 package org.example.chatservice.chatbackend.controller;
 
-import com.datastax.driver.core.ResultSet;
+import com.example.chat.proto.ChatMessage;
 import com.example.chat.proto.User;
 import com.example.chat.proto.UserUpdate;
 import com.example.chat.proto.UserUpdateType;
 import org.example.chatservice.chatbackend.cache.Cache;
+import org.example.chatservice.chatbackend.dto.ChatMessageDTO;
 import org.example.chatservice.chatbackend.kafka.KafkaHandler;
+import org.example.chatservice.chatbackend.scylla.HistoryCursor;
 import org.example.chatservice.chatbackend.scylla.ScyllaDB;
 import org.example.chatservice.chatbackend.dto.UserDTO;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @RestController
@@ -28,21 +33,26 @@ public class UserController {
 
     private final ScyllaDB scyllaDB;
     private final KafkaHandler kafkaHandler;
+    private final int defaultHistoryLimit;
+    private final int maxHistoryLimit;
 
-    public UserController(ScyllaDB scyllaDB, KafkaHandler kafkaHandler) {
+    public UserController(ScyllaDB scyllaDB, KafkaHandler kafkaHandler,
+                          @Value("${history.default-limit:50}") int defaultHistoryLimit,
+                          @Value("${history.max-limit:500}") int maxHistoryLimit) {
         this.scyllaDB = scyllaDB;
-        Cache.populateUserCache(scyllaDB);
         this.kafkaHandler = kafkaHandler;
+        this.defaultHistoryLimit = defaultHistoryLimit;
+        this.maxHistoryLimit = maxHistoryLimit;
     }
 
     @PostMapping("/")
-    public ResponseEntity<Map<String, Object>> createUser(@RequestParam("username") String username, @RequestParam("displayName") String displayName) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> createUser(@RequestParam("username") String username, @RequestParam("displayName") String displayName) {
         log.info("Creating user: {}", username);
 
-        if(Cache.userNameCache.containsKey(username)) {     // TODO: Handle case sensitivity and duplicate usernames. For now, just return existing user. Later we'll add authentication.
+        User existing = Cache.users.getByName(username);
+        if(existing != null) {     // TODO: Handle case sensitivity and duplicate usernames. For now, just return existing user. Later we'll add authentication.
             log.warn("User already exists in cache: {}", username);
-            User user = Cache.userNameCache.get(username);
-            return getMapResponseEntity(user);
+            return CompletableFuture.completedFuture(getMapResponseEntity(existing));
         }
 
         User user = User.newBuilder()
@@ -52,19 +62,20 @@ public class UserController {
                 .build();
 
         String userId = user.getUserId();
-        ResultSet resultSet = scyllaDB.createUser(userId, username, displayName);
-        log.info("User created in ScyllaDB: {}", resultSet.wasApplied());
+        // The request thread is released while the insert is in flight
+        return scyllaDB.createUser(userId, username, displayName).thenApplyAsync(resultSet -> {
+            log.info("User created in ScyllaDB: {}", resultSet.wasApplied());
 
-        Cache.userCache.put(userId, user);
-        Cache.userNameCache.put(username, user);
+            Cache.users.put(user);
 
-        UserUpdate userUpdate = UserUpdate.newBuilder()
-                .setUser(user)
-                .setType(UserUpdateType.NEW_USER)
-                .build();
-        kafkaHandler.sendUserUpdate(userUpdate);
+            UserUpdate userUpdate = UserUpdate.newBuilder()
+                    .setUser(user)
+                    .setType(UserUpdateType.NEW_USER)
+                    .build();
+            kafkaHandler.sendUserUpdate(userUpdate);
 
-        return getMapResponseEntity(user);
+            return getMapResponseEntity(user);
+        }, scyllaDB.callbackExecutor());
     }
 
     @NotNull
@@ -80,7 +91,7 @@ public class UserController {
     @GetMapping("/{userId}")
     public ResponseEntity<?> getUser(@PathVariable String userId) {
         log.info("Fetching user with ID: {}", userId);
-        User user = Cache.userCache.get(userId);
+        User user = Cache.users.getById(userId);
 
         return getResponseEntity(user);
     }
@@ -100,14 +111,48 @@ public class UserController {
     @GetMapping("/username/{username}")
     public ResponseEntity<?> getUserByUsername(@PathVariable String username) {
         log.info("Fetching user with username: {}", username);
-        User user = Cache.userNameCache.get(username);
+        User user = Cache.users.getByName(username);
         return getResponseEntity(user);
     }
 
+    @GetMapping("/{userId}/messages")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getUserMessages(@PathVariable("userId") String userId,
+                                                                                  @RequestParam(value = "before", required = false) String before,
+                                                                                  @RequestParam(value = "limit", required = false) Integer limit) {
+        log.info("Fetching messages sent by user ID: {}", userId);
+        if (Cache.users.getById(userId) == null) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "User not found");
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse));
+        }
+
+        HistoryCursor cursor;
+        try {
+            cursor = before == null || before.isEmpty() ? null : HistoryCursor.decode(before);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", e.getMessage());
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(errorResponse));
+        }
+
+        int pageSize = Math.max(1, Math.min(limit == null ? defaultHistoryLimit : limit, maxHistoryLimit));
+        return scyllaDB.getMessagesBySender(userId, cursor, pageSize).thenApplyAsync(page -> {
+            ArrayList<ChatMessageDTO> messageDTOs = new ArrayList<>(page.messages().size());
+            for (ChatMessage message : page.messages()) {
+                messageDTOs.add(ChatMessageDTO.fromProto(message));
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("userId", userId);
+            response.put("messages", messageDTOs);
+            response.put("nextCursor", page.nextCursor());
+            return ResponseEntity.ok(response);
+        }, scyllaDB.callbackExecutor());
+    }
+
     @GetMapping("/all")
     public @NotNull ResponseEntity<List<UserDTO>> getAllUsers() {
         log.info("Fetching all users");
-        List<UserDTO> users = Cache.userCache.values().stream()
+        List<UserDTO> users = Cache.users.values().stream()
                 .map(UserDTO::fromProto)
                 .collect(Collectors.toList());
         return ResponseEntity.ok(users);
@@ -0,0 +1,89 @@
+package org.example.chatservice.chatbackend.dto;
+
+import com.example.chat.proto.Channel;
+import com.example.chat.proto.User;
+import org.example.chatservice.chatbackend.scylla.ChannelSummary;
+
+public class ChannelSummaryDTO {
+    private ChannelDTO channel;
+    private String lastMessageId;
+    private UserDTO lastSender;
+    private String lastBody;
+    private long lastActivity;
+    private long messageCount;
+
+    public ChannelSummaryDTO() {
+    }
+
+    public ChannelSummaryDTO(ChannelDTO channel, String lastMessageId, UserDTO lastSender, String lastBody, long lastActivity, long messageCount) {
+        this.channel = channel;
+        this.lastMessageId = lastMessageId;
+        this.lastSender = lastSender;
+        this.lastBody = lastBody;
+        this.lastActivity = lastActivity;
+        this.messageCount = messageCount;
+    }
+
+    // summary and sender may be null for a channel without messages or an unknown sender
+    public static ChannelSummaryDTO from(Channel channel, ChannelSummary summary, User sender) {
+        if (summary == null) {
+            return new ChannelSummaryDTO(ChannelDTO.fromProto(channel), null, null, null, 0, 0);
+        }
+        return new ChannelSummaryDTO(
+                ChannelDTO.fromProto(channel),
+                summary.lastMessageId(),
+                sender == null ? null : UserDTO.fromProto(sender),
+                summary.lastBody(),
+                summary.lastActivity(),
+                summary.messageCount()
+        );
+    }
+
+    public ChannelDTO getChannel() {
+        return channel;
+    }
+
+    public void setChannel(ChannelDTO channel) {
+        this.channel = channel;
+    }
+
+    public String getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public void setLastMessageId(String lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+
+    public UserDTO getLastSender() {
+        return lastSender;
+    }
+
+    public void setLastSender(UserDTO lastSender) {
+        this.lastSender = lastSender;
+    }
+
+    public String getLastBody() {
+        return lastBody;
+    }
+
+    public void setLastBody(String lastBody) {
+        this.lastBody = lastBody;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public void setLastActivity(long lastActivity) {
+        this.lastActivity = lastActivity;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public void setMessageCount(long messageCount) {
+        this.messageCount = messageCount;
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.chatservice.chatbackend.dto;
+
+// Outcome of a message sent over STOMP, delivered to the sending session on /user/queue/acks.
+// clientMessageId is the messageId the client sent, messageId the one the message was stored under.
+public class SendAckDTO {
+    public static final String ACK = "ACK";
+    public static final String NACK = "NACK";
+
+    private String clientMessageId;
+    private String messageId;
+    private String status;
+    private String error;
+    private long timeStamp;
+
+    public SendAckDTO() {
+    }
+
+    public SendAckDTO(String clientMessageId, String messageId, String status, String error, long timeStamp) {
+        this.clientMessageId = clientMessageId;
+        this.messageId = messageId;
+        this.status = status;
+        this.error = error;
+        this.timeStamp = timeStamp;
+    }
+
+    public static SendAckDTO ack(String clientMessageId, String messageId, long timeStamp) {
+        return new SendAckDTO(clientMessageId, messageId, ACK, null, timeStamp);
+    }
+
+    public static SendAckDTO nack(String clientMessageId, String error) {
+        return new SendAckDTO(clientMessageId, null, NACK, error, 0);
+    }
+
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public void setTimeStamp(long timeStamp) {
+        this.timeStamp = timeStamp;
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.chatservice.chatbackend.kafka;
+
+import com.example.chat.proto.ChannelUpdate;
+import com.example.chat.proto.UserUpdate;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.example.chatservice.chatbackend.cache.Cache;
+import org.example.chatservice.chatbackend.cache.DirectorySnapshot;
+import org.example.chatservice.chatbackend.config.KafkaTopicConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the local user/channel directory in sync with the compacted update topics.
+ * Every backend instance reads all partitions, so each node holds the full directory regardless of which
+ * instance created an entry. Reading starts from the positions of the restored snapshot, or from the beginning.
+ */
+@Service
+public class DirectoryConsumer implements ConsumerSeekAware {
+    private static final Logger log = LoggerFactory.getLogger(DirectoryConsumer.class.getSimpleName());
+    private static final String USER_UPDATES_TOPIC = "user-updates";
+    private static final String CHANNEL_UPDATES_TOPIC = "channel-updates";
+    // Partitions are assigned manually, the group is only used for offset bookkeeping and must not be
+    // shared with the broadcast listeners on the same topics.
+    private static final String GROUP_ID = "chat-backend-directory";
+    private static final String UPDATES_PARTITIONS = "0-" + (KafkaTopicConfig.UPDATES_TOPIC_PARTITIONS - 1);
+    private final DirectorySnapshot directorySnapshot;
+
+    public DirectoryConsumer(DirectorySnapshot directorySnapshot) {
+        this.directorySnapshot = directorySnapshot;
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<org.apache.kafka.common.TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        List<org.apache.kafka.common.TopicPartition> fromBeginning = new ArrayList<>();
+        for (org.apache.kafka.common.TopicPartition topicPartition : assignments.keySet()) {
+            Long position = directorySnapshot.restoredPosition(topicPartition);
+            if (position != null) {
+                callback.seek(topicPartition.topic(), topicPartition.partition(), position);
+            } else {
+                fromBeginning.add(topicPartition);
+            }
+        }
+        if (!fromBeginning.isEmpty()) {
+            callback.seekToBeginning(fromBeginning);
+        }
+    }
+
+    @KafkaListener(id = "user-directory", groupId = GROUP_ID, concurrency = "1",
+            topicPartitions = @TopicPartition(topic = USER_UPDATES_TOPIC, partitions = UPDATES_PARTITIONS))
+    public void listenUserUpdates(ConsumerRecord<String, byte[]> record) {
+        try {
+            if (record.value() == null) {
+                Cache.users.remove(record.key());
+                return;
+            }
+            UserUpdate userUpdate = UserUpdate.parseFrom(record.value());
+            switch (userUpdate.getType()) {
+                case NEW_USER -> Cache.users.put(userUpdate.getUser());
+                case DELETE_USER -> Cache.users.remove(userUpdate.getUser().getUserId());
+                default -> log.warn("Ignoring user update of type {} at partition: {}, offset: {}",
+                        userUpdate.getType(), record.partition(), record.offset());
+            }
+        } catch (Exception e) {
+            log.error("Failed to apply UserUpdate from record at partition: {}, offset: {}, error: {}",
+                    record.partition(), record.offset(), e.getMessage());
+        } finally {
+            directorySnapshot.recordApplied(record.topic(), record.partition(), record.offset());
+        }
+    }
+
+    @KafkaListener(id = "channel-directory", groupId = GROUP_ID, concurrency = "1",
+            topicPartitions = @TopicPartition(topic = CHANNEL_UPDATES_TOPIC, partitions = UPDATES_PARTITIONS))
+    public void listenChannelUpdates(ConsumerRecord<String, byte[]> record) {
+        try {
+            if (record.value() == null) {
+                Cache.channels.remove(record.key());
+                return;
+            }
+            ChannelUpdate channelUpdate = ChannelUpdate.parseFrom(record.value());
+            switch (channelUpdate.getType()) {
+                case NEW_CHANNEL -> Cache.channels.put(channelUpdate.getChannel());
+                case DELETE_CHANNEL -> Cache.channels.remove(channelUpdate.getChannel().getChannelId());
+                default -> log.warn("Ignoring channel update of type {} at partition: {}, offset: {}",
+                        channelUpdate.getType(), record.partition(), record.offset());
+            }
+        } catch (Exception e) {
+            log.error("Failed to apply ChannelUpdate from record at partition: {}, offset: {}, error: {}",
+                    record.partition(), record.offset(), e.getMessage());
+        } finally {
+            directorySnapshot.recordApplied(record.topic(), record.partition(), record.offset());
+        }
+    }
+}
@@ -3,41 +3,174 @@ package org.example.chatservice.chatbackend.kafka;
 import com.example.chat.proto.ChannelUpdate;
 import com.example.chat.proto.ChatMessage;
 import com.example.chat.proto.UserUpdate;
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.example.chatservice.chatbackend.cache.HotHistory;
+import org.example.chatservice.chatbackend.config.KafkaTopicConfig;
+import org.example.chatservice.chatbackend.websockets.BroadcastCoalescer;
+import org.example.chatservice.chatbackend.websockets.SubscriptionRegistry;
 import org.example.chatservice.chatbackend.websockets.WebSocketBroadcastService;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Broadcasts chat-stream and directory updates to this node's STOMP clients. Every node reads all partitions of
+ * these topics from their end, since its clients may be subscribed to any channel, and drops records of channels
+ * without local subscribers by key before parsing them. Records of channels with only binary subscribers are not
+ * parsed at all.
+ */
 @Service
-public class KafkaConsumer {
+public class KafkaConsumer implements ConsumerSeekAware {
     private static final Logger log = LoggerFactory.getLogger(KafkaConsumer.class.getSimpleName());
     private final WebSocketBroadcastService webSocketBroadcastService;
+    private final HotHistory hotHistory;
+    private final BroadcastCoalescer broadcastCoalescer;
+    private final SubscriptionRegistry subscriptionRegistry;
     private static final String CHAT_TOPIC = "chat-stream";
     private static final String USER_UPDATES_TOPIC = "user-updates";
     private static final String CHANNEL_UPDATES_TOPIC = "channel-updates";
-    private static final String GROUP_ID = "chat-backend-live-updates-group";
+    // All partitions are assigned manually, the groups are only used for offset bookkeeping. They must not be
+    // chat-backend-live-updates-group, whose members subscribed before, or commits from the manually assigned
+    // consumers would be rejected while older replicas still run.
+    private static final String CHAT_GROUP_ID = "chat-backend-live-chat";
+    private static final String UPDATES_GROUP_ID = "chat-backend-live-updates";
+    private static final String CHAT_STREAM_PARTITIONS = "0-" + (KafkaTopicConfig.CHAT_STREAM_PARTITIONS - 1);
+    private static final String UPDATES_PARTITIONS = "0-" + (KafkaTopicConfig.UPDATES_TOPIC_PARTITIONS - 1);
 
-    public KafkaConsumer(WebSocketBroadcastService webSocketBroadcastService) {
+    public KafkaConsumer(WebSocketBroadcastService webSocketBroadcastService, HotHistory hotHistory,
+                         BroadcastCoalescer broadcastCoalescer, SubscriptionRegistry subscriptionRegistry) {
         this.webSocketBroadcastService = webSocketBroadcastService;
+        this.hotHistory = hotHistory;
+        this.broadcastCoalescer = broadcastCoalescer;
+        this.subscriptionRegistry = subscriptionRegistry;
     }
 
-    @KafkaListener(topics = CHAT_TOPIC, groupId = GROUP_ID)
+    // Only messages and updates from now on are broadcast, clients load anything older as history and directory
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        if (!assignments.isEmpty()) {
+            callback.seekToEnd(assignments.keySet());
+        }
+        hotHistory.partitionsAssigned(chatStreamPartitions(assignments.keySet()));
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        hotHistory.partitionsRevoked(chatStreamPartitions(partitions));
+    }
+
+    private static List<Integer> chatStreamPartitions(Collection<TopicPartition> partitions) {
+        return partitions.stream()
+                .filter(topicPartition -> topicPartition.topic().equals(CHAT_TOPIC))
+                .map(TopicPartition::partition)
+                .toList();
+    }
+
+    // Only one of listen and listenBatch runs, chosen by broadcast.batch.enabled
+    @KafkaListener(groupId = CHAT_GROUP_ID, autoStartup = "#{!${broadcast.batch.enabled:true}}",
+            topicPartitions = @org.springframework.kafka.annotation.TopicPartition(topic = CHAT_TOPIC, partitions = CHAT_STREAM_PARTITIONS))
     public void listen(ConsumerRecord<String, byte[]> record) {
-        log.info("Received message from Kafka on partition: {} and offset: {}", record.partition(), record.offset());
+        SubscriptionRegistry.Route route = record.key() == null ? null : route(record.key());
+        if (record.key() != null && route == null) {
+            return;
+        }
+        log.debug("Received message from Kafka on partition: {} and offset: {}", record.partition(), record.offset());
         try {
-            ChatMessage message = ChatMessage.parseFrom(record.value());
-            String destination = "/topic/channel/" + message.getChannel().getChannelId();
-            webSocketBroadcastService.broadcastMessage(destination, message);
+            ChatMessage message = parseIfNeeded(record, route);
+            if (route == null && (route = route(message.getChannel().getChannelId())) == null) {
+                return;
+            }
+            keepHot(record, message);
+            if (route.destination() != null) {
+                webSocketBroadcastService.broadcastMessage(route.destination(), message);
+            }
+            if (route.binaryDestination() != null) {
+                webSocketBroadcastService.broadcastRawMessages(route.binaryDestination(), List.of(record.value()));
+            }
         } catch (Exception e) {
             log.error("Failed to parse ChatMessage from record at partition: {}, offset: {}, error: {}",
                     record.partition(), record.offset(), e.getMessage());
         }
     }
 
-    @KafkaListener(topics = USER_UPDATES_TOPIC, groupId = GROUP_ID)
+    // Takes whole polls and hands them to the coalescer, which sends one array frame per channel per window.
+    // Records of a partition arrive in order and a channel lives on one partition, so channels are never reordered.
+    @KafkaListener(groupId = CHAT_GROUP_ID, batch = "true", autoStartup = "${broadcast.batch.enabled:true}",
+            topicPartitions = @org.springframework.kafka.annotation.TopicPartition(topic = CHAT_TOPIC, partitions = CHAT_STREAM_PARTITIONS))
+    public void listenBatch(List<ConsumerRecord<String, byte[]>> records) {
+        log.debug("Received {} messages from Kafka", records.size());
+        Map<String, List<ChatMessage>> byDestination = new LinkedHashMap<>();
+        Map<String, List<byte[]>> rawByDestination = new LinkedHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            SubscriptionRegistry.Route route = record.key() == null ? null : route(record.key());
+            if (record.key() != null && route == null) {
+                continue;
+            }
+            try {
+                ChatMessage message = parseIfNeeded(record, route);
+                if (route == null && (route = route(message.getChannel().getChannelId())) == null) {
+                    continue;
+                }
+                keepHot(record, message);
+                if (route.destination() != null) {
+                    byDestination.computeIfAbsent(route.destination(), key -> new ArrayList<>()).add(message);
+                }
+                if (route.binaryDestination() != null) {
+                    rawByDestination.computeIfAbsent(route.binaryDestination(), key -> new ArrayList<>()).add(record.value());
+                }
+            } catch (Exception e) {
+                log.error("Failed to parse ChatMessage from record at partition: {}, offset: {}, error: {}",
+                        record.partition(), record.offset(), e.getMessage());
+            }
+        }
+        broadcastCoalescer.add(byDestination, rawByDestination);
+    }
+
+    // chat-stream records are keyed by channel id, so they are routed before being parsed; only records without a
+    // key are parsed first. Returns the channel's cached destinations, or null if no local client is subscribed:
+    // such records are dropped unparsed, and the hot history buffer of the channel with them, since it would now
+    // have a gap. Binary subscribers get the record's bytes.
+    private SubscriptionRegistry.Route route(String channelId) {
+        SubscriptionRegistry.Route route = subscriptionRegistry.routeOf(channelId);
+        if (route == null) {
+            hotHistory.skipped(channelId);
+        }
+        return route;
+    }
+
+    // Only JSON subscribers need the parsed message. A routed record whose channel has none is forwarded as is and
+    // returns null; records without a key are always parsed, to be routed.
+    private static ChatMessage parseIfNeeded(ConsumerRecord<String, byte[]> record, SubscriptionRegistry.Route route)
+            throws InvalidProtocolBufferException {
+        if (route != null && route.destination() == null) {
+            return null;
+        }
+        return ChatMessage.parseFrom(record.value());
+    }
+
+    // An unparsed record goes into the hot history as bytes, parsed only if the channel's history is read
+    private void keepHot(ConsumerRecord<String, byte[]> record, ChatMessage message) {
+        if (message != null) {
+            hotHistory.onMessage(record.partition(), message);
+        } else {
+            hotHistory.onRecord(record.partition(), record.key(), record.value());
+        }
+    }
+
+    // Like chat-stream, every replica reads every partition of the update topics, since its clients must see every
+    // user and channel change whichever replica handled it
+    @KafkaListener(groupId = UPDATES_GROUP_ID,
+            topicPartitions = @org.springframework.kafka.annotation.TopicPartition(topic = USER_UPDATES_TOPIC, partitions = UPDATES_PARTITIONS))
     public void listenUserUpdates(ConsumerRecord<String, byte[]> record) {
         log.info("Received user update from Kafka on partition: {} and offset: {}", record.partition(), record.offset());
         try{
@@ -50,7 +183,8 @@ public class KafkaConsumer {
         }
     }
 
-    @KafkaListener(topics = CHANNEL_UPDATES_TOPIC, groupId = GROUP_ID)
+    @KafkaListener(groupId = UPDATES_GROUP_ID,
+            topicPartitions = @org.springframework.kafka.annotation.TopicPartition(topic = CHANNEL_UPDATES_TOPIC, partitions = UPDATES_PARTITIONS))
     public void listenChannelUpdates(ConsumerRecord<String, byte[]> record) {
         log.info("Received channel update from Kafka on partition: {} and offset: {}", record.partition(), record.offset());
         try {
@@ -7,6 +7,8 @@ import org.example.chatservice.chatbackend.dto.ChatMessageDTO;
 import org.springframework.stereotype.Component;
 
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 @Component
 public class KafkaHandler {
     private final KafkaProducer kafkaProducer;
@@ -15,24 +17,22 @@ public class KafkaHandler {
         this.kafkaProducer = kafkaProducer;
     }
 
-    private void sendMessage(ChatMessageDTO message, KafkaProducer kafkaProducer) {
-        sendMessage(message.toProto(), kafkaProducer);
+    private CompletableFuture<ChatMessage> sendMessage(ChatMessage message, KafkaProducer kafkaProducer) {
+        return kafkaProducer.sendMessage(message.getChannel(), message).thenApply(result -> message);
     }
 
-    private void sendMessage(ChatMessage message, KafkaProducer kafkaProducer) {
-        kafkaProducer.sendMessage(message.getChannel(), message);
-    }
-
-    public ChatMessage processMessage(String userName, String channelName,String body) {
-        Channel channel = Cache.channelNameCache.get(channelName);
+    // Completes with the message once Kafka has acknowledged it, and exceptionally if it was rejected or not
+    // acknowledged. Completes with an empty message right away if the user or channel is unknown.
+    public CompletableFuture<ChatMessage> processMessage(String userName, String channelName,String body) {
+        Channel channel = Cache.channels.getByName(channelName);
 
-        User user = Cache.userNameCache.get(userName);
+        User user = Cache.users.getByName(userName);
 
         if(channel == null){
-            return ChatMessage.newBuilder().build();
+            return CompletableFuture.completedFuture(ChatMessage.newBuilder().build());
         }
         if(user == null){
-            return ChatMessage.newBuilder().build();
+            return CompletableFuture.completedFuture(ChatMessage.newBuilder().build());
         }
 
         ChatMessage chatMessage = ChatMessage.newBuilder()
@@ -43,15 +43,18 @@ public class KafkaHandler {
                 .setTimeStamp(new Date().getTime())
                 .build();
 
-        sendMessage(chatMessage, kafkaProducer);
-        return chatMessage;
+        return sendMessage(chatMessage, kafkaProducer);
+    }
+
+    // Where continuations of processMessage belong, never the producer's I/O thread
+    public Executor callbackExecutor() {
+        return kafkaProducer.callbackExecutor();
     }
 
-    public ChatMessage processMessage(ChatMessageDTO chatMessageDTO) {
-        processMessage(chatMessageDTO.getSender().getUsername(),
+    public CompletableFuture<ChatMessage> processMessage(ChatMessageDTO chatMessageDTO) {
+        return processMessage(chatMessageDTO.getSender().getUsername(),
                 chatMessageDTO.getChannel().getName(),
                 chatMessageDTO.getBody());
-        return chatMessageDTO.toProto();
     }
 
     public void sendUserUpdate(UserUpdate userUpdate){
@@ -3,30 +3,113 @@ package org.example.chatservice.chatbackend.kafka;
 import com.example.chat.proto.Channel;
 import com.example.chat.proto.ChannelUpdate;
 import com.example.chat.proto.UserUpdate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 import com.example.chat.proto.ChatMessage;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Service
 public class KafkaProducer {
 
     private static final Logger log = LoggerFactory.getLogger(KafkaProducer.class.getSimpleName());
 
     private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    // Chat messages awaiting their broker ack; a send waits up to enqueueTimeoutMs for a permit, then is nacked
+    private final Semaphore inFlight;
+    private final long enqueueTimeoutMs;
+    private final Timer queueTime;
+    private final Timer ackTime;
+    private final Timer failedAckTime;
+    private final Counter rejected;
+    private final ExecutorService callbacks;
 
-    public KafkaProducer(KafkaTemplate<String, byte[]> kafkaTemplate) {
+    public KafkaProducer(KafkaTemplate<String, byte[]> kafkaTemplate, MeterRegistry meterRegistry,
+                         @Value("${producer.max-in-flight:10000}") int maxInFlight,
+                         @Value("${producer.enqueue-timeout-ms:100}") long enqueueTimeoutMs,
+                         @Value("${producer.callback-threads:4}") int callbackThreads) {
         this.kafkaTemplate = kafkaTemplate;
+        AtomicInteger threads = new AtomicInteger();
+        this.callbacks = Executors.newFixedThreadPool(callbackThreads, runnable -> {
+            Thread thread = new Thread(runnable, "kafka-callback-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.inFlight = new Semaphore(maxInFlight);
+        this.enqueueTimeoutMs = enqueueTimeoutMs;
+        // Queue time: from the send call until the producer has the record (waiting for a permit, metadata or
+        // buffer space). Ack time: from there until the broker acknowledges, which includes linger and batching.
+        this.queueTime = Timer.builder("chat.producer.queue.time").tag("topic", CHAT_TOPIC).register(meterRegistry);
+        this.ackTime = Timer.builder("chat.producer.ack.time").tag("topic", CHAT_TOPIC).tag("outcome", "ack")
+                .register(meterRegistry);
+        this.failedAckTime = Timer.builder("chat.producer.ack.time").tag("topic", CHAT_TOPIC).tag("outcome", "nack")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("chat.producer.rejected").tag("topic", CHAT_TOPIC).register(meterRegistry);
+        Gauge.builder("chat.producer.in-flight", inFlight, permits -> maxInFlight - permits.availablePermits())
+                .tag("topic", CHAT_TOPIC).register(meterRegistry);
     }
 
     private static final String CHAT_TOPIC = "chat-stream";
     private static final String USER_UPDATES_TOPIC = "user-updates";
     private static final String CHANNEL_UPDATES_TOPIC = "channel-updates";
 
-    public void sendMessage(Channel channel, ChatMessage message){
-        log.info("Sent Message on Topic: {}", CHAT_TOPIC);
-        kafkaTemplate.send(CHAT_TOPIC, channel.getChannelId(), message.toByteArray());
+    // Send results complete on the producer's I/O thread, which every other send waits on. Acks, STOMP frames and
+    // REST responses run on this executor instead.
+    public Executor callbackExecutor() {
+        return callbacks;
+    }
+
+    // Completes on the callback executor once the brokers have acknowledged the message, or exceptionally if it was
+    // rejected or failed
+    public CompletableFuture<SendResult<String, byte[]>> sendMessage(Channel channel, ChatMessage message){
+        long enqueued = System.nanoTime();
+        try {
+            if (!inFlight.tryAcquire(enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Too many messages awaiting acknowledgement, try again later"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<SendResult<String, byte[]>> future;
+        try {
+            future = kafkaTemplate.send(CHAT_TOPIC, channel.getChannelId(), message.toByteArray());
+        } catch (RuntimeException e) {
+            inFlight.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        long handedOver = System.nanoTime();
+        queueTime.record(handedOver - enqueued, TimeUnit.NANOSECONDS);
+        log.debug("Sent Message on Topic: {}", CHAT_TOPIC);
+        return future.whenCompleteAsync((result, error) -> {
+            inFlight.release();
+            long ackNanos = System.nanoTime() - handedOver;
+            if (error == null) {
+                ackTime.record(ackNanos, TimeUnit.NANOSECONDS);
+            } else {
+                failedAckTime.record(ackNanos, TimeUnit.NANOSECONDS);
+                log.warn("Message {} was not acknowledged by Kafka: {}", message.getMessageId(), error.getMessage());
+            }
+        }, callbacks);
     }
 
     public void sendUserUpdate(UserUpdate userUpdate){
@@ -38,4 +121,9 @@ public class KafkaProducer {
         log.info("Sent Channel Update on Topic: {}", CHANNEL_UPDATES_TOPIC);
         kafkaTemplate.send(CHANNEL_UPDATES_TOPIC, channelUpdate.getChannel().getChannelId(), channelUpdate.toByteArray());
     }
+
+    @PreDestroy
+    public void close() {
+        callbacks.shutdown();
+    }
 }
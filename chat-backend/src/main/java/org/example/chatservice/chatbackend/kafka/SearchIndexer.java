@@ -0,0 +1,62 @@
+package org.example.chatservice.chatbackend.kafka;
+
+import com.example.chat.proto.ChatMessage;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.example.chatservice.chatbackend.config.KafkaTopicConfig;
+import org.example.chatservice.chatbackend.search.SearchIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feeds every chat-stream partition into the local search index. Like the directory, each backend instance
+ * indexes all messages and resumes from the positions recorded with the last flushed segment.
+ */
+@Service
+public class SearchIndexer implements ConsumerSeekAware {
+    private static final Logger log = LoggerFactory.getLogger(SearchIndexer.class.getSimpleName());
+    private static final String CHAT_TOPIC = "chat-stream";
+    // Partitions are assigned manually, the group is only used for offset bookkeeping
+    private static final String GROUP_ID = "chat-backend-search";
+    private static final String CHAT_STREAM_PARTITIONS = "0-" + (KafkaTopicConfig.CHAT_STREAM_PARTITIONS - 1);
+    private final SearchIndex searchIndex;
+
+    public SearchIndexer(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<org.apache.kafka.common.TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        List<org.apache.kafka.common.TopicPartition> fromBeginning = new ArrayList<>();
+        for (org.apache.kafka.common.TopicPartition topicPartition : assignments.keySet()) {
+            Long position = searchIndex.restoredPosition(topicPartition);
+            if (position != null) {
+                callback.seek(topicPartition.topic(), topicPartition.partition(), position);
+            } else {
+                fromBeginning.add(topicPartition);
+            }
+        }
+        if (!fromBeginning.isEmpty()) {
+            callback.seekToBeginning(fromBeginning);
+        }
+    }
+
+    @KafkaListener(id = "search-indexer", groupId = GROUP_ID, concurrency = "1", autoStartup = "${search.enabled:true}",
+            topicPartitions = @TopicPartition(topic = CHAT_TOPIC, partitions = CHAT_STREAM_PARTITIONS))
+    public void listen(ConsumerRecord<String, byte[]> record) {
+        try {
+            searchIndex.index(record.partition(), record.offset(), ChatMessage.parseFrom(record.value()));
+        } catch (Exception e) {
+            log.error("Failed to index ChatMessage from record at partition: {}, offset: {}, error: {}",
+                    record.partition(), record.offset(), e.getMessage());
+            searchIndex.skip(record.partition(), record.offset());
+        }
+    }
+}
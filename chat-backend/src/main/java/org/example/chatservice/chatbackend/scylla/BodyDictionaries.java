@@ -0,0 +1,58 @@
+package org.example.chatservice.chatbackend.scylla;
+
+import com.datastax.driver.core.Row;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictDecompress;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Decodes message bodies written by db-persistence. A row holds either the body text or a zstd body compressed
+ * with a shared dictionary plus that dictionary's version. Dictionaries never change once stored, so each version
+ * is loaded from {@code body_dictionaries} the first time it is seen and kept.
+ */
+final class BodyDictionaries {
+    private final Map<Integer, ZstdDictDecompress> dictionaries = new ConcurrentHashMap<>();
+
+    void put(int version, ByteBuffer dictionary) {
+        byte[] bytes = new byte[dictionary.remaining()];
+        dictionary.duplicate().get(bytes);
+        dictionaries.putIfAbsent(version, new ZstdDictDecompress(bytes));
+    }
+
+    // Dictionary versions the rows need that are not loaded yet
+    Set<Integer> missing(Collection<Row> rows) {
+        Set<Integer> missing = new HashSet<>();
+        for (Row row : rows) {
+            if (compressed(row) && !dictionaries.containsKey(row.getInt("body_dictionary"))) {
+                missing.add(row.getInt("body_dictionary"));
+            }
+        }
+        return missing;
+    }
+
+    String body(Row row) {
+        return compressed(row) ? decode(row.getInt("body_dictionary"), row.getBytes("body_zstd")) : row.getString("body");
+    }
+
+    String decode(int version, ByteBuffer compressed) {
+        ZstdDictDecompress dictionary = dictionaries.get(version);
+        if (dictionary == null) {
+            throw new IllegalStateException("Body dictionary version " + version + " is not loaded");
+        }
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.duplicate().get(bytes);
+        return new String(Zstd.decompress(bytes, dictionary, (int) Zstd.decompressedSize(bytes)), UTF_8);
+    }
+
+    private static boolean compressed(Row row) {
+        return row.getColumnDefinitions().contains("body_dictionary") && !row.isNull("body_dictionary");
+    }
+}
@@ -0,0 +1,9 @@
+package org.example.chatservice.chatbackend.scylla;
+
+/**
+ * Latest message and activity of a channel, maintained by db-persistence as messages are stored.
+ * lastActivity is 0 and the message fields are null for a channel without messages.
+ */
+public record ChannelSummary(String channelId, String lastMessageId, String lastSenderId, String lastBody,
+                             long lastActivity, long messageCount) {
+}
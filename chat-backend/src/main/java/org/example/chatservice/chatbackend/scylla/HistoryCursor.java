@@ -0,0 +1,25 @@
+package org.example.chatservice.chatbackend.scylla;
+
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Opaque position in a channel's history: the clustering key of the last message a client has seen.
+ */
+public record HistoryCursor(long createdAt, String messageId) {
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((createdAt + ":" + messageId).getBytes(UTF_8));
+    }
+
+    public static HistoryCursor decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), UTF_8);
+            int separator = decoded.indexOf(':');
+            return new HistoryCursor(Long.parseLong(decoded.substring(0, separator)), decoded.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid history cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.chatservice.chatbackend.scylla;
+
+import com.example.chat.proto.ChatMessage;
+
+import java.util.List;
+
+/**
+ * One page of channel history, newest first. nextCursor is null once the oldest message has been returned.
+ */
+public record MessagePage(List<ChatMessage> messages, String nextCursor) {
+
+    // messages holds up to limit + 1 entries, a surplus one only shows that an older page exists and is dropped
+    public static MessagePage of(List<ChatMessage> messages, int limit) {
+        if (messages.size() <= limit) {
+            return new MessagePage(messages, null);
+        }
+        List<ChatMessage> page = List.copyOf(messages.subList(0, limit));
+        ChatMessage last = page.get(limit - 1);
+        return new MessagePage(page, new HistoryCursor(last.getTimeStamp(), last.getMessageId()).encode());
+    }
+}
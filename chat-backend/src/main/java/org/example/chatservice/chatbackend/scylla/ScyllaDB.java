@@ -4,42 +4,162 @@ import com.datastax.driver.core.*;
 import com.example.chat.proto.Channel;
 import com.example.chat.proto.ChatMessage;
 import com.example.chat.proto.User;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.example.chatservice.chatbackend.archive.ArchiveSegmentInfo;
+import org.example.chatservice.chatbackend.archive.ArchiveStore;
+import org.example.chatservice.chatbackend.archive.ArchivedMessage;
 import org.example.chatservice.chatbackend.cache.Cache;
-import org.example.chatservice.chatbackend.dto.ChatMessageDTO;
 import org.example.chatservice.chatbackend.scylla.session.ScyllaSession;
+import org.example.chatservice.scylla.SchemaChanges;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 public class ScyllaDB {
     private static final Logger log = LoggerFactory.getLogger(ScyllaDB.class);
+    private static final int BUCKET_FETCH_SIZE = 16;
+    private static final int SUMMARY_FETCH_SIZE = 1000;
+    private static final int MAX_IN_KEYS = 100;
+    private static final HistoryQueries CHANNEL_HISTORY = new HistoryQueries(
+            "getMessageBuckets", "getMessageBucketsBefore", "getMessagesInBucket", "getMessagesInBucketBefore");
+    private static final HistoryQueries SENDER_HISTORY = new HistoryQueries(
+            "getSenderBuckets", "getSenderBucketsBefore", "getSenderMessagesInBucket", "getSenderMessagesInBucketBefore");
+    private static final Comparator<ChatMessage> NEWEST_FIRST = Comparator.comparingLong(ChatMessage::getTimeStamp)
+            .thenComparing(ChatMessage::getMessageId).reversed();
     private final Session session;
     private final Map<String, PreparedStatement> preparedStatements = new HashMap<>();
+    private final TokenRangeScanner scanner;
+    private final BodyDictionaries bodyDictionaries = new BodyDictionaries();
+    private final ArchiveStore archiveStore;
+    private final ExecutorService callbacks;
 
-    public ScyllaDB(ScyllaSession scyllaSession) {
+    public ScyllaDB(ScyllaSession scyllaSession, ArchiveStore archiveStore,
+                    @Value("${scylla.scan.parallelism:16}") int scanParallelism,
+                    @Value("${scylla.scan.splits-per-range:4}") int scanSplitsPerRange,
+                    @Value("${scylla.scan.fetch-size:1000}") int scanFetchSize,
+                    @Value("${scylla.callback-threads:8}") int callbackThreads) {
         session = scyllaSession.getSession();
+        this.archiveStore = archiveStore;
+        AtomicInteger threads = new AtomicInteger();
+        this.callbacks = Executors.newFixedThreadPool(callbackThreads, runnable -> {
+            Thread thread = new Thread(runnable, "scylla-callback-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scanner = new TokenRangeScanner(session, scanParallelism, scanSplitsPerRange, scanFetchSize);
         createTablesIfNotExists();
         createPreparedStatements();
     }
 
     private void createTablesIfNotExists(){
-        // messages table
-        String createMessagesTable = "CREATE TABLE IF NOT EXISTS messages (" +
+        // Messages partitioned per channel and day, clustered newest first (written by db-persistence)
+        String createMessagesTable = "CREATE TABLE IF NOT EXISTS channel_messages (" +
                 "channel_id text," +
+                "bucket int," +
+                "created_at timestamp," +
                 "message_id text," +
                 "sender text," +
                 "body text," +
-                "created_at timestamp," +
-                "PRIMARY KEY (channel_id, created_at)" +
-                ") WITH CLUSTERING ORDER BY (created_at DESC);";
+                "PRIMARY KEY ((channel_id, bucket), created_at, message_id)" +
+                ") WITH CLUSTERING ORDER BY (created_at DESC, message_id DESC);";
         session.execute(createMessagesTable);
 
+        String createMessageBucketsTable = "CREATE TABLE IF NOT EXISTS channel_message_buckets (" +
+                "channel_id text," +
+                "bucket int," +
+                "PRIMARY KEY (channel_id, bucket)" +
+                ") WITH CLUSTERING ORDER BY (bucket DESC);";
+        session.execute(createMessageBucketsTable);
+
+        // Messages per sender and day (written by db-persistence)
+        String createMessagesBySenderTable = "CREATE TABLE IF NOT EXISTS messages_by_sender (" +
+                "sender text," +
+                "bucket int," +
+                "created_at timestamp," +
+                "message_id text," +
+                "channel_id text," +
+                "body text," +
+                "PRIMARY KEY ((sender, bucket), created_at, message_id)" +
+                ") WITH CLUSTERING ORDER BY (created_at DESC, message_id DESC);";
+        session.execute(createMessagesBySenderTable);
+
+        String createSenderBucketsTable = "CREATE TABLE IF NOT EXISTS sender_message_buckets (" +
+                "sender text," +
+                "bucket int," +
+                "PRIMARY KEY (sender, bucket)" +
+                ") WITH CLUSTERING ORDER BY (bucket DESC);";
+        session.execute(createSenderBucketsTable);
+
+        // Dictionary-compressed bodies (see db-persistence's scylla.body.encoding)
+        SchemaChanges.addBodyColumns(session);
+
+        String createBodyDictionariesTable = "CREATE TABLE IF NOT EXISTS body_dictionaries (" +
+                "version int," +
+                "dictionary blob," +
+                "created_at timestamp," +
+                "PRIMARY KEY (version)" +
+                ");";
+        session.execute(createBodyDictionariesTable);
+
+        // Archived history (written by db-persistence's archive job)
+        String createArchiveSegmentsTable = "CREATE TABLE IF NOT EXISTS channel_archive_segments (" +
+                "channel_id text," +
+                "first_bucket int," +
+                "generation bigint," +
+                "last_bucket int," +
+                "file text," +
+                "message_count bigint," +
+                "PRIMARY KEY (channel_id, first_bucket, generation)" +
+                ") WITH CLUSTERING ORDER BY (first_bucket DESC, generation DESC);";
+        session.execute(createArchiveSegmentsTable);
+
+        // Channel summaries (written by db-persistence)
+        String createChannelSummaryTable = "CREATE TABLE IF NOT EXISTS channel_summary (" +
+                "channel_id text," +
+                "last_message_id text," +
+                "last_sender text," +
+                "last_body text," +
+                "last_activity timestamp," +
+                "PRIMARY KEY (channel_id)" +
+                ");";
+        session.execute(createChannelSummaryTable);
+
+        String createChannelMessageCountsTable = "CREATE TABLE IF NOT EXISTS channel_message_counts (" +
+                "channel_id text," +
+                "message_count counter," +
+                "PRIMARY KEY (channel_id)" +
+                ");";
+        session.execute(createChannelMessageCountsTable);
+
         // Channel table
         String createChannelTable = "CREATE TABLE IF NOT EXISTS channels (" +
                 "channel_id text," +
@@ -71,11 +191,43 @@ public class ScyllaDB {
         String createUserCQL = "INSERT INTO users (user_id, username, display_name, created_at) VALUES (?, ?, ?, ?);";
         preparedStatements.put("createUser", session.prepare(createUserCQL));
 
-        String getMessagesByChannelCQL = "SELECT * FROM messages WHERE channel_id = ?;";
-        preparedStatements.put("getMessagesByChannel", session.prepare(getMessagesByChannelCQL));
+        String getMessageBucketsCQL = "SELECT bucket FROM channel_message_buckets WHERE channel_id = ?;";
+        preparedStatements.put("getMessageBuckets", session.prepare(getMessageBucketsCQL));
+
+        String getMessageBucketsBeforeCQL = "SELECT bucket FROM channel_message_buckets WHERE channel_id = ? AND bucket <= ?;";
+        preparedStatements.put("getMessageBucketsBefore", session.prepare(getMessageBucketsBeforeCQL));
+
+        String getMessagesInBucketCQL = "SELECT * FROM channel_messages WHERE channel_id = ? AND bucket = ? LIMIT ?;";
+        preparedStatements.put("getMessagesInBucket", session.prepare(getMessagesInBucketCQL));
+
+        String getMessagesInBucketBeforeCQL = "SELECT * FROM channel_messages WHERE channel_id = ? AND bucket = ? " +
+                "AND (created_at, message_id) < (?, ?) LIMIT ?;";
+        preparedStatements.put("getMessagesInBucketBefore", session.prepare(getMessagesInBucketBeforeCQL));
+
+        preparedStatements.put("getSenderBuckets", session.prepare("SELECT bucket FROM sender_message_buckets WHERE sender = ?;"));
+        preparedStatements.put("getSenderBucketsBefore", session.prepare("SELECT bucket FROM sender_message_buckets WHERE sender = ? AND bucket <= ?;"));
+        preparedStatements.put("getSenderMessagesInBucket", session.prepare("SELECT * FROM messages_by_sender WHERE sender = ? AND bucket = ? LIMIT ?;"));
+        preparedStatements.put("getSenderMessagesInBucketBefore", session.prepare("SELECT * FROM messages_by_sender WHERE sender = ? AND bucket = ? " +
+                "AND (created_at, message_id) < (?, ?) LIMIT ?;"));
+
+        preparedStatements.put("getBodyDictionary", session.prepare("SELECT dictionary FROM body_dictionaries WHERE version = ?;"));
+
+        preparedStatements.put("getArchiveSegments", session.prepare("SELECT * FROM channel_archive_segments WHERE channel_id = ?;"));
+
+        preparedStatements.put("getChannelSummaries", session.prepare("SELECT * FROM channel_summary;"));
+        preparedStatements.put("getChannelSummariesIn", session.prepare("SELECT * FROM channel_summary WHERE channel_id IN ?;"));
+        preparedStatements.put("getChannelMessageCounts", session.prepare("SELECT * FROM channel_message_counts;"));
+        preparedStatements.put("getChannelMessageCountsIn", session.prepare("SELECT * FROM channel_message_counts WHERE channel_id IN ?;"));
+    }
+
+    // The futures returned here complete on this executor, never on the driver's I/O threads, so row mapping and
+    // body decoding do not hold those up. Continuations that can block (Kafka sends, directory and hot history
+    // locks) are handed to it explicitly as well, wherever the future they follow completes.
+    public Executor callbackExecutor() {
+        return callbacks;
     }
 
-    public ResultSet createChannel(String channelId, String name, String description) {
+    public CompletableFuture<ResultSet> createChannel(String channelId, String name, String description) {
         PreparedStatement ps = preparedStatements.get("createChannel");
         BoundStatement bound = ps.bind(
                 channelId,
@@ -83,10 +235,10 @@ public class ScyllaDB {
                 name,
                 description
         );
-        return session.execute(bound);
+        return executeAsync(bound);
     }
 
-    public ResultSet createUser(String userId, String username, String displayName) {
+    public CompletableFuture<ResultSet> createUser(String userId, String username, String displayName) {
         PreparedStatement ps = preparedStatements.get("createUser");
         BoundStatement bound = ps.bind(
                 userId,
@@ -94,95 +246,520 @@ public class ScyllaDB {
                 displayName,
                 new Date()
         );
-        return session.execute(bound);
-    }
-
-    public void populateUsersPaging(){
-        Statement statement = new SimpleStatement("SELECT * FROM users;");
-        boolean stop = false;
-        int pageSize = 500;
-        statement.setFetchSize(pageSize);
-        while(!stop){
-            ResultSet resultSet = session.execute(statement);
-            for (Row row : resultSet) {
-                String userId = row.getString("user_id");
-                String username = row.getString("username");
-                String displayName = row.getString("display_name");
-
-                User user = User.newBuilder()
-                        .setUserId(userId)
-                        .setUsername(username)
-                        .setDisplayName(displayName)
+        return executeAsync(bound);
+    }
+
+    public CompletableFuture<Long> populateUsers(){
+        return scanner.scan("users", "user_id", row -> {
+            User user = User.newBuilder()
+                    .setUserId(row.getString("user_id"))
+                    .setUsername(row.getString("username"))
+                    .setDisplayName(row.getString("display_name"))
+                    .build();
+            Cache.users.put(user);
+        });
+    }
+
+    public CompletableFuture<Long> populateChannels(){
+        return scanner.scan("channels", "channel_id", row -> {
+            Channel channel = Channel.newBuilder()
+                    .setChannelId(row.getString("channel_id"))
+                    .setName(row.getString("name"))
+                    .setDescription(row.getString("description"))
+                    .build();
+            Cache.channels.put(channel);
+        });
+    }
+
+    // Archived ranges are walked together with the hot buckets: backfill and dead-letter replay write into old
+    // buckets, so a hot bucket can be older than, or inside, a range that was already archived
+    public CompletableFuture<MessagePage> getMessagesByChannel(String channelId, HistoryCursor before, int limit){
+        Channel channel = Cache.channels.getById(channelId);
+        return getArchiveSegments(channelId).thenCompose(segments -> getMessagePage(CHANNEL_HISTORY, channelId, before,
+                limit, row -> toChatMessage(row, channel), archiveRanges(segments, before),
+                archived -> toChatMessage(archived, channel)));
+    }
+
+    // Messages a user sent across all channels, newest first, read from the sender's own partitions
+    public CompletableFuture<MessagePage> getMessagesBySender(String userId, HistoryCursor before, int limit){
+        User sender = Cache.users.getById(userId);
+        return getMessagePage(SENDER_HISTORY, userId, before, limit, row -> {
+            String channelId = row.getString("channel_id");
+            Channel channel = Cache.channels.getById(channelId);
+            if (channel == null) {
+                channel = Channel.newBuilder()
+                        .setChannelId(channelId)
+                        .setName("Unknown")
                         .build();
+            }
+            return toChatMessage(row, channel, sender, userId);
+        }, new ArrayDeque<>(), null);
+    }
 
-                Cache.userCache.put(userId, user);
-                Cache.userNameCache.put(username, user);
+    private CompletableFuture<MessagePage> getMessagePage(HistoryQueries queries, String key, HistoryCursor before, int limit,
+                                                          Function<Row, ChatMessage> mapper,
+                                                          Deque<List<ArchiveSegmentInfo>> ranges,
+                                                          Function<ArchivedMessage, ChatMessage> archivedMapper){
+        // Walk the partition key's non-empty buckets newest first, only as far as needed to fill the page
+        BoundStatement buckets = before == null
+                ? preparedStatements.get(queries.buckets()).bind(key)
+                : preparedStatements.get(queries.bucketsBefore()).bind(key, MessageBuckets.bucketOf(before.createdAt()));
+        buckets.setFetchSize(BUCKET_FETCH_SIZE);
+        // One message more than the page is read, it only tells whether an older page exists
+        return executeAsync(buckets).thenCompose(bucketRows -> {
+            HistoryWalk walk = new HistoryWalk(queries, key, before, limit + 1, mapper, ranges, archivedMapper, bucketRows);
+            return fillPage(walk).thenApply(filled -> MessagePage.of(walk.messages, limit));
+        });
+    }
+
+    // Reads hot buckets and archived ranges newest first until the page is full or both run out. Hot buckets inside
+    // an archived range are merged with it. Only rows the driver already holds are consumed, further bucket pages
+    // are fetched asynchronously rather than by blocking a callback thread.
+    private CompletableFuture<Void> fillPage(HistoryWalk walk) {
+        if (walk.messages.size() >= walk.limit) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return nextBucket(walk).thenCompose(bucket -> {
+            List<ArchiveSegmentInfo> range = walk.ranges.peekFirst();
+            if (range != null && (bucket == null || bucket < range.get(0).firstBucket())) {
+                // Nothing of the range is hot, and all of it is newer than the next hot bucket
+                walk.ranges.removeFirst();
+                walk.peeked = bucket;
+                return readRange(walk, range, List.of()).thenCompose(read -> fillPage(walk));
             }
-            if (resultSet.getExecutionInfo().getPagingState() != null) {
-                statement.setPagingState(resultSet.getExecutionInfo().getPagingState());
-            } else {
-                stop = true;
+            if (bucket == null) {
+                return CompletableFuture.completedFuture(null);
             }
+            if (range != null && bucket <= range.get(0).lastBucket()) {
+                walk.ranges.removeFirst();
+                List<Integer> hotBuckets = new ArrayList<>();
+                hotBuckets.add(bucket);
+                return collectBuckets(walk, range.get(0).firstBucket(), hotBuckets)
+                        .thenCompose(collected -> readRange(walk, range, hotBuckets))
+                        .thenCompose(read -> fillPage(walk));
+            }
+            return readBucket(walk, bucket, walk.limit - walk.messages.size()).thenCompose(messages -> {
+                walk.messages.addAll(messages);
+                return fillPage(walk);
+            });
+        });
+    }
+
+    // The walk's next hot bucket, null once there are no more
+    private CompletableFuture<Integer> nextBucket(HistoryWalk walk) {
+        if (walk.peeked != null) {
+            Integer bucket = walk.peeked;
+            walk.peeked = null;
+            return CompletableFuture.completedFuture(bucket);
+        }
+        if (walk.buckets.getAvailableWithoutFetching() > 0) {
+            return CompletableFuture.completedFuture(walk.buckets.one().getInt("bucket"));
+        }
+        if (walk.buckets.isFullyFetched()) {
+            return CompletableFuture.completedFuture(null);
         }
+        return toCompletableFuture(walk.buckets.fetchMoreResults()).thenCompose(more -> nextBucket(walk));
     }
 
-    public void populateChannelsPaging(){
-        Statement statement = new SimpleStatement("SELECT * FROM channels;");
-        boolean stop = false;
-        int pageSize = 500;
-        statement.setFetchSize(pageSize);
-        while(!stop){
-            ResultSet resultSet = session.execute(statement);
-            for (Row row : resultSet) {
-                String channelId = row.getString("channel_id");
-                String name = row.getString("name");
-                String description = row.getString("description");
+    // Adds the following hot buckets down to firstBucket, the first one below it is kept for the walk
+    private CompletableFuture<Void> collectBuckets(HistoryWalk walk, int firstBucket, List<Integer> hotBuckets) {
+        return nextBucket(walk).thenCompose(bucket -> {
+            if (bucket != null && bucket >= firstBucket) {
+                hotBuckets.add(bucket);
+                return collectBuckets(walk, firstBucket, hotBuckets);
+            }
+            walk.peeked = bucket;
+            return CompletableFuture.completedFuture(null);
+        });
+    }
 
-                Channel channel = Channel.newBuilder()
-                        .setChannelId(channelId)
-                        .setName(name)
-                        .setDescription(description)
-                        .build();
-                Cache.channelCache.put(channelId, channel);
-                Cache.channelNameCache.put(name, channel);
+    private CompletableFuture<List<ChatMessage>> readBucket(HistoryWalk walk, int bucket, int limit) {
+        BoundStatement page = bucketQuery(walk.queries, walk.key, bucket, walk.before, limit);
+        // The whole LIMIT arrives in a single page
+        page.setFetchSize(limit);
+        return executeAsync(page).thenCompose(result -> {
+            List<Row> rows = new ArrayList<>(result.getAvailableWithoutFetching());
+            for (int available = result.getAvailableWithoutFetching(); available > 0; available--) {
+                rows.add(result.one());
             }
-            if (resultSet.getExecutionInfo().getPagingState() != null) {
-                statement.setPagingState(resultSet.getExecutionInfo().getPagingState());
+            return loadBodyDictionaries(rows).thenApply(loaded -> map(rows, walk.mapper));
+        });
+    }
+
+    // Adds the range's archived messages merged with those of its hot buckets, up to the rest of the page
+    private CompletableFuture<Void> readRange(HistoryWalk walk, List<ArchiveSegmentInfo> range, List<Integer> hotBuckets) {
+        int remaining = walk.limit - walk.messages.size();
+        CompletableFuture<List<ArchivedMessage>> archived = CompletableFuture.supplyAsync(
+                () -> archiveStore.readBefore(range, walk.before, remaining), archiveStore.executor());
+        List<CompletableFuture<List<ChatMessage>>> hot = new ArrayList<>(hotBuckets.size());
+        for (int bucket : hotBuckets) {
+            hot.add(readBucket(walk, bucket, remaining));
+        }
+        return archived.thenCombine(CompletableFuture.allOf(hot.toArray(new CompletableFuture[0])), (archivedMessages, read) -> {
+            List<ChatMessage> hotMessages = new ArrayList<>();
+            for (CompletableFuture<List<ChatMessage>> bucket : hot) {
+                hotMessages.addAll(bucket.join());
+            }
+            Iterator<ChatMessage> merged = mergeNewestFirst(
+                    Iterators.transform(archivedMessages.iterator(), walk.archivedMapper::apply), hotMessages.iterator());
+            for (int i = 0; i < remaining && merged.hasNext(); i++) {
+                walk.messages.add(merged.next());
+            }
+            return null;
+        });
+    }
+
+    // Summaries of the given channels, or of every channel with messages when channelIds is null. The summary and
+    // count tables are read concurrently. Lists beyond the partition key IN limit read the whole (small) table.
+    public CompletableFuture<Map<String, ChannelSummary>> getChannelSummaries(List<String> channelIds){
+        if (channelIds != null && channelIds.size() > MAX_IN_KEYS) {
+            channelIds = null;
+        }
+        BoundStatement summaries = channelIds == null
+                ? preparedStatements.get("getChannelSummaries").bind()
+                : preparedStatements.get("getChannelSummariesIn").bind(channelIds);
+        BoundStatement counts = channelIds == null
+                ? preparedStatements.get("getChannelMessageCounts").bind()
+                : preparedStatements.get("getChannelMessageCountsIn").bind(channelIds);
+        summaries.setFetchSize(SUMMARY_FETCH_SIZE);
+        counts.setFetchSize(SUMMARY_FETCH_SIZE);
+
+        Map<String, ChannelSummary> result = new ConcurrentHashMap<>();
+        Map<String, Long> messageCounts = new ConcurrentHashMap<>();
+        CompletableFuture<Void> summariesRead = executeAsync(summaries).thenCompose(rows -> forEachRow(rows, row -> {
+            Date lastActivity = row.getTimestamp("last_activity");
+            result.put(row.getString("channel_id"), new ChannelSummary(
+                    row.getString("channel_id"),
+                    row.getString("last_message_id"),
+                    row.getString("last_sender"),
+                    row.getString("last_body"),
+                    lastActivity == null ? 0 : lastActivity.getTime(),
+                    0));
+        }));
+        CompletableFuture<Void> countsRead = executeAsync(counts).thenCompose(rows -> forEachRow(rows,
+                row -> messageCounts.put(row.getString("channel_id"), row.getLong("message_count"))));
+        return summariesRead.thenCombine(countsRead, (ignored, ignoredToo) -> {
+            result.replaceAll((channelId, summary) -> new ChannelSummary(summary.channelId(), summary.lastMessageId(),
+                    summary.lastSenderId(), summary.lastBody(), summary.lastActivity(),
+                    messageCounts.getOrDefault(channelId, 0L)));
+            return result;
+        });
+    }
+
+    // Hands every message older than the cursor to the sink, newest first, archived history included and walked
+    // together with the hot buckets as in getMessagesByChannel. Rows are pulled page by page, so memory use does not
+    // depend on how much history the channel has. pageEnd runs before each further page is fetched, once the sink
+    // has seen everything read so far.
+    public long streamMessagesByChannel(String channelId, HistoryCursor before, int fetchSize, Consumer<ChatMessage> sink,
+                                        Runnable pageEnd){
+        Channel channel = Cache.channels.getById(channelId);
+        Deque<List<ArchiveSegmentInfo>> ranges = archiveRanges(getArchiveSegments(channelId).join(), before);
+        BoundStatement bucketsStatement = before == null
+                ? preparedStatements.get("getMessageBuckets").bind(channelId)
+                : preparedStatements.get("getMessageBucketsBefore").bind(channelId, MessageBuckets.bucketOf(before.createdAt()));
+        bucketsStatement.setFetchSize(BUCKET_FETCH_SIZE);
+        PeekingIterator<Integer> buckets = Iterators.peekingIterator(
+                Iterators.transform(session.execute(bucketsStatement).iterator(), row -> row.getInt("bucket")));
+
+        long streamed = 0;
+        while (buckets.hasNext() || !ranges.isEmpty()) {
+            List<ArchiveSegmentInfo> range = ranges.peekFirst();
+            Iterator<ChatMessage> messages;
+            if (range != null && (!buckets.hasNext() || buckets.peek() < range.get(0).firstBucket())) {
+                ranges.removeFirst();
+                messages = archivedMessages(range, before, fetchSize, channel, pageEnd);
+            } else if (range != null && buckets.peek() <= range.get(0).lastBucket()) {
+                ranges.removeFirst();
+                List<Integer> hotBuckets = new ArrayList<>();
+                while (buckets.hasNext() && buckets.peek() >= range.get(0).firstBucket()) {
+                    hotBuckets.add(buckets.next());
+                }
+                messages = mergeNewestFirst(archivedMessages(range, before, fetchSize, channel, pageEnd),
+                        hotMessages(channelId, hotBuckets, before, fetchSize, channel, pageEnd));
             } else {
-                stop = true;
+                messages = hotMessages(channelId, List.of(buckets.next()), before, fetchSize, channel, pageEnd);
+            }
+            while (messages.hasNext()) {
+                sink.accept(messages.next());
+                streamed++;
+            }
+        }
+        return streamed;
+    }
+
+    // Messages of the channel's hot buckets (given newest first) older than the cursor, one driver page at a time.
+    // The body dictionaries a page refers to are loaded once for the page.
+    private Iterator<ChatMessage> hotMessages(String channelId, List<Integer> buckets, HistoryCursor before, int fetchSize,
+                                              Channel channel, Runnable pageEnd) {
+        Iterator<Integer> remaining = buckets.iterator();
+        return new PagedIterator<>(pageEnd) {
+            private ResultSet rows;
+
+            @Override
+            List<ChatMessage> nextPage() {
+                while (rows == null || rows.isExhausted()) {
+                    if (!remaining.hasNext()) {
+                        return List.of();
+                    }
+                    BoundStatement statement = bucketQuery(CHANNEL_HISTORY, channelId, remaining.next(), before, Integer.MAX_VALUE);
+                    statement.setFetchSize(fetchSize);
+                    rows = session.execute(statement);
+                }
+                List<Row> page = new ArrayList<>(rows.getAvailableWithoutFetching());
+                for (int available = rows.getAvailableWithoutFetching(); available > 0; available--) {
+                    page.add(rows.one());
+                }
+                loadBodyDictionaries(page).join();
+                return map(page, row -> toChatMessage(row, channel));
+            }
+        };
+    }
+
+    // Archived messages of one range older than the cursor, fetchSize at a time
+    private Iterator<ChatMessage> archivedMessages(List<ArchiveSegmentInfo> range, HistoryCursor before, int fetchSize,
+                                                   Channel channel, Runnable pageEnd) {
+        return new PagedIterator<>(pageEnd) {
+            private HistoryCursor cursor = before;
+
+            @Override
+            List<ChatMessage> nextPage() {
+                List<ArchivedMessage> archived = archiveStore.readBefore(range, cursor, fetchSize);
+                List<ChatMessage> messages = new ArrayList<>(archived.size());
+                for (ArchivedMessage message : archived) {
+                    messages.add(toChatMessage(message, channel));
+                }
+                if (!archived.isEmpty()) {
+                    ArchivedMessage oldest = archived.get(archived.size() - 1);
+                    cursor = new HistoryCursor(oldest.createdAt(), oldest.messageId());
+                }
+                return messages;
+            }
+        };
+    }
+
+    // Catalog segments grouped into ranges, all generations of a range together, newest range first. Ranges that are
+    // entirely newer than the cursor are left out.
+    private static Deque<List<ArchiveSegmentInfo>> archiveRanges(List<ArchiveSegmentInfo> segments, HistoryCursor before) {
+        Deque<List<ArchiveSegmentInfo>> ranges = new ArrayDeque<>();
+        for (ArchiveSegmentInfo segment : segments) {
+            if (before != null && segment.firstBucket() > MessageBuckets.bucketOf(before.createdAt())) {
+                continue;
+            }
+            List<ArchiveSegmentInfo> range = ranges.peekLast();
+            if (range == null || range.get(0).firstBucket() != segment.firstBucket()) {
+                range = new ArrayList<>();
+                ranges.addLast(range);
+            }
+            range.add(segment);
+        }
+        return ranges;
+    }
+
+    // Merges two newest-first sequences. A message present in both, archived and written again later, is kept once.
+    private static Iterator<ChatMessage> mergeNewestFirst(Iterator<ChatMessage> first, Iterator<ChatMessage> second) {
+        PeekingIterator<ChatMessage> left = Iterators.peekingIterator(first);
+        PeekingIterator<ChatMessage> right = Iterators.peekingIterator(second);
+        return new AbstractIterator<>() {
+            @Override
+            protected ChatMessage computeNext() {
+                if (!left.hasNext()) {
+                    return right.hasNext() ? right.next() : endOfData();
+                }
+                if (!right.hasNext()) {
+                    return left.next();
+                }
+                int order = NEWEST_FIRST.compare(left.peek(), right.peek());
+                if (order == 0) {
+                    right.next();
+                }
+                return order <= 0 ? left.next() : right.next();
+            }
+        };
+    }
+
+    private BoundStatement bucketQuery(HistoryQueries queries, String key, int bucket, HistoryCursor before, int limit) {
+        return before != null && bucket == MessageBuckets.bucketOf(before.createdAt())
+                ? preparedStatements.get(queries.inBucketBefore())
+                        .bind(key, bucket, new Date(before.createdAt()), before.messageId(), limit)
+                : preparedStatements.get(queries.inBucket()).bind(key, bucket, limit);
+    }
+
+    private static List<ChatMessage> map(List<Row> rows, Function<Row, ChatMessage> mapper) {
+        List<ChatMessage> messages = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            messages.add(mapper.apply(row));
+        }
+        return messages;
+    }
+
+    // Catalog of the channel's archive segments, newest range first
+    private CompletableFuture<List<ArchiveSegmentInfo>> getArchiveSegments(String channelId) {
+        List<ArchiveSegmentInfo> segments = new ArrayList<>();
+        BoundStatement statement = preparedStatements.get("getArchiveSegments").bind(channelId);
+        return executeAsync(statement).thenCompose(rows -> forEachRow(rows, row -> segments.add(new ArchiveSegmentInfo(
+                row.getString("channel_id"),
+                row.getInt("first_bucket"),
+                row.getInt("last_bucket"),
+                row.getLong("generation"),
+                row.getString("file")))))
+                .thenApply(done -> segments);
+    }
+
+    // Fetches the dictionaries compressed bodies in these rows refer to, completes immediately once all are known
+    private CompletableFuture<Void> loadBodyDictionaries(Collection<Row> rows) {
+        Set<Integer> missing = bodyDictionaries.missing(rows);
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<CompletableFuture<Void>> loads = new ArrayList<>(missing.size());
+        for (int version : missing) {
+            loads.add(executeAsync(preparedStatements.get("getBodyDictionary").bind(version)).thenAccept(result -> {
+                Row row = result.one();
+                if (row == null) {
+                    throw new IllegalStateException("Body dictionary version " + version + " does not exist");
+                }
+                bodyDictionaries.put(version, row.getBytes("dictionary"));
+            }));
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture[0]));
+    }
+
+    // Consumes every row of a result, fetching further pages asynchronously instead of blocking a callback thread
+    private CompletableFuture<Void> forEachRow(ResultSet rows, Consumer<Row> consumer) {
+        for (int available = rows.getAvailableWithoutFetching(); available > 0; available--) {
+            consumer.accept(rows.one());
+        }
+        if (rows.isFullyFetched()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return toCompletableFuture(rows.fetchMoreResults()).thenCompose(more -> forEachRow(more, consumer));
+    }
+
+    private CompletableFuture<ResultSet> executeAsync(Statement statement) {
+        return toCompletableFuture(session.executeAsync(statement));
+    }
+
+    // Only the handoff runs on the driver's I/O thread, the future completes on a callback thread
+    private CompletableFuture<ResultSet> toCompletableFuture(ListenableFuture<ResultSet> future) {
+        CompletableFuture<ResultSet> result = new CompletableFuture<>();
+        Futures.addCallback(future, new FutureCallback<>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                result.complete(resultSet);
             }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }, callbacks);
+        return result;
+    }
+
+    private ChatMessage toChatMessage(ArchivedMessage message, Channel channel){
+        User user = Cache.users.getById(message.sender());
+        if (user == null) {
+            user = User.newBuilder()
+                    .setUsername(message.sender())
+                    .setDisplayName("Unknown")
+                    .setUserId("unknown")
+                    .build();
         }
+        return ChatMessage.newBuilder()
+                .setMessageId(message.messageId())
+                .setChannel(channel)
+                .setSender(user)
+                .setBody(message.body())
+                .setTimeStamp(message.createdAt())
+                .build();
+    }
+
+    private ChatMessage toChatMessage(Row row, Channel channel){
+        String sender = row.getString("sender");
+        return toChatMessage(row, channel, Cache.users.getById(sender), sender);
     }
 
-    public Map<Channel, ArrayList<ChatMessage>> getMessagesByChannel(String channelId){
-        PreparedStatement ps = preparedStatements.get("getMessagesByChannel");
-        BoundStatement bound = ps.bind(channelId);
-        ResultSet resultSet = session.execute(bound);
-        ArrayList<ChatMessage> messages = new ArrayList<>();
-        Channel channel = Cache.channelCache.get(channelId);
-        for (Row row : resultSet) {
-            String messageId = row.getString("message_id");
-            String sender = row.getString("sender");
-            String body = row.getString("body");
-            Date createdAt = row.getTimestamp("created_at");
+    private ChatMessage toChatMessage(Row row, Channel channel, User user, String sender){
+        String messageId = row.getString("message_id");
+        String body = bodyDictionaries.body(row);
+        Date createdAt = row.getTimestamp("created_at");
 
-            User user = Cache.userCache.getOrDefault(sender, User.newBuilder()
+        if (user == null) {
+            user = User.newBuilder()
                     .setUsername(sender)
                     .setDisplayName("Unknown")
                     .setUserId("unknown")
-                    .build());
-
-            ChatMessage chatMessage = ChatMessage.newBuilder()
-                    .setMessageId(messageId)
-                    .setChannel(channel)
-                    .setSender(user)
-                    .setBody(body)
-                    .setTimeStamp(createdAt.getTime())
                     .build();
-            messages.add(chatMessage);
         }
-        Map<Channel, ArrayList<ChatMessage>> channelMessagesMap = new HashMap<>();
-        channelMessagesMap.put(channel, messages);
-        return channelMessagesMap;
+
+        return ChatMessage.newBuilder()
+                .setMessageId(messageId)
+                .setChannel(channel)
+                .setSender(user)
+                .setBody(body)
+                .setTimeStamp(createdAt.getTime())
+                .build();
+    }
+
+    @PreDestroy
+    public void close() {
+        callbacks.shutdown();
+    }
+
+    // Statements walking one partition key's history, bucket by bucket
+    private record HistoryQueries(String buckets, String bucketsBefore, String inBucket, String inBucketBefore) {
+    }
+
+    // State of one page walk. Only one callback of the walk runs at a time.
+    private static final class HistoryWalk {
+        final HistoryQueries queries;
+        final String key;
+        final HistoryCursor before;
+        final int limit;
+        final Function<Row, ChatMessage> mapper;
+        final Deque<List<ArchiveSegmentInfo>> ranges;
+        final Function<ArchivedMessage, ChatMessage> archivedMapper;
+        final ResultSet buckets;
+        final List<ChatMessage> messages = new ArrayList<>();
+        // A bucket read ahead of the walk, null if none
+        Integer peeked;
+
+        HistoryWalk(HistoryQueries queries, String key, HistoryCursor before, int limit, Function<Row, ChatMessage> mapper,
+                    Deque<List<ArchiveSegmentInfo>> ranges, Function<ArchivedMessage, ChatMessage> archivedMapper,
+                    ResultSet buckets) {
+            this.queries = queries;
+            this.key = key;
+            this.before = before;
+            this.limit = limit;
+            this.mapper = mapper;
+            this.ranges = ranges;
+            this.archivedMapper = archivedMapper;
+            this.buckets = buckets;
+        }
+    }
+
+    // An iterator over pages fetched on demand, done at the first empty page
+    private abstract static class PagedIterator<T> extends AbstractIterator<T> {
+        private final Runnable pageEnd;
+        private Iterator<T> page = Collections.emptyIterator();
+
+        PagedIterator(Runnable pageEnd) {
+            this.pageEnd = pageEnd;
+        }
+
+        abstract List<T> nextPage();
+
+        @Override
+        protected T computeNext() {
+            while (!page.hasNext()) {
+                pageEnd.run();
+                List<T> next = nextPage();
+                if (next.isEmpty()) {
+                    return endOfData();
+                }
+                page = next.iterator();
+            }
+            return page.next();
+        }
     }
 }
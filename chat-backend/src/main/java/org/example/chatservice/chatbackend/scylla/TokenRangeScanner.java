@@ -0,0 +1,136 @@
+package org.example.chatservice.chatbackend.scylla;
+
+import com.datastax.driver.core.*;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Full-table scanner that splits the token ring into sub-ranges and reads them concurrently with
+ * {@code executeAsync}, keeping at most {@code parallelism} range queries in flight.
+ * Rows are handed to the sink as pages arrive, from several threads at once.
+ */
+public class TokenRangeScanner {
+    private static final Logger log = LoggerFactory.getLogger(TokenRangeScanner.class.getSimpleName());
+    private final Session session;
+    private final int parallelism;
+    private final int splitsPerRange;
+    private final int fetchSize;
+
+    public TokenRangeScanner(Session session, int parallelism, int splitsPerRange, int fetchSize) {
+        this.session = session;
+        this.parallelism = Math.max(1, parallelism);
+        this.splitsPerRange = Math.max(1, splitsPerRange);
+        this.fetchSize = fetchSize;
+    }
+
+    public CompletableFuture<Long> scan(String table, String partitionKey, Consumer<Row> sink) {
+        String select = "SELECT * FROM " + table + " WHERE token(" + partitionKey + ") > ?";
+        PreparedStatement openEnded = session.prepare(select + ";");
+        PreparedStatement bounded = session.prepare(select + " AND token(" + partitionKey + ") <= ?;");
+
+        Queue<TokenRange> pending = new ConcurrentLinkedQueue<>();
+        for (TokenRange range : session.getCluster().getMetadata().getTokenRanges()) {
+            for (TokenRange split : range.splitEvenly(splitsPerRange)) {
+                pending.addAll(split.unwrap());
+            }
+        }
+        log.info("Scanning table {} over {} token ranges with parallelism {}", table, pending.size(), parallelism);
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Scan scan = new Scan(pending, openEnded, bounded, sink, executor);
+        int workers = Math.min(parallelism, pending.size());
+        if (workers == 0) {
+            scan.result.complete(0L);
+        }
+        scan.active.set(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(scan::nextRange);
+        }
+        return scan.result.whenComplete((rows, error) -> executor.shutdown());
+    }
+
+    private final class Scan {
+        private final Queue<TokenRange> pending;
+        private final PreparedStatement openEnded;
+        private final PreparedStatement bounded;
+        private final Consumer<Row> sink;
+        private final ExecutorService executor;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong rows = new AtomicLong();
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        private Scan(Queue<TokenRange> pending, PreparedStatement openEnded, PreparedStatement bounded,
+                     Consumer<Row> sink, ExecutorService executor) {
+            this.pending = pending;
+            this.openEnded = openEnded;
+            this.bounded = bounded;
+            this.sink = sink;
+            this.executor = executor;
+        }
+
+        private void nextRange() {
+            TokenRange range = pending.poll();
+            if (range == null || result.isDone()) {
+                if (active.decrementAndGet() == 0) {
+                    result.complete(rows.get());
+                }
+                return;
+            }
+            BoundStatement statement = isMinToken(range.getEnd())
+                    ? openEnded.bind().setToken(0, range.getStart())
+                    : bounded.bind().setToken(0, range.getStart()).setToken(1, range.getEnd());
+            statement.setFetchSize(fetchSize);
+            onPage(session.executeAsync(statement));
+        }
+
+        private void onPage(ListenableFuture<ResultSet> page) {
+            Futures.addCallback(page, new FutureCallback<>() {
+                @Override
+                public void onSuccess(ResultSet resultSet) {
+                    try {
+                        // Only consume what is already fetched, iterating past it would block on the next page
+                        int remaining = resultSet.getAvailableWithoutFetching();
+                        if (remaining > 0) {
+                            for (Row row : resultSet) {
+                                sink.accept(row);
+                                rows.incrementAndGet();
+                                if (--remaining == 0) {
+                                    break;
+                                }
+                            }
+                        }
+                        if (resultSet.isFullyFetched()) {
+                            nextRange();
+                        } else {
+                            onPage(resultSet.fetchMoreResults());
+                        }
+                    } catch (RuntimeException e) {
+                        onFailure(e);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            }, executor);
+        }
+    }
+
+    // Ranges ending at the minimum token wrap to the end of the ring and have no upper bound
+    private static boolean isMinToken(Token token) {
+        return token.getValue() instanceof Long && (Long) token.getValue() == Long.MIN_VALUE;
+    }
+}
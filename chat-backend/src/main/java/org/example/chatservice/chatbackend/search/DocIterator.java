@@ -0,0 +1,21 @@
+package org.example.chatservice.chatbackend.search;
+
+/**
+ * Cursor over an ascending postings list. It starts before the first doc; {@link #nextDoc} and {@link #advance}
+ * return {@link #NO_MORE_DOCS} once the list is exhausted.
+ */
+interface DocIterator {
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    // Current doc, -1 before the first call
+    int docId();
+
+    int nextDoc();
+
+    // First doc at or after target, which must be beyond the current doc. Skips what lies in between undecoded
+    // where the list allows it.
+    int advance(int target);
+
+    // Number of docs in the list, the rarest list drives an intersection
+    int cost();
+}
@@ -0,0 +1,22 @@
+package org.example.chatservice.chatbackend.search;
+
+/**
+ * A searchable part of the index: the in-memory table or an immutable segment. Doc ids are local to the source.
+ * In a time-ordered source they ascend with message time, so the highest matching ids are the newest matches.
+ */
+interface IndexSource {
+
+    // Terms of all channels share one dictionary, keyed by channel id and term
+    static String key(String channelId, String term) {
+        return channelId + '\u0000' + term;
+    }
+
+    // Ascending doc ids containing the key, empty if none
+    DocIterator postings(String key);
+
+    IndexedMessage doc(int docId);
+
+    default boolean timeOrdered() {
+        return true;
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.chatservice.chatbackend.search;
+
+/**
+ * Message fields stored alongside the index, so search results are served without a database read.
+ */
+public record IndexedMessage(String messageId, String senderId, String body, long timestamp) {
+}
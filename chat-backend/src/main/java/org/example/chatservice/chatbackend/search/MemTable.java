@@ -0,0 +1,133 @@
+package org.example.chatservice.chatbackend.search;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Mutable index of the most recently indexed messages, flushed to an immutable segment when full.
+ */
+final class MemTable implements IndexSource {
+    private final List<IndexedMessage> docs = new ArrayList<>();
+    private final Map<String, IntList> postings = new HashMap<>();
+    private boolean sortedByTime = true;
+
+    synchronized void add(String channelId, IndexedMessage message) {
+        int docId = docs.size();
+        if (docId > 0 && docs.get(docId - 1).timestamp() > message.timestamp()) {
+            sortedByTime = false;
+        }
+        docs.add(message);
+        for (String term : Tokenizer.tokens(message.body())) {
+            postings.computeIfAbsent(IndexSource.key(channelId, term), key -> new IntList()).add(docId);
+        }
+    }
+
+    synchronized int size() {
+        return docs.size();
+    }
+
+    // Lists only grow by appending into spare capacity or into a new array, so the docs below the size read here
+    // never change and are iterated without holding the lock or copying them
+    @Override
+    public DocIterator postings(String key) {
+        int[] values;
+        int size;
+        synchronized (this) {
+            IntList list = postings.get(key);
+            if (list == null) {
+                return Postings.NONE;
+            }
+            values = list.values;
+            size = list.size;
+        }
+        return Postings.over(values, size);
+    }
+
+    @Override
+    public synchronized IndexedMessage doc(int docId) {
+        return docs.get(docId);
+    }
+
+    // Messages from different partitions can arrive slightly out of time order
+    @Override
+    public synchronized boolean timeOrdered() {
+        return sortedByTime;
+    }
+
+    // Called once the table no longer receives messages. Docs are renumbered in time order, as segments require.
+    void writeSegment(Path file) throws IOException {
+        int[] order = new int[docs.size()];
+        int[] newIds = new int[docs.size()];
+        Integer[] boxed = new Integer[docs.size()];
+        for (int i = 0; i < boxed.length; i++) {
+            boxed[i] = i;
+        }
+        if (!sortedByTime) {
+            Arrays.sort(boxed, Comparator.comparingLong(docId -> docs.get(docId).timestamp()));
+        }
+        for (int newId = 0; newId < boxed.length; newId++) {
+            order[newId] = boxed[newId];
+            newIds[boxed[newId]] = newId;
+        }
+
+        List<byte[]> keys = new ArrayList<>(postings.size());
+        Map<String, IntList> byKey = postings;
+        List<String> keyStrings = new ArrayList<>(byKey.keySet());
+        for (String key : keyStrings) {
+            keys.add(key.getBytes(UTF_8));
+        }
+        Integer[] termOrder = new Integer[keys.size()];
+        for (int i = 0; i < termOrder.length; i++) {
+            termOrder[i] = i;
+        }
+        Arrays.sort(termOrder, (a, b) -> Arrays.compareUnsigned(keys.get(a), keys.get(b)));
+
+        Iterator<SegmentWriter.Term> terms = new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < termOrder.length;
+            }
+
+            @Override
+            public SegmentWriter.Term next() {
+                int term = termOrder[next++];
+                int[] docIds = byKey.get(keyStrings.get(term)).toArray();
+                for (int i = 0; i < docIds.length; i++) {
+                    docIds[i] = newIds[docIds[i]];
+                }
+                if (!sortedByTime) {
+                    Arrays.sort(docIds);
+                }
+                return new SegmentWriter.Term(keys.get(term), docIds);
+            }
+        };
+        SegmentWriter.write(file, docs.size(), newId -> docs.get(order[newId]), terms);
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
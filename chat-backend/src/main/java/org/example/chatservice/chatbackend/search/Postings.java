@@ -0,0 +1,252 @@
+package org.example.chatservice.chatbackend.search;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Postings lists are ascending doc ids, stored as varint-encoded gaps in blocks of {@link #BLOCK_SIZE} docs.
+ * Lists longer than one block start with a skip table holding the last doc id and data offset of every block, so
+ * {@link DocIterator#advance} jumps straight to the block that can contain its target.
+ */
+final class Postings {
+    static final int[] EMPTY = new int[0];
+    static final int BLOCK_SIZE = 128;
+    static final int SKIP_ENTRY_BYTES = 2 * Integer.BYTES;
+    static final DocIterator NONE = new ArrayDocs(EMPTY, 0);
+
+    private Postings() {
+        // private constructor to prevent instantiation
+    }
+
+    static byte[] encode(int[] docIds) {
+        int blocks = blockCount(docIds.length);
+        int[] lastDocs = new int[blocks];
+        int[] offsets = new int[blocks];
+        ByteArrayOutputStream data = new ByteArrayOutputStream(docIds.length * 2);
+        int previous = 0;
+        for (int i = 0; i < docIds.length; i++) {
+            if (i % BLOCK_SIZE == 0) {
+                offsets[i / BLOCK_SIZE] = data.size();
+            }
+            int docId = docIds[i];
+            int gap = docId - previous;
+            previous = docId;
+            while ((gap & ~0x7F) != 0) {
+                data.write((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            data.write(gap);
+            lastDocs[i / BLOCK_SIZE] = docId;
+        }
+        if (!hasSkips(docIds.length)) {
+            return data.toByteArray();
+        }
+        ByteBuffer out = ByteBuffer.allocate(blocks * SKIP_ENTRY_BYTES + data.size());
+        for (int block = 0; block < blocks; block++) {
+            out.putInt(lastDocs[block]).putInt(offsets[block]);
+        }
+        out.put(data.toByteArray());
+        return out.array();
+    }
+
+    static int blockCount(int count) {
+        return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    static boolean hasSkips(int count) {
+        return count > BLOCK_SIZE;
+    }
+
+    // Decodes a whole list; position is the start of the gaps, after any skip table
+    static int[] decode(ByteBuffer buffer, int position, int count) {
+        int[] docIds = new int[count];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += gap;
+            docIds[i] = previous;
+        }
+        return docIds;
+    }
+
+    // The first size docs of the array, which must not change while the iterator is used
+    static DocIterator over(int[] docIds, int size) {
+        return size == 0 ? NONE : new ArrayDocs(docIds, size);
+    }
+
+    // An encoded list starting at position; skips tells whether the format puts skip tables in front of long lists
+    static DocIterator reader(ByteBuffer buffer, int position, int count, boolean skips) {
+        return count == 0 ? NONE : new EncodedDocs(buffer, position, count, skips);
+    }
+
+    // Docs in all lists. Lists are sorted rarest first: the rarest one proposes candidates and the others only
+    // advance to them, so work follows the shortest list rather than the longest.
+    static int[] intersect(DocIterator[] lists) {
+        DocIterator lead = lists[0];
+        int[] result = new int[lead.cost()];
+        int size = 0;
+        int doc = lead.nextDoc();
+        candidates:
+        while (doc != DocIterator.NO_MORE_DOCS) {
+            for (int i = 1; i < lists.length; i++) {
+                DocIterator other = lists[i];
+                int otherDoc = other.docId() < doc ? other.advance(doc) : other.docId();
+                if (otherDoc > doc) {
+                    doc = lead.advance(otherDoc);
+                    continue candidates;
+                }
+            }
+            result[size++] = doc;
+            doc = lead.nextDoc();
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private static final class ArrayDocs implements DocIterator {
+        private final int[] docIds;
+        private final int size;
+        private int index = -1;
+        private int docId = -1;
+
+        private ArrayDocs(int[] docIds, int size) {
+            this.docIds = docIds;
+            this.size = size;
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        @Override
+        public int nextDoc() {
+            return docId = ++index < size ? docIds[index] : NO_MORE_DOCS;
+        }
+
+        // Gallops to a range ending at or beyond target, then binary searches it
+        @Override
+        public int advance(int target) {
+            int low = index + 1;
+            int high = low;
+            int step = 1;
+            while (high < size && docIds[high] < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, size - 1);
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (docIds[middle] < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            index = low;
+            return docId = index < size ? docIds[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int cost() {
+            return size;
+        }
+    }
+
+    private static final class EncodedDocs implements DocIterator {
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int blocks;
+        private final int skipsPosition;
+        private final int dataPosition;
+        private int index = -1;
+        private int position;
+        // Gaps are relative to the previous doc, which is 0 before the first
+        private int previous;
+        private int docId = -1;
+
+        private EncodedDocs(ByteBuffer buffer, int position, int count, boolean skips) {
+            this.buffer = buffer;
+            this.count = count;
+            this.blocks = skips && hasSkips(count) ? blockCount(count) : 0;
+            this.skipsPosition = position;
+            this.dataPosition = position + blocks * SKIP_ENTRY_BYTES;
+            this.position = dataPosition;
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        @Override
+        public int nextDoc() {
+            if (++index >= count) {
+                index = count;
+                return docId = NO_MORE_DOCS;
+            }
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += gap;
+            return docId = previous;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (target == NO_MORE_DOCS) {
+                index = count;
+                return docId = NO_MORE_DOCS;
+            }
+            if (blocks > 0) {
+                int current = Math.max(index, 0) / BLOCK_SIZE;
+                if (lastDoc(current) < target) {
+                    int low = current + 1;
+                    int high = blocks - 1;
+                    while (low <= high) {
+                        int middle = (low + high) >>> 1;
+                        if (lastDoc(middle) < target) {
+                            low = middle + 1;
+                        } else {
+                            high = middle - 1;
+                        }
+                    }
+                    if (low == blocks) {
+                        index = count;
+                        return docId = NO_MORE_DOCS;
+                    }
+                    // Continue right before the first doc of the block
+                    index = low * BLOCK_SIZE - 1;
+                    previous = lastDoc(low - 1);
+                    position = dataPosition + buffer.getInt(skipsPosition + low * SKIP_ENTRY_BYTES + Integer.BYTES);
+                }
+            }
+            while (docId < target) {
+                nextDoc();
+            }
+            return docId;
+        }
+
+        @Override
+        public int cost() {
+            return count;
+        }
+
+        private int lastDoc(int block) {
+            return buffer.getInt(skipsPosition + block * SKIP_ENTRY_BYTES);
+        }
+    }
+}
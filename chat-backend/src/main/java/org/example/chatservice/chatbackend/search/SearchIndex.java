@@ -0,0 +1,397 @@
+package org.example.chatservice.chatbackend.search;
+
+import com.example.chat.proto.ChatMessage;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Full-text index over chat messages, fed incrementally from chat-stream. New messages go to an in-memory
+ * table that is flushed to an immutable, memory-mapped segment on local disk when full or periodically;
+ * a background task merges the smallest segments once there are too many. A manifest lists the live segments
+ * together with the chat-stream positions they cover, so after a restart indexing resumes from there.
+ * Queries match all terms within one channel and return the newest matches first.
+ */
+@Component
+public class SearchIndex {
+    private static final Logger log = LoggerFactory.getLogger(SearchIndex.class.getSimpleName());
+    private static final String TOPIC = "chat-stream";
+    private static final int MANIFEST_MAGIC = 0x4348534D;
+    private static final int MANIFEST_VERSION = 1;
+    private static final String MANIFEST = "manifest";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int memtableMaxDocs;
+    private final int maxSegments;
+    private final int mergeFactor;
+    private final ExecutorService maintenance = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "search-index-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<TopicPartition, Long> restoredPositions = new HashMap<>();
+
+    // Guarded by this
+    private MemTable active = new MemTable();
+    private final Map<TopicPartition, Long> activePositions = new HashMap<>();
+    private List<IndexSource> frozen = List.of();
+    private MemTable flushing;
+    private List<Segment> segments = List.of();
+    private boolean flushQueued;
+
+    // Only used on the maintenance thread
+    private Map<TopicPartition, Long> flushingPositions;
+    private Map<TopicPartition, Long> persistedPositions = Map.of();
+    private long nextSegmentId;
+
+    public SearchIndex(@Value("${search.enabled:true}") boolean enabled,
+                       @Value("${search.path:data/search}") String path,
+                       @Value("${search.memtable.max-docs:50000}") int memtableMaxDocs,
+                       @Value("${search.merge.max-segments:8}") int maxSegments,
+                       @Value("${search.merge.factor:4}") int mergeFactor) throws IOException {
+        this.enabled = enabled;
+        this.directory = Paths.get(path);
+        this.memtableMaxDocs = memtableMaxDocs;
+        this.maxSegments = maxSegments;
+        this.mergeFactor = Math.max(2, mergeFactor);
+        if (enabled) {
+            Files.createDirectories(directory);
+            restore();
+        }
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    // Next chat-stream offset to index for the partition, null to start from the beginning
+    public Long restoredPosition(TopicPartition topicPartition) {
+        return restoredPositions.get(topicPartition);
+    }
+
+    public void index(int partition, long offset, ChatMessage message) {
+        if (!enabled) {
+            return;
+        }
+        boolean queueFlush = false;
+        synchronized (this) {
+            active.add(message.getChannel().getChannelId(), new IndexedMessage(
+                    message.getMessageId(), message.getSender().getUserId(), message.getBody(), message.getTimeStamp()));
+            activePositions.put(new TopicPartition(TOPIC, partition), offset + 1);
+            if (active.size() >= memtableMaxDocs && !flushQueued) {
+                flushQueued = true;
+                queueFlush = true;
+            }
+        }
+        if (queueFlush) {
+            maintenance.execute(this::flush);
+        }
+    }
+
+    // Records that carry nothing to index still advance the position
+    public synchronized void skip(int partition, long offset) {
+        activePositions.put(new TopicPartition(TOPIC, partition), offset + 1);
+    }
+
+    // Newest first, at most limit messages of the channel containing every term of the query
+    public List<IndexedMessage> search(String channelId, String query, int limit) {
+        Set<String> terms = Tokenizer.tokens(query);
+        if (!enabled || terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        List<IndexSource> sources;
+        synchronized (this) {
+            sources = new ArrayList<>(frozen.size() + 1);
+            sources.addAll(frozen);
+            sources.add(active);
+        }
+
+        PriorityQueue<IndexedMessage> newest = new PriorityQueue<>(Comparator.comparingLong(IndexedMessage::timestamp));
+        Set<String> seen = new HashSet<>();
+        for (IndexSource source : sources) {
+            int[] matches = matches(source, channelId, terms);
+            boolean timeOrdered = source.timeOrdered();
+            int from = timeOrdered ? Math.max(0, matches.length - limit) : 0;
+            for (int i = matches.length - 1; i >= from; i--) {
+                IndexedMessage message = source.doc(matches[i]);
+                if (newest.size() == limit && message.timestamp() <= newest.peek().timestamp()) {
+                    if (timeOrdered) {
+                        break;
+                    }
+                    continue;
+                }
+                if (seen.add(message.messageId())) {
+                    newest.add(message);
+                    if (newest.size() > limit) {
+                        seen.remove(newest.poll().messageId());
+                    }
+                }
+            }
+        }
+        List<IndexedMessage> results = new ArrayList<>(newest);
+        results.sort(Comparator.comparingLong(IndexedMessage::timestamp).reversed());
+        return results;
+    }
+
+    // Docs of the source containing every term. The rarest term's list drives the intersection, the others advance
+    // to its candidates and skip the blocks in between.
+    private static int[] matches(IndexSource source, String channelId, Set<String> terms) {
+        DocIterator[] lists = new DocIterator[terms.size()];
+        int i = 0;
+        for (String term : terms) {
+            DocIterator list = source.postings(IndexSource.key(channelId, term));
+            if (list.cost() == 0) {
+                return Postings.EMPTY;
+            }
+            lists[i++] = list;
+        }
+        Arrays.sort(lists, Comparator.comparingInt(DocIterator::cost));
+        return Postings.intersect(lists);
+    }
+
+    @Scheduled(initialDelayString = "${search.flush-interval-ms:30000}", fixedDelayString = "${search.flush-interval-ms:30000}")
+    public void scheduledFlush() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            if (flushQueued) {
+                return;
+            }
+            flushQueued = true;
+        }
+        maintenance.execute(this::flush);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (enabled) {
+            maintenance.execute(this::flush);
+        }
+        maintenance.shutdown();
+        maintenance.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private void flush() {
+        synchronized (this) {
+            flushQueued = false;
+            // A table whose flush failed is retried before the active one is frozen
+            if (flushing == null) {
+                if (active.size() == 0) {
+                    return;
+                }
+                flushing = active;
+                flushingPositions = new HashMap<>(activePositions);
+                active = new MemTable();
+                publish();
+            }
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Path file = directory.resolve(String.format("%012d%s", nextSegmentId++, SEGMENT_SUFFIX));
+            flushing.writeSegment(file);
+            Segment segment = Segment.open(file);
+            List<Segment> updated = new ArrayList<>(segments);
+            updated.add(segment);
+            writeManifest(updated, flushingPositions);
+            synchronized (this) {
+                segments = List.copyOf(updated);
+                flushing = null;
+                publish();
+            }
+            persistedPositions = flushingPositions;
+            log.info("Flushed search segment {} with {} messages in {} ms",
+                    file.getFileName(), segment.docCount(), System.currentTimeMillis() - start);
+            merge();
+        } catch (IOException | RuntimeException e) {
+            log.error("Search index flush failed, keeping the messages in memory: {}", e.getMessage(), e);
+        }
+    }
+
+    // Merges the smallest segments until at most maxSegments remain
+    private void merge() throws IOException {
+        while (segments.size() > maxSegments) {
+            List<Segment> bySize = new ArrayList<>(segments);
+            bySize.sort(Comparator.comparingLong(Segment::sizeBytes));
+            List<Segment> candidates = List.copyOf(bySize.subList(0, Math.min(mergeFactor, bySize.size())));
+            long bytes = 0;
+            int docs = 0;
+            for (Segment candidate : candidates) {
+                bytes += candidate.sizeBytes();
+                docs += candidate.docCount();
+            }
+            if (bytes > SegmentWriter.MAX_SEGMENT_BYTES) {
+                log.warn("Not merging {} search segments, the result would exceed the segment size limit", candidates.size());
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            Path file = directory.resolve(String.format("%012d%s", nextSegmentId++, SEGMENT_SUFFIX));
+            SegmentMerger.merge(candidates, file);
+            Segment merged = Segment.open(file);
+            List<Segment> updated = new ArrayList<>(segments);
+            updated.removeAll(candidates);
+            updated.add(merged);
+            writeManifest(updated, persistedPositions);
+            synchronized (this) {
+                segments = List.copyOf(updated);
+                publish();
+            }
+            // Searches still holding the old segments keep reading their mappings
+            for (Segment candidate : candidates) {
+                Files.deleteIfExists(candidate.file());
+            }
+            log.info("Merged {} search segments with {} messages into {} in {} ms",
+                    candidates.size(), docs, file.getFileName(), System.currentTimeMillis() - start);
+        }
+    }
+
+    private void publish() {
+        List<IndexSource> sources = new ArrayList<>(segments);
+        if (flushing != null) {
+            sources.add(flushing);
+        }
+        frozen = List.copyOf(sources);
+    }
+
+    private void writeManifest(List<Segment> live, Map<TopicPartition, Long> positions) throws IOException {
+        Path manifest = directory.resolve(MANIFEST);
+        Path temp = Files.createTempFile(directory, MANIFEST, ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc)))) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeInt(MANIFEST_VERSION);
+            out.writeLong(nextSegmentId);
+            out.writeInt(live.size());
+            for (Segment segment : live) {
+                writeString(out, segment.file().getFileName().toString());
+            }
+            out.writeInt(positions.size());
+            for (Map.Entry<TopicPartition, Long> position : positions.entrySet()) {
+                writeString(out, position.getKey().topic());
+                out.writeInt(position.getKey().partition());
+                out.writeLong(position.getValue());
+            }
+            out.flush();
+            file.write(ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue()).array());
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Loads the manifest and its segments. Anything unreadable discards the whole index, which is then rebuilt
+    // from the beginning of chat-stream.
+    private void restore() throws IOException {
+        Path manifest = directory.resolve(MANIFEST);
+        List<Segment> restored = new ArrayList<>();
+        Set<Path> live = new HashSet<>();
+        if (Files.exists(manifest)) {
+            try (FileChannel channel = FileChannel.open(manifest, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int bodyLength = buffer.limit() - Long.BYTES;
+                CRC32 crc = new CRC32();
+                crc.update(buffer.slice(0, bodyLength));
+                if (buffer.getInt(0) != MANIFEST_MAGIC || buffer.getInt(Integer.BYTES) != MANIFEST_VERSION
+                        || crc.getValue() != buffer.getLong(bodyLength)) {
+                    throw new IOException("invalid manifest");
+                }
+                buffer.position(2 * Integer.BYTES);
+                long segmentId = buffer.getLong();
+                int segmentCount = buffer.getInt();
+                for (int i = 0; i < segmentCount; i++) {
+                    Path file = directory.resolve(readString(buffer));
+                    restored.add(Segment.open(file));
+                    live.add(file);
+                }
+                Map<TopicPartition, Long> positions = new HashMap<>();
+                int positionCount = buffer.getInt();
+                for (int i = 0; i < positionCount; i++) {
+                    String topic = readString(buffer);
+                    int partition = buffer.getInt();
+                    positions.put(new TopicPartition(topic, partition), buffer.getLong());
+                }
+                nextSegmentId = segmentId;
+                restoredPositions.putAll(positions);
+                persistedPositions = positions;
+                activePositions.putAll(positions);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Discarding search index in {}, it is rebuilt from chat-stream: {}", directory, e.getMessage());
+                restored.clear();
+                live.clear();
+                restoredPositions.clear();
+                persistedPositions = Map.of();
+                activePositions.clear();
+                nextSegmentId = 0;
+            }
+        }
+        // Leftovers of interrupted flushes and merges
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (!live.contains(file) && !file.equals(manifest)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        if (live.isEmpty()) {
+            Files.deleteIfExists(manifest);
+        }
+        segments = List.copyOf(restored);
+        publish();
+        long docs = 0;
+        for (Segment segment : segments) {
+            docs += segment.docCount();
+        }
+        log.info("Search index opened with {} segments and {} messages", segments.size(), docs);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,158 @@
+package org.example.chatservice.chatbackend.search;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Immutable, memory-mapped segment written by {@link SegmentWriter}. Term lookups binary search the term
+ * offset table directly in the mapped file, so opening a segment costs no heap beyond the checksum pass.
+ * All reads use absolute positions and are safe from any thread.
+ */
+final class Segment implements IndexSource {
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int docOffsetsPosition;
+    private final int docCount;
+    private final int termOffsetsPosition;
+    private final int termCount;
+    // Format 1 segments have no skip tables
+    private final boolean skips;
+
+    private Segment(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        int limit = buffer.limit();
+        if (limit < 2 * Integer.BYTES + SegmentWriter.FOOTER_BYTES + Long.BYTES || buffer.getInt(0) != SegmentWriter.MAGIC) {
+            throw new IOException("not a segment file");
+        }
+        int version = buffer.getInt(Integer.BYTES);
+        if (version != 1 && version != SegmentWriter.FORMAT_VERSION) {
+            throw new IOException("unsupported format version " + version);
+        }
+        this.skips = version >= 2;
+        int bodyLength = limit - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, bodyLength));
+        if (crc.getValue() != buffer.getLong(bodyLength)) {
+            throw new IOException("checksum mismatch");
+        }
+        int footer = bodyLength - SegmentWriter.FOOTER_BYTES;
+        this.docOffsetsPosition = buffer.getInt(footer);
+        this.docCount = buffer.getInt(footer + Integer.BYTES);
+        this.termOffsetsPosition = buffer.getInt(footer + 2 * Integer.BYTES);
+        this.termCount = buffer.getInt(footer + 3 * Integer.BYTES);
+    }
+
+    static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long sizeBytes() {
+        return buffer.limit();
+    }
+
+    int docCount() {
+        return docCount;
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    @Override
+    public DocIterator postings(String key) {
+        byte[] bytes = key.getBytes(UTF_8);
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = compareKey(termPosition(middle), bytes);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                int position = postingsPosition(middle);
+                return Postings.reader(buffer, position + 2 * Integer.BYTES, buffer.getInt(position), skips);
+            }
+        }
+        return Postings.NONE;
+    }
+
+    @Override
+    public IndexedMessage doc(int docId) {
+        int position = docPosition(docId);
+        long timestamp = buffer.getLong(position);
+        position += Long.BYTES;
+        String messageId = readString(position);
+        position += Integer.BYTES + buffer.getInt(position);
+        String senderId = readString(position);
+        position += Integer.BYTES + buffer.getInt(position);
+        String body = readString(position);
+        return new IndexedMessage(messageId, senderId, body, timestamp);
+    }
+
+    long timestamp(int docId) {
+        return buffer.getLong(docPosition(docId));
+    }
+
+    byte[] keyAt(int term) {
+        int position = termPosition(term);
+        byte[] key = new byte[buffer.getInt(position)];
+        buffer.get(position + Integer.BYTES, key);
+        return key;
+    }
+
+    int[] postingsAt(int term) {
+        int position = postingsPosition(term);
+        int count = buffer.getInt(position);
+        int skipBytes = skips && Postings.hasSkips(count) ? Postings.blockCount(count) * Postings.SKIP_ENTRY_BYTES : 0;
+        return Postings.decode(buffer, position + 2 * Integer.BYTES + skipBytes, count);
+    }
+
+    // Position of the term's doc count, followed by the postings length and the postings
+    private int postingsPosition(int term) {
+        int position = termPosition(term);
+        return position + Integer.BYTES + buffer.getInt(position);
+    }
+
+    private int docPosition(int docId) {
+        return buffer.getInt(docOffsetsPosition + docId * Integer.BYTES);
+    }
+
+    private int termPosition(int term) {
+        return buffer.getInt(termOffsetsPosition + term * Integer.BYTES);
+    }
+
+    // Unsigned byte comparison of the stored key at position with the given key
+    private int compareKey(int position, byte[] key) {
+        int length = buffer.getInt(position);
+        position += Integer.BYTES;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.compareUnsigned(buffer.get(position + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private String readString(int position) {
+        byte[] bytes = new byte[buffer.getInt(position)];
+        buffer.get(position + Integer.BYTES, bytes);
+        return new String(bytes, UTF_8);
+    }
+}
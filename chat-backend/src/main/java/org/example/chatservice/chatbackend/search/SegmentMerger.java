@@ -0,0 +1,111 @@
+package org.example.chatservice.chatbackend.search;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges segments into one. Docs are interleaved by message time and renumbered, and the sorted term
+ * dictionaries are merged key by key, so the result keeps the segment ordering guarantees.
+ */
+final class SegmentMerger {
+
+    private SegmentMerger() {
+        // private constructor to prevent instantiation
+    }
+
+    static void merge(List<Segment> segments, Path file) throws IOException {
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.docCount();
+        }
+
+        // Interleave docs by time; sourceSegment/sourceDoc give the origin of every new doc id
+        int[] sourceSegment = new int[total];
+        int[] sourceDoc = new int[total];
+        int[][] newIds = new int[segments.size()][];
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Comparator.comparingLong(
+                (int[] head) -> segments.get(head[0]).timestamp(head[1])).thenComparingInt(head -> head[0]));
+        for (int i = 0; i < segments.size(); i++) {
+            newIds[i] = new int[segments.get(i).docCount()];
+            if (segments.get(i).docCount() > 0) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        for (int newId = 0; newId < total; newId++) {
+            int[] head = heads.poll();
+            sourceSegment[newId] = head[0];
+            sourceDoc[newId] = head[1];
+            newIds[head[0]][head[1]] = newId;
+            if (++head[1] < segments.get(head[0]).docCount()) {
+                heads.add(head);
+            }
+        }
+
+        SegmentWriter.write(file, total,
+                newId -> segments.get(sourceSegment[newId]).doc(sourceDoc[newId]),
+                new MergedTerms(segments, newIds));
+    }
+
+    private static final class MergedTerms implements Iterator<SegmentWriter.Term> {
+        private final List<Segment> segments;
+        private final int[][] newIds;
+        private final PriorityQueue<Cursor> cursors = new PriorityQueue<>((a, b) -> Arrays.compareUnsigned(a.key, b.key));
+
+        private MergedTerms(List<Segment> segments, int[][] newIds) {
+            this.segments = segments;
+            this.newIds = newIds;
+            for (int i = 0; i < segments.size(); i++) {
+                if (segments.get(i).termCount() > 0) {
+                    cursors.add(new Cursor(i, 0, segments.get(i).keyAt(0)));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !cursors.isEmpty();
+        }
+
+        @Override
+        public SegmentWriter.Term next() {
+            if (cursors.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            byte[] key = cursors.peek().key;
+            List<int[]> parts = new ArrayList<>();
+            int size = 0;
+            while (!cursors.isEmpty() && Arrays.equals(cursors.peek().key, key)) {
+                Cursor cursor = cursors.poll();
+                int[] docIds = segments.get(cursor.segment).postingsAt(cursor.term);
+                for (int i = 0; i < docIds.length; i++) {
+                    docIds[i] = newIds[cursor.segment][docIds[i]];
+                }
+                parts.add(docIds);
+                size += docIds.length;
+                if (cursor.term + 1 < segments.get(cursor.segment).termCount()) {
+                    cursors.add(new Cursor(cursor.segment, cursor.term + 1, segments.get(cursor.segment).keyAt(cursor.term + 1)));
+                }
+            }
+            int[] merged = new int[size];
+            int position = 0;
+            for (int[] part : parts) {
+                System.arraycopy(part, 0, merged, position, part.length);
+                position += part.length;
+            }
+            if (parts.size() > 1) {
+                Arrays.sort(merged);
+            }
+            return new SegmentWriter.Term(key, merged);
+        }
+    }
+
+    private record Cursor(int segment, int term, byte[] key) {
+    }
+}
@@ -0,0 +1,120 @@
+package org.example.chatservice.chatbackend.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes an immutable segment file:
+ * header (magic, version), stored docs, doc offset table, terms sorted by unsigned key bytes with their
+ * compressed postings (see {@link Postings}), term offset table, footer (section offsets and counts) and a CRC32 trailer over
+ * everything before it.
+ */
+final class SegmentWriter {
+    static final int MAGIC = 0x43485358;
+    // 2 added skip tables to postings lists longer than one block
+    static final int FORMAT_VERSION = 2;
+    static final int FOOTER_BYTES = 4 * Integer.BYTES;
+    // Segments are mapped as a single buffer
+    static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE - (1 << 20);
+
+    record Term(byte[] key, int[] docIds) {
+    }
+
+    private SegmentWriter() {
+        // private constructor to prevent instantiation
+    }
+
+    // Docs must be supplied in time order and terms in ascending unsigned key order
+    static void write(Path file, int docCount, IntFunction<IndexedMessage> docs, Iterator<Term> terms) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream stream = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(stream, crc), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            int[] docOffsets = new int[docCount];
+            for (int docId = 0; docId < docCount; docId++) {
+                docOffsets[docId] = position(out);
+                IndexedMessage doc = docs.apply(docId);
+                out.writeLong(doc.timestamp());
+                writeString(out, doc.messageId());
+                writeString(out, doc.senderId());
+                writeString(out, doc.body());
+            }
+            int docOffsetsPosition = position(out);
+            for (int offset : docOffsets) {
+                out.writeInt(offset);
+            }
+
+            IntArray termOffsets = new IntArray();
+            while (terms.hasNext()) {
+                Term term = terms.next();
+                termOffsets.add(position(out));
+                out.writeInt(term.key().length);
+                out.write(term.key());
+                byte[] postings = Postings.encode(term.docIds());
+                out.writeInt(term.docIds().length);
+                out.writeInt(postings.length);
+                out.write(postings);
+            }
+            int termOffsetsPosition = position(out);
+            for (int i = 0; i < termOffsets.size; i++) {
+                out.writeInt(termOffsets.values[i]);
+            }
+
+            out.writeInt(docOffsetsPosition);
+            out.writeInt(docCount);
+            out.writeInt(termOffsetsPosition);
+            out.writeInt(termOffsets.size);
+            out.flush();
+            stream.write(ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue()).array());
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int position(DataOutputStream out) throws IOException {
+        int position = out.size();
+        // DataOutputStream.size() saturates at Integer.MAX_VALUE
+        if (position >= MAX_SEGMENT_BYTES) {
+            throw new IOException("Segment exceeds " + MAX_SEGMENT_BYTES + " bytes");
+        }
+        return position;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static final class IntArray {
+        private int[] values = new int[1024];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.chatservice.chatbackend.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits text into lower-cased runs of letters and digits. Messages and queries go through the same tokenizer,
+ * so matching is case-insensitive and ignores punctuation.
+ */
+public final class Tokenizer {
+    static final int MAX_TOKEN_LENGTH = 64;
+
+    private Tokenizer() {
+        // private constructor to prevent instantiation
+    }
+
+    // Distinct tokens in order of first appearance
+    public static Set<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TOKEN_LENGTH) {
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,180 @@
+package org.example.chatservice.chatbackend.streams;
+
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.KeyQueryMetadata;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StoreQueryParameters;
+import org.apache.kafka.streams.StreamsMetadata;
+import org.apache.kafka.streams.errors.InvalidStateStoreException;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.state.HostInfo;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.QueryableStoreTypes;
+import org.apache.kafka.streams.state.ReadOnlyWindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.kafka.config.StreamsBuilderFactoryBean;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Interactive queries over the {@link ActivityTopology} stores. Every instance of the application holds the
+ * windows of the partitions assigned to it: a query for one channel or user is answered by the instance owning
+ * its key, asking it over HTTP if that is another one, and top channels are merged from all instances.
+ * Requests with {@code local} set are answered from this instance's stores only, that is how instances ask
+ * each other.
+ */
+@Service
+public class ActivityQueries {
+    private static final String ACTIVITY_PATH = "/api/v1/activity";
+    private final StreamsBuilderFactoryBean streamsFactory;
+    private final RestClient restClient;
+    private final HostInfo self;
+
+    public ActivityQueries(StreamsBuilderFactoryBean streamsFactory, RestClient.Builder restClientBuilder,
+                           @Value("${activity.advertised-host:localhost}") String advertisedHost,
+                           @Value("${server.port:8080}") int port) {
+        this.streamsFactory = streamsFactory;
+        this.restClient = restClientBuilder.build();
+        this.self = new HostInfo(advertisedHost, port);
+    }
+
+    public record MinuteCount(long minute, long count) {
+    }
+
+    public record ChannelActivity(String channelId, List<MinuteCount> messagesPerMinute, long messages, int activeSenders) {
+    }
+
+    public record UserActivity(String userId, List<MinuteCount> messagesPerMinute, long messages) {
+    }
+
+    public record ChannelCount(String channelId, long messages) {
+    }
+
+    // Throws InvalidStateStoreException while the stores are not queryable, e.g. during a rebalance
+    public ChannelActivity channelActivity(String channelId, int minutes, boolean local) {
+        HostInfo owner = local ? self : owner(ActivityTopology.CHANNEL_MESSAGES_STORE, channelId);
+        if (!owner.equals(self)) {
+            return remote(owner, "/channel/" + channelId + "?minutes=" + minutes, ChannelActivity.class);
+        }
+        Instant from = windowStart(minutes);
+        Instant to = Instant.now();
+        List<MinuteCount> perMinute = perMinute(ActivityTopology.CHANNEL_MESSAGES_STORE, channelId, from, to);
+        Set<String> senders = new HashSet<>();
+        ReadOnlyWindowStore<String, Set<String>> sendersStore = store(ActivityTopology.CHANNEL_SENDERS_STORE);
+        try (WindowStoreIterator<Set<String>> windows = sendersStore.fetch(channelId, from, to)) {
+            windows.forEachRemaining(window -> senders.addAll(window.value));
+        }
+        return new ChannelActivity(channelId, perMinute, total(perMinute), senders.size());
+    }
+
+    public UserActivity userActivity(String userId, int minutes, boolean local) {
+        HostInfo owner = local ? self : owner(ActivityTopology.USER_MESSAGES_STORE, userId);
+        if (!owner.equals(self)) {
+            return remote(owner, "/user/" + userId + "?minutes=" + minutes, UserActivity.class);
+        }
+        List<MinuteCount> perMinute = perMinute(ActivityTopology.USER_MESSAGES_STORE, userId, windowStart(minutes), Instant.now());
+        return new UserActivity(userId, perMinute, total(perMinute));
+    }
+
+    // Channels partition the store, so the instances' top lists are disjoint and merge by concatenation
+    public List<ChannelCount> topChannels(int minutes, int limit, boolean local) {
+        if (local) {
+            return localTopChannels(minutes, limit);
+        }
+        List<ChannelCount> merged = new ArrayList<>();
+        for (StreamsMetadata instance : streams().streamsMetadataForStore(ActivityTopology.CHANNEL_MESSAGES_STORE)) {
+            if (instance.hostInfo().equals(self)) {
+                merged.addAll(localTopChannels(minutes, limit));
+            } else {
+                merged.addAll(remote(instance.hostInfo(), "/channels/top?minutes=" + minutes + "&limit=" + limit,
+                        new ParameterizedTypeReference<List<ChannelCount>>() {}));
+            }
+        }
+        return top(merged, limit);
+    }
+
+    private List<ChannelCount> localTopChannels(int minutes, int limit) {
+        Map<String, Long> totals = new HashMap<>();
+        ReadOnlyWindowStore<String, Long> store = store(ActivityTopology.CHANNEL_MESSAGES_STORE);
+        try (KeyValueIterator<Windowed<String>, Long> windows = store.fetchAll(windowStart(minutes), Instant.now())) {
+            windows.forEachRemaining(window -> totals.merge(window.key.key(), window.value, Long::sum));
+        }
+        List<ChannelCount> counts = new ArrayList<>(totals.size());
+        totals.forEach((channelId, messages) -> counts.add(new ChannelCount(channelId, messages)));
+        return top(counts, limit);
+    }
+
+    private static List<ChannelCount> top(List<ChannelCount> counts, int limit) {
+        return counts.stream()
+                .sorted(Comparator.comparingLong(ChannelCount::messages).reversed().thenComparing(ChannelCount::channelId))
+                .limit(limit)
+                .toList();
+    }
+
+    private List<MinuteCount> perMinute(String storeName, String key, Instant from, Instant to) {
+        List<MinuteCount> perMinute = new ArrayList<>();
+        ReadOnlyWindowStore<String, Long> store = store(storeName);
+        try (WindowStoreIterator<Long> windows = store.fetch(key, from, to)) {
+            while (windows.hasNext()) {
+                KeyValue<Long, Long> window = windows.next();
+                perMinute.add(new MinuteCount(window.key, window.value));
+            }
+        }
+        return perMinute;
+    }
+
+    private static long total(List<MinuteCount> perMinute) {
+        return perMinute.stream().mapToLong(MinuteCount::count).sum();
+    }
+
+    // Start of the oldest of the last `minutes` windows, the current one included
+    private static Instant windowStart(int minutes) {
+        long window = ActivityTopology.WINDOW.toMillis();
+        long current = System.currentTimeMillis() / window * window;
+        return Instant.ofEpochMilli(current - (long) (minutes - 1) * window);
+    }
+
+    private HostInfo owner(String storeName, String key) {
+        KeyQueryMetadata metadata = streams().queryMetadataForKey(storeName, key, Serdes.String().serializer());
+        if (metadata == null || metadata.equals(KeyQueryMetadata.NOT_AVAILABLE)) {
+            throw new InvalidStateStoreException("No instance hosts " + storeName + " for the key yet");
+        }
+        return metadata.activeHost();
+    }
+
+    private <T> ReadOnlyWindowStore<String, T> store(String storeName) {
+        return streams().store(StoreQueryParameters.fromNameAndType(storeName, QueryableStoreTypes.<String, T>windowStore()));
+    }
+
+    private KafkaStreams streams() {
+        KafkaStreams streams = streamsFactory.getKafkaStreams();
+        if (streams == null || streams.state() != KafkaStreams.State.RUNNING) {
+            throw new InvalidStateStoreException("Activity aggregates are not running yet");
+        }
+        return streams;
+    }
+
+    private <T> T remote(HostInfo host, String pathAndQuery, Class<T> type) {
+        return restClient.get().uri(remoteUri(host, pathAndQuery)).retrieve().body(type);
+    }
+
+    private <T> T remote(HostInfo host, String pathAndQuery, ParameterizedTypeReference<T> type) {
+        return restClient.get().uri(remoteUri(host, pathAndQuery)).retrieve().body(type);
+    }
+
+    private static String remoteUri(HostInfo host, String pathAndQuery) {
+        return "http://" + host.host() + ":" + host.port() + ACTIVITY_PATH + pathAndQuery + "&local=true";
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.chatservice.chatbackend.streams;
+
+import com.example.chat.proto.ChatMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.Grouped;
+import org.apache.kafka.streams.kstream.KGroupedStream;
+import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.Materialized;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.state.WindowStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.EnableKafkaStreams;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Kafka Streams topology over chat-stream keeping one-minute windowed aggregates in local RocksDB stores:
+ * messages per channel, distinct senders per channel and messages per user. Channel stores are partitioned like
+ * chat-stream; the user store is fed through a repartition topic keyed by sender. {@link ActivityQueries}
+ * serves them.
+ */
+@Configuration
+@EnableKafkaStreams
+public class ActivityTopology {
+    private static final Logger log = LoggerFactory.getLogger(ActivityTopology.class.getSimpleName());
+    public static final String CHANNEL_MESSAGES_STORE = "channel-messages-per-minute";
+    public static final String CHANNEL_SENDERS_STORE = "channel-active-senders";
+    public static final String USER_MESSAGES_STORE = "user-messages-per-minute";
+    public static final Duration WINDOW = Duration.ofMinutes(1);
+    private static final String CHAT_TOPIC = "chat-stream";
+
+    @Bean
+    public KStream<String, String> channelActivity(StreamsBuilder builder,
+                                                   @Value("${activity.retention-minutes:1440}") long retentionMinutes,
+                                                   @Value("${activity.grace-seconds:30}") long graceSeconds,
+                                                   @Value("${activity.max-tracked-senders:10000}") int maxTrackedSenders) {
+        TimeWindows minutes = TimeWindows.ofSizeAndGrace(WINDOW, Duration.ofSeconds(graceSeconds));
+        Duration retention = Duration.ofMinutes(retentionMinutes);
+
+        // Channel id to sender id; chat-stream is keyed by channel id, so grouping by key needs no repartition
+        KStream<String, String> senders = builder.stream(CHAT_TOPIC, Consumed.with(Serdes.String(), Serdes.ByteArray()))
+                .filter((channelId, value) -> channelId != null && value != null)
+                .flatMapValues(ActivityTopology::senderOf);
+
+        KGroupedStream<String, String> byChannel = senders.groupByKey(Grouped.with(Serdes.String(), Serdes.String()));
+        byChannel.windowedBy(minutes)
+                .count(Materialized.<String, Long, WindowStore<Bytes, byte[]>>as(CHANNEL_MESSAGES_STORE)
+                        .withKeySerde(Serdes.String())
+                        .withValueSerde(Serdes.Long())
+                        .withRetention(retention));
+        // Past maxTrackedSenders a window's set stops growing, its size is then a lower bound
+        byChannel.windowedBy(minutes)
+                .aggregate(TreeSet::new, (channelId, sender, activeSenders) -> {
+                            if (activeSenders.size() < maxTrackedSenders) {
+                                activeSenders.add(sender);
+                            }
+                            return activeSenders;
+                        },
+                        Materialized.<String, Set<String>, WindowStore<Bytes, byte[]>>as(CHANNEL_SENDERS_STORE)
+                                .withKeySerde(Serdes.String())
+                                .withValueSerde(new SenderSetSerde())
+                                .withRetention(retention));
+
+        senders.map((channelId, sender) -> KeyValue.pair(sender, channelId))
+                .groupByKey(Grouped.with("messages-by-sender", Serdes.String(), Serdes.String()))
+                .windowedBy(minutes)
+                .count(Materialized.<String, Long, WindowStore<Bytes, byte[]>>as(USER_MESSAGES_STORE)
+                        .withKeySerde(Serdes.String())
+                        .withValueSerde(Serdes.Long())
+                        .withRetention(retention));
+        return senders;
+    }
+
+    private static List<String> senderOf(byte[] value) {
+        try {
+            return List.of(ChatMessage.parseFrom(value).getSender().getUserId());
+        } catch (InvalidProtocolBufferException e) {
+            log.error("Skipping unparseable ChatMessage in activity aggregates: {}", e.getMessage());
+            return List.of();
+        }
+    }
+}
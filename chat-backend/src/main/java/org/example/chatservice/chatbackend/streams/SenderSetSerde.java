@@ -0,0 +1,64 @@
+package org.example.chatservice.chatbackend.streams;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serde for the set of user ids that sent messages to a channel within one window: a count followed by
+ * length-prefixed UTF-8 ids.
+ */
+public class SenderSetSerde implements Serde<Set<String>> {
+
+    @Override
+    public Serializer<Set<String>> serializer() {
+        return (topic, senders) -> {
+            if (senders == null) {
+                return null;
+            }
+            byte[][] ids = new byte[senders.size()][];
+            int length = 4;
+            int i = 0;
+            for (String sender : senders) {
+                ids[i] = sender.getBytes(UTF_8);
+                length += 4 + ids[i].length;
+                i++;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.putInt(ids.length);
+            for (byte[] id : ids) {
+                buffer.putInt(id.length).put(id);
+            }
+            return buffer.array();
+        };
+    }
+
+    @Override
+    public Deserializer<Set<String>> deserializer() {
+        return (topic, bytes) -> {
+            if (bytes == null) {
+                return null;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                int count = buffer.getInt();
+                Set<String> senders = new TreeSet<>();
+                for (int i = 0; i < count; i++) {
+                    byte[] id = new byte[buffer.getInt()];
+                    buffer.get(id);
+                    senders.add(new String(id, UTF_8));
+                }
+                return senders;
+            } catch (RuntimeException e) {
+                throw new SerializationException("Malformed sender set", e);
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package org.example.chatservice.chatbackend.websockets;
+
+import com.example.chat.proto.ChatMessage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces chat messages into one array frame per channel per {@code broadcast.batch.window-ms}. A channel's
+ * messages all come from one chat-stream partition, so they arrive from one listener thread in partition order;
+ * they are appended in that order and sent by a single flush thread, so a channel is never reordered. With a
+ * window of 0 each poll is sent right away on the listener thread. Binary channel destinations are coalesced the
+ * same way, from the records' bytes.
+ */
+@Component
+public class BroadcastCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(BroadcastCoalescer.class.getSimpleName());
+    private final WebSocketBroadcastService webSocketBroadcastService;
+    private final long windowMs;
+    // Null with a window of 0
+    private final ScheduledExecutorService flusher;
+    private Map<String, List<ChatMessage>> pending = new LinkedHashMap<>();
+    private Map<String, List<byte[]>> pendingRaw = new LinkedHashMap<>();
+
+    public BroadcastCoalescer(WebSocketBroadcastService webSocketBroadcastService,
+                              @Value("${broadcast.batch.window-ms:50}") long windowMs) {
+        this.webSocketBroadcastService = webSocketBroadcastService;
+        this.windowMs = windowMs;
+        if (windowMs > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "broadcast-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, windowMs, windowMs, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    // Messages and record bytes of one poll by channel destination, each list in partition order
+    public void add(Map<String, List<ChatMessage>> byDestination, Map<String, List<byte[]>> rawByDestination) {
+        if (byDestination.isEmpty() && rawByDestination.isEmpty()) {
+            return;
+        }
+        if (flusher == null) {
+            send(byDestination, rawByDestination);
+            return;
+        }
+        synchronized (this) {
+            byDestination.forEach((destination, messages) ->
+                    pending.computeIfAbsent(destination, id -> new ArrayList<>()).addAll(messages));
+            rawByDestination.forEach((destination, messages) ->
+                    pendingRaw.computeIfAbsent(destination, id -> new ArrayList<>()).addAll(messages));
+        }
+    }
+
+    private void flush() {
+        Map<String, List<ChatMessage>> batch;
+        Map<String, List<byte[]>> rawBatch;
+        synchronized (this) {
+            if (pending.isEmpty() && pendingRaw.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            rawBatch = pendingRaw;
+            pending = new LinkedHashMap<>();
+            pendingRaw = new LinkedHashMap<>();
+        }
+        send(batch, rawBatch);
+    }
+
+    private void send(Map<String, List<ChatMessage>> byDestination, Map<String, List<byte[]>> rawByDestination) {
+        for (Map.Entry<String, List<ChatMessage>> channel : byDestination.entrySet()) {
+            try {
+                webSocketBroadcastService.broadcastMessages(channel.getKey(), channel.getValue());
+            } catch (Exception e) {
+                log.error("Failed to broadcast {} messages to {}: {}",
+                        channel.getValue().size(), channel.getKey(), e.getMessage());
+            }
+        }
+        for (Map.Entry<String, List<byte[]>> channel : rawByDestination.entrySet()) {
+            try {
+                webSocketBroadcastService.broadcastRawMessages(channel.getKey(), channel.getValue());
+            } catch (Exception e) {
+                log.error("Failed to broadcast {} raw messages to {}: {}",
+                        channel.getValue().size(), channel.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(windowMs * 2, TimeUnit.MILLISECONDS);
+            flush();
+        }
+    }
+}
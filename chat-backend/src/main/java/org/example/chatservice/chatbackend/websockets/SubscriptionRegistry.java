@@ -0,0 +1,116 @@
+package org.example.chatservice.chatbackend.websockets;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts the STOMP subscriptions of this node per channel and routes chat-stream records by their key alone:
+ * {@link #routeOf} is one map lookup that yields the channel's destination strings, built once when the channel
+ * gets its first local subscriber in a mode, or null if nobody here is subscribed. Clients pick the mode by
+ * destination: {@code /topic/channel/{channelId}} gets JSON, {@code /topic/channel-bin/{channelId}} gets the
+ * protobuf bytes of the Kafka records.
+ */
+@Component
+public class SubscriptionRegistry {
+    public static final String CHANNEL_TOPIC_PREFIX = "/topic/channel/";
+    public static final String BINARY_CHANNEL_TOPIC_PREFIX = "/topic/channel-bin/";
+    private final Map<String, Interest> channels = new ConcurrentHashMap<>();
+    // Session id to subscription id to subscription, unsubscribe frames only carry the subscription id
+    private final Map<String, Map<String, Subscription>> sessions = new ConcurrentHashMap<>();
+
+    // Destinations of a channel on this node, each null while the mode has no local subscriber
+    public record Route(String destination, String binaryDestination) {
+    }
+
+    private record Interest(Route route, int subscribers, int binarySubscribers) {
+    }
+
+    private record Subscription(String channelId, boolean binary) {
+    }
+
+    public Route routeOf(String channelId) {
+        Interest interest = channels.get(channelId);
+        return interest == null ? null : interest.route;
+    }
+
+    @EventListener
+    public void handleSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        subscribe(headers.getSessionId(), headers.getSubscriptionId(), headers.getDestination());
+    }
+
+    @EventListener
+    public void handleUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        unsubscribe(headers.getSessionId(), headers.getSubscriptionId());
+    }
+
+    // A closed session unsubscribes from everything, whether or not it sent UNSUBSCRIBE frames
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        Map<String, Subscription> subscriptions = sessions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::release);
+        }
+    }
+
+    // Destinations other than the two channel topics are ignored
+    public void subscribe(String sessionId, String subscriptionId, String destination) {
+        if (destination == null || sessionId == null || subscriptionId == null) {
+            return;
+        }
+        Subscription subscription;
+        if (destination.startsWith(CHANNEL_TOPIC_PREFIX)) {
+            subscription = new Subscription(destination.substring(CHANNEL_TOPIC_PREFIX.length()), false);
+        } else if (destination.startsWith(BINARY_CHANNEL_TOPIC_PREFIX)) {
+            subscription = new Subscription(destination.substring(BINARY_CHANNEL_TOPIC_PREFIX.length()), true);
+        } else {
+            return;
+        }
+        channels.compute(subscription.channelId, (channelId, interest) -> adjust(channelId, interest, subscription.binary, 1));
+        Subscription previous = sessions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(subscriptionId, subscription);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    public void unsubscribe(String sessionId, String subscriptionId) {
+        Map<String, Subscription> subscriptions = sessionId == null ? null : sessions.get(sessionId);
+        if (subscriptions == null || subscriptionId == null) {
+            return;
+        }
+        Subscription subscription = subscriptions.remove(subscriptionId);
+        if (subscription != null) {
+            release(subscription);
+        }
+    }
+
+    private void release(Subscription subscription) {
+        channels.computeIfPresent(subscription.channelId,
+                (channelId, interest) -> adjust(channelId, interest, subscription.binary, -1));
+    }
+
+    // The route is only rebuilt when a mode gains its first or loses its last subscriber
+    private static Interest adjust(String channelId, Interest interest, boolean binary, int delta) {
+        int subscribers = (interest == null ? 0 : interest.subscribers) + (binary ? 0 : delta);
+        int binarySubscribers = (interest == null ? 0 : interest.binarySubscribers) + (binary ? delta : 0);
+        if (subscribers == 0 && binarySubscribers == 0) {
+            return null;
+        }
+        Route route = interest == null ? null : interest.route;
+        if (route == null || (route.destination != null) != (subscribers > 0)
+                || (route.binaryDestination != null) != (binarySubscribers > 0)) {
+            route = new Route(subscribers > 0 ? CHANNEL_TOPIC_PREFIX + channelId : null,
+                    binarySubscribers > 0 ? BINARY_CHANNEL_TOPIC_PREFIX + channelId : null);
+        }
+        return new Interest(route, subscribers, binarySubscribers);
+    }
+}
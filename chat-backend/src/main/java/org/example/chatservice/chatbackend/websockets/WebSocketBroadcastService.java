@@ -3,6 +3,7 @@ package org.example.chatservice.chatbackend.websockets;
 import com.example.chat.proto.ChannelUpdate;
 import com.example.chat.proto.ChatMessage;
 import com.example.chat.proto.UserUpdate;
+import com.google.protobuf.CodedOutputStream;
 import org.example.chatservice.chatbackend.dto.ChannelUpdateDTO;
 import org.example.chatservice.chatbackend.dto.ChatMessageDTO;
 import org.example.chatservice.chatbackend.dto.UserUpdateDTO;
@@ -11,6 +12,11 @@ import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
 @Service
 public class WebSocketBroadcastService {
     private static final Logger log = LoggerFactory.getLogger(WebSocketBroadcastService.class.getSimpleName());
@@ -25,6 +31,38 @@ public class WebSocketBroadcastService {
         messagingTemplate.convertAndSend(destination, ChatMessageDTO.fromProto(message));
     }
 
+    // One frame holding a JSON array of the messages, in order
+    public void broadcastMessages(String destination, List<ChatMessage> messages){
+        log.debug("Broadcasting {} messages to destination: {}", messages.size(), destination);
+        List<ChatMessageDTO> messageDTOs = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            messageDTOs.add(ChatMessageDTO.fromProto(message));
+        }
+        messagingTemplate.convertAndSend(destination, messageDTOs);
+    }
+
+    // One binary frame holding the ChatMessage bytes as they came from Kafka, each prefixed with its varint length
+    // (protobuf's delimited format), in order. The byte[] payload is sent as application/octet-stream, which STOMP
+    // writes as a binary WebSocket frame; SockJS sessions cannot receive those.
+    public void broadcastRawMessages(String destination, List<byte[]> messages){
+        log.debug("Broadcasting {} raw messages to destination: {}", messages.size(), destination);
+        int size = 0;
+        for (byte[] message : messages) {
+            size += CodedOutputStream.computeUInt32SizeNoTag(message.length) + message.length;
+        }
+        byte[] frame = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(frame);
+        try {
+            for (byte[] message : messages) {
+                output.writeUInt32NoTag(message.length);
+                output.writeRawBytes(message);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        messagingTemplate.convertAndSend(destination, frame);
+    }
+
     public void broadcastUserUpdate(String destination, UserUpdate userUpdate){
         log.info("Broadcasting user update to destination: {}", destination);
         messagingTemplate.convertAndSend(destination, UserUpdateDTO.fromProto(userUpdate));
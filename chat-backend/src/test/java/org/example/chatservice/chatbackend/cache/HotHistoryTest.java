@@ -0,0 +1,74 @@
+package org.example.chatservice.chatbackend.cache;
+
+import com.example.chat.proto.Channel;
+import com.example.chat.proto.ChatMessage;
+import com.example.chat.proto.User;
+import org.example.chatservice.chatbackend.config.KafkaTopicConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * The listener starts at the end of chat-stream and db-persistence may lag behind it, so the first ScyllaDB page
+ * can stop short of the messages the listener already buffered. Such a page must not make the buffer serve reads.
+ */
+class HotHistoryTest {
+    private static final String CHANNEL_ID = "hot-history-channel";
+
+    private HotHistory hotHistory;
+
+    @BeforeEach
+    void setUp() {
+        hotHistory = new HotHistory(200, 10000, 1_000_000);
+        hotHistory.partitionsAssigned(IntStream.range(0, KafkaTopicConfig.CHAT_STREAM_PARTITIONS).boxed().toList());
+    }
+
+    @Test
+    void pageStoppingShortOfTheBufferDoesNotSeedIt() {
+        ChatMessage persisted = message("persisted", 1_000);
+        ChatMessage live = message("live", 3_000);
+        hotHistory.onMessage(0, live);
+
+        // The message at 2_000 was produced before the listener started and is not in ScyllaDB yet
+        hotHistory.seed(CHANNEL_ID, List.of(persisted), true);
+
+        assertNull(hotHistory.latest(CHANNEL_ID, 10));
+    }
+
+    @Test
+    void pageReachingTheBufferSeedsIt() {
+        ChatMessage persisted = message("persisted", 1_000);
+        ChatMessage missed = message("missed", 2_000);
+        ChatMessage live = message("live", 3_000);
+        hotHistory.onMessage(0, live);
+        hotHistory.seed(CHANNEL_ID, List.of(persisted), true);
+
+        hotHistory.seed(CHANNEL_ID, List.of(live, missed, persisted), true);
+
+        assertEquals(List.of(live, missed, persisted), hotHistory.latest(CHANNEL_ID, 10));
+    }
+
+    @Test
+    void emptyBufferIsSeededByAnyPage() {
+        ChatMessage persisted = message("persisted", 1_000);
+
+        hotHistory.seed(CHANNEL_ID, List.of(persisted), true);
+
+        assertEquals(List.of(persisted), hotHistory.latest(CHANNEL_ID, 10));
+    }
+
+    private static ChatMessage message(String messageId, long timestamp) {
+        return ChatMessage.newBuilder()
+                .setMessageId(messageId)
+                .setChannel(Channel.newBuilder().setChannelId(CHANNEL_ID).setName(CHANNEL_ID).setDescription("hot history test"))
+                .setSender(User.newBuilder().setUserId("sender").setUsername("sender").setDisplayName("Sender"))
+                .setBody("body of " + messageId)
+                .setTimeStamp(timestamp)
+                .build();
+    }
+}
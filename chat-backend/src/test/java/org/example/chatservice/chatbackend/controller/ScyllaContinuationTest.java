@@ -0,0 +1,174 @@
+package org.example.chatservice.chatbackend.controller;
+
+import com.datastax.driver.core.ResultSet;
+import com.example.chat.proto.Channel;
+import com.example.chat.proto.ChatMessage;
+import com.example.chat.proto.User;
+import com.example.chat.proto.UserUpdate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.chatservice.chatbackend.cache.Cache;
+import org.example.chatservice.chatbackend.cache.HotHistory;
+import org.example.chatservice.chatbackend.config.KafkaTopicConfig;
+import org.example.chatservice.chatbackend.dto.ChatMessageDTO;
+import org.example.chatservice.chatbackend.kafka.KafkaHandler;
+import org.example.chatservice.chatbackend.scylla.MessagePage;
+import org.example.chatservice.chatbackend.scylla.ScyllaDB;
+import org.example.chatservice.chatbackend.search.SearchIndex;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The controllers must not assume which thread a ScyllaDB future completes on. They move everything that can block
+ * (Kafka sends, directory and hot history updates) to ScyllaDB's callback executor and still answer with the right
+ * response. The stub completes each query from a thread standing in for the driver.
+ */
+class ScyllaContinuationTest {
+    private static final String DRIVER_THREAD = "driver-io";
+    private static final String CALLBACK_THREAD = "scylla-callback";
+
+    private final ExecutorService driver = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, DRIVER_THREAD));
+    private final ExecutorService callbacks = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, CALLBACK_THREAD));
+    private final List<String> createdUsers = new ArrayList<>();
+    private final List<String> createdChannels = new ArrayList<>();
+    private ScyllaDB scyllaDB;
+    private KafkaHandler kafkaHandler;
+
+    @BeforeEach
+    void setUp() {
+        scyllaDB = mock(ScyllaDB.class);
+        when(scyllaDB.callbackExecutor()).thenReturn(callbacks);
+        kafkaHandler = mock(KafkaHandler.class);
+    }
+
+    // The directory is static, entries created here must not leak into other tests
+    @AfterEach
+    void tearDown() {
+        createdUsers.forEach(Cache.users::remove);
+        createdChannels.forEach(Cache.channels::remove);
+        driver.shutdownNow();
+        callbacks.shutdownNow();
+    }
+
+    @Test
+    void createUserPublishesTheUpdateOffTheDriverThread() throws Exception {
+        ResultSet applied = mock(ResultSet.class);
+        when(applied.wasApplied()).thenReturn(true);
+        when(scyllaDB.createUser(anyString(), anyString(), anyString())).thenAnswer(invocation -> completedByDriver(applied));
+        AtomicReference<String> sendThread = new AtomicReference<>();
+        doAnswer(invocation -> {
+            sendThread.set(Thread.currentThread().getName());
+            return null;
+        }).when(kafkaHandler).sendUserUpdate(any(UserUpdate.class));
+        UserController controller = new UserController(scyllaDB, kafkaHandler, 50, 500);
+
+        String username = "continuation-" + UUID.randomUUID();
+        ResponseEntity<Map<String, Object>> response = controller.createUser(username, "Continuation").get(5, TimeUnit.SECONDS);
+        createdUsers.add((String) response.getBody().get("userId"));
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        assertEquals(CALLBACK_THREAD, sendThread.get());
+        assertNotNull(Cache.users.getByName(username));
+    }
+
+    @Test
+    void createUserFailureLeavesDirectoryAndKafkaUntouched() {
+        when(scyllaDB.createUser(anyString(), anyString(), anyString()))
+                .thenAnswer(invocation -> failedByDriver(new IllegalStateException("no host available")));
+        UserController controller = new UserController(scyllaDB, kafkaHandler, 50, 500);
+
+        String username = "continuation-" + UUID.randomUUID();
+        CompletableFuture<ResponseEntity<Map<String, Object>>> response = controller.createUser(username, "Continuation");
+
+        assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+        assertNull(Cache.users.getByName(username));
+        verify(kafkaHandler, never()).sendUserUpdate(any());
+    }
+
+    @Test
+    void firstHistoryPageSeedsHotHistoryOffTheDriverThread() throws Exception {
+        Channel channel = Channel.newBuilder()
+                .setChannelId(UUID.randomUUID().toString())
+                .setName("continuation-" + UUID.randomUUID())
+                .setDescription("continuation test")
+                .build();
+        Cache.channels.put(channel);
+        createdChannels.add(channel.getChannelId());
+        ChatMessage message = ChatMessage.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setChannel(channel)
+                .setSender(User.newBuilder().setUserId("sender").setUsername("sender").setDisplayName("Sender").build())
+                .setBody("hello")
+                .setTimeStamp(System.currentTimeMillis())
+                .build();
+        when(scyllaDB.getMessagesByChannel(eq(channel.getChannelId()), any(), anyInt()))
+                .thenAnswer(invocation -> completedByDriver(MessagePage.of(List.of(message), invocation.getArgument(2))));
+
+        HotHistory hotHistory = spy(new HotHistory(200, 10000, 1_000_000));
+        hotHistory.partitionsAssigned(IntStream.range(0, KafkaTopicConfig.CHAT_STREAM_PARTITIONS).boxed().toList());
+        AtomicReference<String> seedThread = new AtomicReference<>();
+        doAnswer(invocation -> {
+            seedThread.set(Thread.currentThread().getName());
+            return invocation.callRealMethod();
+        }).when(hotHistory).seed(anyString(), any(), anyBoolean());
+        MessageController controller = new MessageController(scyllaDB, kafkaHandler, hotHistory,
+                new ObjectMapper(), mock(SearchIndex.class), 50, 500, 500);
+
+        ResponseEntity<Map<String, Object>> first = controller.getMessageHistory(channel.getChannelId(), null, 50).get(5, TimeUnit.SECONDS);
+        ResponseEntity<Map<String, Object>> second = controller.getMessageHistory(channel.getChannelId(), null, 50).get(5, TimeUnit.SECONDS);
+
+        assertEquals(CALLBACK_THREAD, seedThread.get());
+        assertEquals(List.of(message.getMessageId()), messageIds(first));
+        assertEquals(List.of(message.getMessageId()), messageIds(second));
+        // The second page came from the seeded buffer
+        verify(scyllaDB, times(1)).getMessagesByChannel(anyString(), any(), anyInt());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> messageIds(ResponseEntity<Map<String, Object>> response) {
+        return ((List<ChatMessageDTO>) response.getBody().get("messages")).stream().map(ChatMessageDTO::getMessageId).toList();
+    }
+
+    private <T> CompletableFuture<T> completedByDriver(T value) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        driver.execute(() -> result.complete(value));
+        return result;
+    }
+
+    private <T> CompletableFuture<T> failedByDriver(Throwable error) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        driver.execute(() -> result.completeExceptionally(error));
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.chatservice.chatbackend.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks advance and intersect against a naive search and set intersection on random postings lists, read both
+ * from arrays and encoded, with and without skip tables. Lists range from empty and single docs to several blocks,
+ * sparse and dense, so advance lands inside blocks, on block boundaries and past the end.
+ */
+class PostingsTest {
+    private static final int ROUNDS = 500;
+    private static final int[] SIZES = {0, 1, 2, Postings.BLOCK_SIZE - 1, Postings.BLOCK_SIZE, Postings.BLOCK_SIZE + 1,
+            3 * Postings.BLOCK_SIZE + 17};
+
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Test
+    void advanceFindsTheFirstDocAtOrAfterTarget() {
+        for (int round = 0; round < ROUNDS; round++) {
+            int[] docIds = randomList();
+            for (Function<int[], DocIterator> layout : layouts()) {
+                DocIterator iterator = layout.apply(docIds);
+                int current = -1;
+                while (current != DocIterator.NO_MORE_DOCS) {
+                    int target = current + 1 + random.nextInt(random.nextBoolean() ? 4 : 2 * Postings.BLOCK_SIZE * 8);
+                    current = iterator.advance(target);
+                    assertEquals(ceiling(docIds, target), current, () -> "advance in " + Arrays.toString(docIds));
+                    assertEquals(current, iterator.docId());
+                }
+            }
+        }
+    }
+
+    @Test
+    void nextDocAfterAdvanceContinuesInOrder() {
+        for (int round = 0; round < ROUNDS; round++) {
+            int[] docIds = randomList();
+            if (docIds.length == 0) {
+                continue;
+            }
+            for (Function<int[], DocIterator> layout : layouts()) {
+                DocIterator iterator = layout.apply(docIds);
+                int start = random.nextInt(docIds.length);
+                assertEquals(docIds[start], iterator.advance(docIds[start]));
+                for (int i = start + 1; i < docIds.length; i++) {
+                    assertEquals(docIds[i], iterator.nextDoc());
+                }
+                assertEquals(DocIterator.NO_MORE_DOCS, iterator.nextDoc());
+            }
+        }
+    }
+
+    @Test
+    void intersectMatchesNaiveIntersection() {
+        for (int round = 0; round < ROUNDS; round++) {
+            int[][] lists = new int[2 + random.nextInt(2)][];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = randomList();
+            }
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+            int[] expected = naiveIntersection(lists);
+            for (Function<int[], DocIterator> layout : layouts()) {
+                DocIterator[] iterators = new DocIterator[lists.length];
+                for (int i = 0; i < lists.length; i++) {
+                    iterators[i] = layout.apply(lists[i]);
+                }
+                assertArrayEquals(expected, Postings.intersect(iterators), () -> "intersect " + Arrays.deepToString(lists));
+            }
+        }
+    }
+
+    @Test
+    void intersectWithEmptyOrSingleDocLists() {
+        int[] many = ascending(3 * Postings.BLOCK_SIZE, 2);
+        for (Function<int[], DocIterator> layout : layouts()) {
+            assertArrayEquals(new int[0], Postings.intersect(new DocIterator[]{layout.apply(new int[0]), layout.apply(many)}));
+            assertArrayEquals(new int[0], Postings.intersect(new DocIterator[]{layout.apply(many), layout.apply(new int[0])}));
+            assertArrayEquals(new int[]{many[200]},
+                    Postings.intersect(new DocIterator[]{layout.apply(new int[]{many[200]}), layout.apply(many)}));
+            assertArrayEquals(new int[0],
+                    Postings.intersect(new DocIterator[]{layout.apply(new int[]{many[200] + 1}), layout.apply(many)}));
+            assertArrayEquals(new int[]{7}, Postings.intersect(new DocIterator[]{layout.apply(new int[]{7}), layout.apply(new int[]{7})}));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<int[], DocIterator>[] layouts() {
+        return new Function[]{
+                (Function<int[], DocIterator>) docIds -> Postings.over(docIds, docIds.length),
+                (Function<int[], DocIterator>) docIds -> encoded(docIds, true),
+                (Function<int[], DocIterator>) docIds -> encoded(docIds, false)
+        };
+    }
+
+    // Without skips the gaps alone are stored, as the format before skip tables did
+    private static DocIterator encoded(int[] docIds, boolean skips) {
+        byte[] bytes = Postings.encode(docIds);
+        int skipBytes = Postings.hasSkips(docIds.length) ? Postings.blockCount(docIds.length) * Postings.SKIP_ENTRY_BYTES : 0;
+        if (!skips) {
+            bytes = Arrays.copyOfRange(bytes, skipBytes, bytes.length);
+        }
+        // Offset within the buffer, as lists sit after others in a segment
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+        buffer.position(3);
+        buffer.put(bytes);
+        return Postings.reader(buffer, 3, docIds.length, skips);
+    }
+
+    private int[] randomList() {
+        int size = random.nextBoolean() ? SIZES[random.nextInt(SIZES.length)] : random.nextInt(4 * Postings.BLOCK_SIZE);
+        // Dense lists share many docs with each other, sparse ones have gaps wider than one varint byte
+        int maxGap = random.nextBoolean() ? 3 : 1000;
+        int[] docIds = new int[size];
+        int docId = random.nextInt(maxGap);
+        for (int i = 0; i < size; i++) {
+            docIds[i] = docId;
+            docId += 1 + random.nextInt(maxGap);
+        }
+        return docIds;
+    }
+
+    private static int[] ascending(int size, int interval) {
+        int[] docIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            docIds[i] = i * interval;
+        }
+        return docIds;
+    }
+
+    private static int ceiling(int[] docIds, int target) {
+        for (int docId : docIds) {
+            if (docId >= target) {
+                return docId;
+            }
+        }
+        return DocIterator.NO_MORE_DOCS;
+    }
+
+    private static int[] naiveIntersection(int[][] lists) {
+        return Arrays.stream(lists[0])
+                .filter(docId -> Arrays.stream(lists).allMatch(list -> Arrays.stream(list).anyMatch(other -> other == docId)))
+                .toArray();
+    }
+}
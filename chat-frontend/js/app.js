@@ -1,7 +1,16 @@
 import { Client } from '@stomp/stompjs';
 import SockJS from 'sockjs-client';
+import * as protobuf from 'protobufjs';
 import '../css/style.css';
 import { config } from './config.js';
+// The repository's schema files, bundled as text so binary frames decode with exactly what the backend encodes
+import commonSchema from '../../proto/common.proto';
+import chatMessageSchema from '../../proto/chat-message.proto';
+
+const protoRoot = new protobuf.Root();
+protobuf.parse(commonSchema, protoRoot);
+protobuf.parse(chatMessageSchema, protoRoot);
+const ChatMessageProto = protoRoot.resolveAll().lookupType('com.example.chat.ChatMessage');
 
 class ChatApp {
     constructor() {
@@ -14,6 +23,8 @@ class ChatApp {
         this.subscriptions = new Map();
         this.channelMessages = new Map();
         this.users = new Map();
+        // Messages sent over STOMP and not yet acked by the backend, with their ack timeout, by client message id
+        this.pendingSends = new Map();
         this.connected = false;
 
         this.loadUsers();
@@ -81,6 +92,13 @@ class ChatApp {
                 <span class="hashtag">#</span>
                 <span>${channel.name}</span>
             `;
+            if (channel.lastBody) {
+                // Message bodies are user input, set as text rather than HTML
+                const preview = document.createElement('span');
+                preview.className = 'channel-preview';
+                preview.textContent = channel.lastBody;
+                channelElement.appendChild(preview);
+            }
             channelElement.addEventListener('click', () => this.switchChannel(channel));
             this.elements.channelsList.appendChild(channelElement);
         });
@@ -105,9 +123,11 @@ class ChatApp {
 
     async connect() {
         try {
-            // Create STOMP client with SockJS
+            // Create STOMP client with SockJS, or over a plain WebSocket for binary frames, which SockJS cannot carry
             this.stompClient = new Client({
-                webSocketFactory: () => new SockJS(config.WS_ENDPOINT),
+                ...(config.BINARY_TRANSPORT
+                    ? { brokerURL: config.WS_NATIVE_ENDPOINT }
+                    : { webSocketFactory: () => new SockJS(config.WS_ENDPOINT) }),
                 reconnectDelay: config.STOMP_RECONNECT_DELAY,
                 heartbeatIncoming: config.STOMP_HEARTBEAT_INCOMING,
                 heartbeatOutgoing: config.STOMP_HEARTBEAT_OUTGOING,
@@ -151,6 +171,7 @@ class ChatApp {
             this.subscribeToChannel(channel.id);
         });
         this.subscribeToChannelUpdate();
+        this.subscribeToSendAcks();
 
         // Update UI
         this.elements.connectionModal.style.display = 'none';
@@ -177,9 +198,13 @@ class ChatApp {
             return; // Already subscribed
         }
 
-        const subscription = this.stompClient.subscribe(`${config.TOPIC_PREFIX}${channelId}`, (message) => {
-            this.onMessageReceived(message, channelId);
-        });
+        const subscription = config.BINARY_TRANSPORT
+            ? this.stompClient.subscribe(`${config.BINARY_TOPIC_PREFIX}${channelId}`, (message) => {
+                this.onBinaryMessageReceived(message, channelId);
+            })
+            : this.stompClient.subscribe(`${config.TOPIC_PREFIX}${channelId}`, (message) => {
+                this.onMessageReceived(message, channelId);
+            });
 
         this.subscriptions.set(channelId, subscription);
         console.log(`Subscribed to channel: ${channelId}`);
@@ -198,6 +223,60 @@ class ChatApp {
       console.log(`Subscribed to channel updates`);
     }
 
+    subscribeToSendAcks() {
+        if (this.subscriptions.has('send-acks')) {
+            return; // Already subscribed
+        }
+
+        const subscription = this.stompClient.subscribe(config.SEND_ACK_QUEUE, (message) => {
+            this.onSendAckReceived(message);
+        });
+
+        this.subscriptions.set('send-acks', subscription);
+        console.log('Subscribed to send acknowledgements');
+    }
+
+    onSendAckReceived(message) {
+        try {
+            const ack = JSON.parse(message.body);
+            const pending = this.takePendingSend(ack.clientMessageId);
+            if (ack.status === 'NACK') {
+                console.error('Message was not delivered:', ack);
+                const preview = pending ? `"${pending.body.substring(0, 40)}"` : 'A message';
+                this.addSystemMessage(`Error: ${preview} was not delivered (${ack.error}). Please send it again.`);
+            }
+        } catch (error) {
+            console.error('Error parsing send acknowledgement:', error);
+        }
+    }
+
+    takePendingSend(clientMessageId) {
+        const pending = this.pendingSends.get(clientMessageId);
+        if (!pending) {
+            return null;
+        }
+        clearTimeout(pending.timer);
+        this.pendingSends.delete(clientMessageId);
+        return pending.message;
+    }
+
+    onSendAckTimeout(clientMessageId) {
+        const message = this.takePendingSend(clientMessageId);
+        if (message) {
+            this.addSystemMessage(`Error: "${message.body.substring(0, 40)}" was not confirmed by the server and may not have been delivered.`);
+        }
+    }
+
+    // Acks are addressed to the session that sent the message, so none arrive after it closed
+    expirePendingSends(report) {
+        const count = this.pendingSends.size;
+        this.pendingSends.forEach(pending => clearTimeout(pending.timer));
+        this.pendingSends.clear();
+        if (report && count > 0) {
+            this.addSystemMessage(`Error: ${count} message(s) sent before the connection dropped may not have been delivered.`);
+        }
+    }
+
     unsubscribeFromChannel(channelId) {
         const subscription = this.subscriptions.get(channelId);
         if (subscription) {
@@ -209,22 +288,54 @@ class ChatApp {
 
     onMessageReceived(message, channelId) {
         try {
-            const chatMessage = JSON.parse(message.body);
-            console.log('Received message:', chatMessage);
-
-            // Store message in the channel's message array
-            if (!this.channelMessages.has(channelId)) {
-                this.channelMessages.set(channelId, []);
-            }
-            this.channelMessages.get(channelId).push(chatMessage);
+            // The backend may coalesce a burst into one frame holding an array of messages
+            const payload = JSON.parse(message.body);
+            this.addReceivedMessages(Array.isArray(payload) ? payload : [payload], channelId);
+        } catch (error) {
+            console.error('Error parsing message:', error);
+        }
+    }
 
-            // Only display message if it's for the current channel
-            if (channelId === this.currentChannel.id) {
-                this.displayMessage(chatMessage);
-            } else {
+    // Binary frames hold one or more length-delimited ChatMessage protobufs
+    onBinaryMessageReceived(message, channelId) {
+        try {
+            const reader = protobuf.Reader.create(message.binaryBody);
+            const chatMessages = [];
+            while (reader.pos < reader.len) {
+                // Enums as names, the way the JSON frames carry them
+                chatMessages.push(ChatMessageProto.toObject(ChatMessageProto.decodeDelimited(reader),
+                    { longs: Number, enums: String, defaults: true }));
             }
+            this.addReceivedMessages(chatMessages, channelId);
         } catch (error) {
-            console.error('Error parsing message:', error);
+            console.error('Error decoding binary message:', error);
+        }
+    }
+
+    addReceivedMessages(chatMessages, channelId) {
+        console.log(`Received ${chatMessages.length} message(s):`, chatMessages);
+        if (chatMessages.length === 0) {
+            return;
+        }
+
+        // Store messages in the channel's message array
+        if (!this.channelMessages.has(channelId)) {
+            this.channelMessages.set(channelId, []);
+        }
+        this.channelMessages.get(channelId).push(...chatMessages);
+
+        // Keep the channel list preview current
+        const latest = chatMessages[chatMessages.length - 1];
+        const channel = this.channels.find(ch => ch.id === channelId);
+        if (channel) {
+            channel.lastBody = latest.body;
+            channel.lastActivity = latest.timeStamp;
+            this.renderChannels();
+        }
+
+        // Only display messages if they're for the current channel
+        if (channelId === this.currentChannel.id) {
+            chatMessages.forEach(chatMessage => this.displayMessage(chatMessage));
         }
     }
 
@@ -325,6 +436,8 @@ class ChatApp {
 
     sendMessage(message) {
         if (this.stompClient && this.connected) {
+            const timer = setTimeout(() => this.onSendAckTimeout(message.messageId), config.SEND_ACK_TIMEOUT);
+            this.pendingSends.set(message.messageId, { message, timer });
             this.stompClient.publish({
                 destination: `${config.APP_PREFIX}`,
                 body: JSON.stringify(message)
@@ -371,6 +484,7 @@ class ChatApp {
     onDisconnected() {
         console.log('Disconnected from WebSocket');
         this.connected = false;
+        this.expirePendingSends(true);
 
         if (this.elements.chatContainer.style.display === 'flex') {
             // Update connection indicator
@@ -396,6 +510,7 @@ class ChatApp {
             this.stompClient.deactivate();
             this.stompClient = null;
         }
+        this.expirePendingSends(false);
 
         this.connected = false;
         this.currentUser = null;
@@ -502,7 +617,8 @@ class ChatApp {
         // Load channels from REST API and normalize to internal shape
         return (async () => {
             try {
-                const resp = await fetch(`${config.REST_API_BASE_URL}/channel/all`);
+                // Summaries carry each channel with its latest message in a single request, most recent first
+                const resp = await fetch(`${config.REST_API_BASE_URL}/channel/summaries`);
                 if (!resp.ok) {
                     throw new Error(`Failed to load channels: ${resp.status} ${resp.statusText}`);
                 }
@@ -512,12 +628,17 @@ class ChatApp {
                     throw new Error('Invalid channels payload: expected an array');
                 }
 
-                // Map backend channel objects to internal channel shape { id, name, description }
-                this.channels = data.map(c => ({
-                    id: c.channelId || c.id || '',
-                    name: c.name || c.channelName || 'unnamed',
-                    description: c.description || ''
-                })).filter(ch => ch.id);
+                // Map backend channel summaries to internal channel shape { id, name, description, lastBody, lastActivity }
+                this.channels = data.map(summary => {
+                    const c = summary.channel || summary;
+                    return {
+                        id: c.channelId || c.id || '',
+                        name: c.name || c.channelName || 'unnamed',
+                        description: c.description || '',
+                        lastBody: summary.lastBody || '',
+                        lastActivity: summary.lastActivity || 0
+                    };
+                }).filter(ch => ch.id);
 
                 // Always set the current channel to the first channel
                 if (this.channels.length > 0) {
@@ -615,7 +736,7 @@ class ChatApp {
     // Load messages for a specific channel from REST API
     return (async () => {
       try {
-        const resp = await fetch(`${config.REST_API_BASE_URL}/message/${channelId}/history`);
+        const resp = await fetch(`${config.REST_API_BASE_URL}/message/${channelId}/history?limit=${config.HISTORY_PAGE_SIZE}`);
         if (!resp.ok) {
           throw new Error(`Failed to load messages: ${resp.status} ${resp.statusText}`);
         }
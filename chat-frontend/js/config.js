@@ -2,6 +2,10 @@
 export const config = {
     // Backend WebSocket endpoint
     WS_ENDPOINT: 'http://localhost:8080/ws-chat',
+    // Plain WebSocket endpoint, used instead of SockJS when BINARY_TRANSPORT is on
+    WS_NATIVE_ENDPOINT: 'ws://localhost:8080/ws-chat',
+    // Receive channel messages as protobuf binary frames instead of JSON
+    BINARY_TRANSPORT: false,
 
     // REST API base URL
     REST_API_BASE_URL: 'http://localhost:8080/api/v1',
@@ -10,14 +14,20 @@ export const config = {
     STOMP_RECONNECT_DELAY: 5000,
     STOMP_HEARTBEAT_INCOMING: 4000,
     STOMP_HEARTBEAT_OUTGOING: 4000,
+    // A sent message without an ack after this long is reported as possibly undelivered. Longer than the
+    // backend producer's delivery.timeout.ms, after which it nacks on its own.
+    SEND_ACK_TIMEOUT: 35000,
 
     // Application settings
     DEFAULT_CHANNEL: 'general',
+    HISTORY_PAGE_SIZE: 50,
 
     // Subscription destinations
     TOPIC_PREFIX: '/topic/channel/',
+    BINARY_TOPIC_PREFIX: '/topic/channel-bin/',
     CHANNEL_UPDATE_TOPIC: '/topic/channels',
     USER_UPDATE_TOPIC: '/topic/users',
+    SEND_ACK_QUEUE: '/user/queue/acks',
     APP_PREFIX: '/app/chat.sendMessage'
 };
 
@@ -23,6 +23,11 @@ module.exports = {
             {
                 test: /\.css$/,
                 use: ['style-loader', 'css-loader']
+            },
+            {
+                // Schema files from ../proto, imported as source text and parsed with protobufjs
+                test: /\.proto$/,
+                type: 'asset/source'
             }
         ]
     },
@@ -1,20 +1,119 @@
 package org.example.chatservice.dbpersistence;
 
+import org.example.chatservice.dbpersistence.archive.ArchiveJob;
+import org.example.chatservice.dbpersistence.backfill.BackfillJob;
+import org.example.chatservice.dbpersistence.backfill.LegacyMigration;
+import org.example.chatservice.dbpersistence.config.Config;
+import org.example.chatservice.dbpersistence.kafka.DeadLetterProducer;
+import org.example.chatservice.dbpersistence.kafka.DeadLetterReplay;
+import org.example.chatservice.dbpersistence.kafka.DictionaryTraining;
 import org.example.chatservice.dbpersistence.kafka.MessageWorker;
+import org.example.chatservice.dbpersistence.kafka.RetryScheduler;
+import org.example.chatservice.dbpersistence.scylla.ScyllaDB;
+import org.example.chatservice.dbpersistence.spool.Spool;
+import org.example.chatservice.dbpersistence.spool.SpoolDrainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.CountDownLatch;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DBPersistance {
-    public static void main(String[] args) {
-        CountDownLatch latch = new CountDownLatch(1);
+    private static final Logger log = LoggerFactory.getLogger(DBPersistance.class.getSimpleName());
 
-        MessageWorker messageWorker = new MessageWorker(0, 15);
-        new Thread(messageWorker).start();
+    private interface Job {
+        void run() throws Exception;
+    }
+
+    // One-off jobs exit with a status scripts can check; driver and Kafka threads would otherwise keep the JVM alive
+    private static void runJob(String name, Job job) {
+        try {
+            job.run();
+        } catch (Exception e) {
+            log.error("{} failed: {}", name, e.getMessage(), e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "backfill".equals(args[0])) {
+            runJob("Backfill", () -> BackfillJob.fromArgs(args, new ScyllaDB()).run());
+        }
+        if (args.length > 0 && "dlq-replay".equals(args[0])) {
+            runJob("Dead-letter replay", () -> new DeadLetterReplay(new ScyllaDB()).run());
+        }
+        if (args.length > 0 && "train-dictionary".equals(args[0])) {
+            runJob("Dictionary training", () -> new DictionaryTraining(new ScyllaDB()).run());
+        }
+        if (args.length > 0 && "migrate-legacy".equals(args[0])) {
+            runJob("Legacy migration", () -> new LegacyMigration(new ScyllaDB()).run());
+        }
+        if (args.length > 0 && "archive".equals(args[0])) {
+            runJob("Archive", () -> new ArchiveJob(new ScyllaDB()).run());
+        }
+
+        // Workers join the consumer group, so chat-stream partitions are spread over every worker in every process
+        int workerCount = Integer.parseInt(Config.getProperty("persistence.workers",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        ScyllaDB scyllaDB = new ScyllaDB();
+        RetryScheduler retryScheduler = new RetryScheduler();
+        DeadLetterProducer deadLetters = new DeadLetterProducer();
+
+        // The drainer starts before the workers, so whatever a previous run left in the spool is replayed first
+        boolean spoolEnabled = Boolean.parseBoolean(Config.getProperty("spool.enabled", "false"));
+        Spool spool = spoolEnabled ? new Spool(Path.of(Config.getProperty("spool.path", "../data/spool")),
+                Integer.parseInt(Config.getProperty("spool.segment-bytes", "67108864")),
+                Long.parseLong(Config.getProperty("spool.max-bytes", "10737418240"))) : null;
+        SpoolDrainer spoolDrainer = spoolEnabled ? new SpoolDrainer(spool, scyllaDB, retryScheduler, deadLetters) : null;
+        Thread drainerThread = spoolEnabled ? new Thread(spoolDrainer, "spool-drainer") : null;
+        if (drainerThread != null) {
+            drainerThread.start();
+        }
+
+        List<MessageWorker> messageWorkers = new ArrayList<>(workerCount);
+        List<Thread> threads = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            MessageWorker messageWorker = new MessageWorker(i, scyllaDB, retryScheduler, deadLetters, spool);
+            Thread thread = new Thread(messageWorker, "message-worker-" + i);
+            messageWorkers.add(messageWorker);
+            threads.add(thread);
+            thread.start();
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread(){
             @Override
             public void run() {
-                messageWorker.shutdown(latch);
+                for (MessageWorker messageWorker : messageWorkers) {
+                    messageWorker.shutdown();
+                }
+                // Give the workers time to commit their final offsets
+                for (Thread thread : threads) {
+                    try {
+                        thread.join(10_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                // Spooled records are already committed to Kafka, the drainer stops after its current batch and the
+                // rest is drained on the next start
+                if (spoolDrainer != null) {
+                    spoolDrainer.shutdown();
+                    try {
+                        drainerThread.join(10_000);
+                        spool.close();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (IOException ignored) {
+                        // The spool lock goes away with the process anyway
+                    }
+                }
+                retryScheduler.shutdown();
+                deadLetters.close();
             }
         });
     }
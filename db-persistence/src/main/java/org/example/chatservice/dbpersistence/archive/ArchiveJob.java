@@ -0,0 +1,111 @@
+package org.example.chatservice.dbpersistence.archive;
+
+import org.example.chatservice.dbpersistence.config.Config;
+import org.example.chatservice.dbpersistence.scylla.MessageBuckets;
+import org.example.chatservice.dbpersistence.scylla.ScyllaDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Moves cold channel history out of {@code channel_messages} into archive segments on a shared directory that
+ * chat-backend memory-maps. Buckets are grouped into aligned ranges of archive.buckets-per-segment; a range is
+ * archived once all of it is older than archive.min-age-days. Each range is streamed newest first into a new
+ * segment, recorded in {@code channel_archive_segments} and only then deleted from ScyllaDB.
+ * <p>
+ * Backfill and dead-letter replay can still write into archived buckets. The delete is timestamped a little before
+ * the range was scanned (archive.settle-ms), so those writes survive it and stay hot until a later run archives them
+ * as another generation of the range; chat-backend merges the generations with the hot buckets. Writes made while the
+ * scan ran may end up both archived and hot, and an interrupted run leaves at most an unreferenced file or messages
+ * in two generations. Readers drop the duplicates and the next run completes the range.
+ */
+public class ArchiveJob {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveJob.class.getSimpleName());
+    private final ScyllaDB scyllaDB;
+    private final Path directory;
+    private final long minAgeMillis;
+    private final int bucketsPerSegment;
+    private final int blockBytes;
+    private final int level;
+    private final int fetchSize;
+    private final long settleMillis;
+
+    public ArchiveJob(ScyllaDB scyllaDB) {
+        this.scyllaDB = scyllaDB;
+        this.directory = Paths.get(Config.getProperty("archive.path", "data/archive"));
+        this.minAgeMillis = Long.parseLong(Config.getProperty("archive.min-age-days", "90")) * MessageBuckets.BUCKET_MILLIS;
+        this.bucketsPerSegment = Integer.parseInt(Config.getProperty("archive.buckets-per-segment", "30"));
+        this.blockBytes = Integer.parseInt(Config.getProperty("archive.block-bytes", "32768"));
+        this.level = Integer.parseInt(Config.getProperty("archive.zstd-level", "9"));
+        this.fetchSize = Integer.parseInt(Config.getProperty("archive.fetch-size", "1000"));
+        this.settleMillis = Long.parseLong(Config.getProperty("archive.settle-ms", "60000"));
+    }
+
+    public void run() throws IOException {
+        // Ranges must end before the cutoff bucket, so only whole ranges of cold buckets are archived
+        int cutoff = MessageBuckets.bucketOf(System.currentTimeMillis() - minAgeMillis);
+        int firstUnarchivable = Math.floorDiv(cutoff, bucketsPerSegment) * bucketsPerSegment;
+        long segments = 0;
+        long messages = 0;
+        for (String channelId : scyllaDB.channelsWithMessages()) {
+            Map<Integer, List<Integer>> ranges = new TreeMap<>();
+            for (int bucket : scyllaDB.messageBucketsBefore(channelId, firstUnarchivable)) {
+                int firstBucket = Math.floorDiv(bucket, bucketsPerSegment) * bucketsPerSegment;
+                ranges.computeIfAbsent(firstBucket, key -> new ArrayList<>()).add(bucket);
+            }
+            for (Map.Entry<Integer, List<Integer>> range : ranges.entrySet()) {
+                messages += archive(channelId, range.getKey(), range.getValue());
+                segments++;
+            }
+        }
+        log.info("Archive run finished: {} segments with {} messages written to {}", segments, messages, directory);
+    }
+
+    // buckets are newest first, as the bucket index returns them
+    private long archive(String channelId, int firstBucket, List<Integer> buckets) throws IOException {
+        int lastBucket = firstBucket + bucketsPerSegment - 1;
+        long generation = System.currentTimeMillis();
+        String channelDirectory = URLEncoder.encode(channelId, UTF_8);
+        String file = channelDirectory + "/" + firstBucket + "-" + lastBucket + "-" + generation + ".seg";
+
+        long start = System.currentTimeMillis();
+        // Writes stamped before this are in ScyllaDB by the time the scan reads their bucket, later ones are kept hot
+        long deleteBeforeMicros = (start - settleMillis) * 1000;
+        long count;
+        try (ArchiveSegmentWriter writer = new ArchiveSegmentWriter(directory.resolve(file), channelId, firstBucket,
+                lastBucket, blockBytes, level)) {
+            for (int bucket : buckets) {
+                scyllaDB.forEachMessageInBucket(channelId, bucket, fetchSize, row -> {
+                    try {
+                        writer.append(row);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            writer.finish();
+            count = writer.messageCount();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        scyllaDB.storeArchiveSegment(channelId, firstBucket, lastBucket, generation, file, count);
+        for (int i = buckets.size() - 1; i >= 0; i--) {
+            scyllaDB.deleteMessageBucket(channelId, buckets.get(i), deleteBeforeMicros);
+        }
+        log.info("Archived {} messages of channel {} from buckets {}-{} into {} in {} ms",
+                count, channelId, firstBucket, lastBucket, file, System.currentTimeMillis() - start);
+        return count;
+    }
+}
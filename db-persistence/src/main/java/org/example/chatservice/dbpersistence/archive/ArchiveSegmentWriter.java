@@ -0,0 +1,162 @@
+package org.example.chatservice.dbpersistence.archive;
+
+import com.github.luben.zstd.Zstd;
+import org.example.chatservice.dbpersistence.scylla.MessageRow;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes one immutable archive segment: the messages of one channel over a range of buckets, newest first, in
+ * zstd-compressed blocks followed by a sparse index holding the first key of every block.
+ *
+ * <pre>
+ * header  magic, version, channelId, firstBucket, lastBucket
+ * blocks  zstd([createdAt, messageId, sender, body]*)
+ * index   blockCount, [firstCreatedAt, firstMessageId, offset, compressedLength, uncompressedLength, count]*
+ * footer  indexOffset, messageCount
+ * trailer CRC32 of everything before it
+ * </pre>
+ *
+ * Strings are an int length followed by UTF-8 bytes. Must stay in sync with chat-backend's ArchiveSegment.
+ */
+public class ArchiveSegmentWriter implements Closeable {
+    public static final int MAGIC = 0x43484152;
+    public static final int FORMAT_VERSION = 1;
+    private final Path file;
+    private final Path temp;
+    private final int blockBytes;
+    private final int level;
+    private final CRC32 crc = new CRC32();
+    private final OutputStream fileOut;
+    private final DataOutputStream out;
+    private final List<BlockEntry> index = new ArrayList<>();
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private final DataOutputStream blockOut = new DataOutputStream(block);
+    private long position;
+    private long messageCount;
+    private int blockCount;
+    private MessageRow blockFirst;
+    private MessageRow previous;
+    private boolean finished;
+
+    private record BlockEntry(long firstCreatedAt, String firstMessageId, long offset, int compressedLength,
+                              int uncompressedLength, int count) {
+    }
+
+    public ArchiveSegmentWriter(Path file, String channelId, int firstBucket, int lastBucket, int blockBytes, int level)
+            throws IOException {
+        this.file = file;
+        this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.blockBytes = blockBytes;
+        this.level = level;
+        Files.createDirectories(file.getParent());
+        fileOut = Files.newOutputStream(temp);
+        out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc)));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, channelId);
+        out.writeInt(firstBucket);
+        out.writeInt(lastBucket);
+        position = out.size();
+    }
+
+    // Messages must arrive in history order: created_at descending, then message_id descending
+    public void append(MessageRow row) throws IOException {
+        if (previous != null && compare(row, previous) > 0) {
+            throw new IllegalArgumentException("Archive rows out of order at message " + row.messageId());
+        }
+        if (blockFirst == null) {
+            blockFirst = row;
+        }
+        blockOut.writeLong(row.timestamp().getTime());
+        writeString(blockOut, row.messageId());
+        writeString(blockOut, row.sender());
+        writeString(blockOut, row.body());
+        blockCount++;
+        messageCount++;
+        previous = row;
+        if (block.size() >= blockBytes) {
+            flushBlock();
+        }
+    }
+
+    public long messageCount() {
+        return messageCount;
+    }
+
+    // Completes the segment and moves it into place, readers never see a partial file
+    public void finish() throws IOException {
+        flushBlock();
+        long indexOffset = position;
+        out.writeInt(index.size());
+        for (BlockEntry entry : index) {
+            out.writeLong(entry.firstCreatedAt());
+            writeString(out, entry.firstMessageId());
+            out.writeLong(entry.offset());
+            out.writeInt(entry.compressedLength());
+            out.writeInt(entry.uncompressedLength());
+            out.writeInt(entry.count());
+        }
+        out.writeLong(indexOffset);
+        out.writeLong(messageCount);
+        out.flush();
+        fileOut.write(ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue()).array());
+        out.close();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockCount == 0) {
+            return;
+        }
+        byte[] uncompressed = block.toByteArray();
+        byte[] compressed = Zstd.compress(uncompressed, level);
+        out.write(compressed);
+        index.add(new BlockEntry(blockFirst.timestamp().getTime(), blockFirst.messageId(), position,
+                compressed.length, uncompressed.length, blockCount));
+        position += compressed.length;
+        block.reset();
+        blockCount = 0;
+        blockFirst = null;
+    }
+
+    private static int compare(MessageRow a, MessageRow b) {
+        int byTime = Long.compare(a.timestamp().getTime(), b.timestamp().getTime());
+        return byTime != 0 ? byTime : a.messageId().compareTo(b.messageId());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,314 @@
+package org.example.chatservice.dbpersistence.backfill;
+
+import com.example.chat.proto.ChatMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.TopicPartition;
+import org.example.chatservice.dbpersistence.config.Config;
+import org.example.chatservice.dbpersistence.config.ConfigException;
+import org.example.chatservice.dbpersistence.kafka.MessageConsumer;
+import org.example.chatservice.dbpersistence.scylla.MessageRow;
+import org.example.chatservice.dbpersistence.scylla.ScyllaDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Re-persists a range of chat-stream history, e.g. after restoring a cluster or changing the message schema.
+ * Partitions are assigned directly and no offsets are ever committed, so the live consumer group is untouched.
+ * The range starts at a timestamp (resolved with offsetsForTimes) or an offset, and ends at the log end offsets
+ * taken when the job starts unless bounded explicitly. Inserts are idempotent, so overlapping the live workers or
+ * re-running a backfill is safe. Message counts are not: they are only added with --count-messages, for a range
+ * no one has counted yet, such as a whole topic restored into an empty cluster.
+ */
+public class BackfillJob {
+    private static final Logger log = LoggerFactory.getLogger(BackfillJob.class.getSimpleName());
+    private static final String TOPIC = "chat-stream";
+    private final ScyllaDB scyllaDB;
+    private final Long fromTime;
+    private final Long toTime;
+    private final Long fromOffset;
+    private final Long toOffset;
+    private final int readers;
+    private final boolean countMessages;
+    private final int maxRetries;
+    private final long pollTimeoutMs;
+    private final long progressIntervalMs;
+    private final RateLimiter rateLimiter;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    // The first reader failure, the other readers stop once it is set
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    private BackfillJob(ScyllaDB scyllaDB, Map<String, String> options) {
+        this.scyllaDB = scyllaDB;
+        this.fromTime = parseTime(options.get("from-time"));
+        this.toTime = parseTime(options.get("to-time"));
+        this.fromOffset = options.containsKey("from-offset") ? Long.parseLong(options.get("from-offset")) : null;
+        this.toOffset = options.containsKey("to-offset") ? Long.parseLong(options.get("to-offset")) : null;
+        if (fromTime != null && fromOffset != null) {
+            throw new ConfigException("Backfill takes either --from-time or --from-offset, not both");
+        }
+        this.countMessages = Boolean.parseBoolean(options.getOrDefault("count-messages", "false"));
+        this.readers = Integer.parseInt(options.getOrDefault("readers", Config.getProperty("backfill.readers", "4")));
+        this.rateLimiter = new RateLimiter(Long.parseLong(options.getOrDefault("rate", Config.getProperty("backfill.rate-limit", "0"))));
+        this.maxRetries = Integer.parseInt(Config.getProperty("backfill.max-retries", "5"));
+        this.pollTimeoutMs = Long.parseLong(Config.getProperty("kafka.consumer.poll-timeout-ms", "1000"));
+        this.progressIntervalMs = Long.parseLong(Config.getProperty("backfill.progress-interval-ms", "10000"));
+    }
+
+    // Arguments after "backfill": --from-time=<ISO-8601 instant or epoch millis> | --from-offset=<offset>,
+    // optional --to-time, --to-offset, --rate=<messages per second>, --readers=<consumer threads> and
+    // --count-messages, which adds the range to channel_message_counts. Without it the counts stay as they are and
+    // must be rebuilt separately after restoring a cluster; with it, a range already counted is counted twice.
+    public static BackfillJob fromArgs(String[] args, ScyllaDB scyllaDB) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new ConfigException("Invalid backfill argument: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            // A flag without a value is switched on
+            if (separator < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        return new BackfillJob(scyllaDB, options);
+    }
+
+    // Throws if any reader failed, after all readers have stopped
+    public void run() throws InterruptedException {
+        Map<TopicPartition, Long> start;
+        Map<TopicPartition, Long> end;
+        MessageConsumer planner = new MessageConsumer(consumerProperties());
+        try {
+            List<TopicPartition> partitions = planner.partitionsFor(TOPIC);
+            end = resolveEnd(planner, partitions);
+            start = resolveStart(planner, partitions, end);
+        } finally {
+            planner.close();
+        }
+
+        long total = 0;
+        List<List<TopicPartition>> assignments = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            assignments.add(new ArrayList<>());
+        }
+        int next = 0;
+        for (Map.Entry<TopicPartition, Long> entry : start.entrySet()) {
+            long remaining = end.get(entry.getKey()) - entry.getValue();
+            if (remaining > 0) {
+                total += remaining;
+                assignments.get(next++ % readers).add(entry.getKey());
+            }
+        }
+        log.info("Backfilling {} records from {} partitions with {} readers, {}", total, start.size(), readers,
+                countMessages ? "adding them to the message counts" : "leaving the message counts as they are");
+        if (total == 0) {
+            return;
+        }
+
+        long startedAt = System.nanoTime();
+        final long totalRecords = total;
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> logProgress(totalRecords, startedAt),
+                progressIntervalMs, progressIntervalMs, TimeUnit.MILLISECONDS);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            List<TopicPartition> assigned = assignments.get(i);
+            if (assigned.isEmpty()) {
+                continue;
+            }
+            Thread thread = new Thread(() -> read(assigned, start, end), "backfill-reader-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            reporter.shutdownNow();
+        }
+        logProgress(totalRecords, startedAt);
+        if (failure.get() != null) {
+            throw new IllegalStateException("Backfill failed after " + processed.get() + " of " + totalRecords
+                    + " records, re-run it to complete the range", failure.get());
+        }
+        log.info("Backfill finished, {} records skipped as unparseable", skipped.get());
+    }
+
+    private void read(List<TopicPartition> assigned, Map<TopicPartition, Long> start, Map<TopicPartition, Long> end) {
+        MessageConsumer consumer = new MessageConsumer(consumerProperties());
+        try {
+            consumer.assign(assigned);
+            for (TopicPartition partition : assigned) {
+                consumer.seek(partition, start.get(partition));
+            }
+            Set<TopicPartition> remaining = new HashSet<>(assigned);
+            while (!remaining.isEmpty()) {
+                if (failure.get() != null) {
+                    log.info("Backfill reader for {} stops, another reader failed", assigned);
+                    return;
+                }
+                ConsumerRecords<String, byte[]> records = consumer.poll(pollTimeoutMs);
+                List<MessageRow> rows = new ArrayList<>(records.count());
+                long inRange = 0;
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    if (record.offset() >= end.get(partition)) {
+                        continue;
+                    }
+                    inRange++;
+                    try {
+                        ChatMessage message = ChatMessage.parseFrom(record.value());
+                        rows.add(new MessageRow(
+                            message.getChannel().getChannelId(),
+                            message.getMessageId(),
+                            message.getSender().getUserId(),
+                            message.getBody(),
+                            new Date(message.getTimeStamp())
+                        ));
+                    } catch (InvalidProtocolBufferException e) {
+                        skipped.incrementAndGet();
+                        log.warn("Skipping unparseable record at partition: {}, offset: {}", record.partition(), record.offset());
+                    }
+                }
+
+                rateLimiter.acquire(rows.size());
+                store(rows);
+                processed.addAndGet(inRange);
+
+                List<TopicPartition> finished = new ArrayList<>();
+                for (TopicPartition partition : remaining) {
+                    if (consumer.position(partition) >= end.get(partition)) {
+                        finished.add(partition);
+                    }
+                }
+                if (!finished.isEmpty()) {
+                    finished.forEach(remaining::remove);
+                    consumer.pause(finished);
+                    log.info("Backfill reached the end of {}", finished);
+                }
+            }
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+            log.error("Backfill reader for {} failed: {}", assigned, e.getMessage(), e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private void store(List<MessageRow> rows) throws InterruptedException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                // Only the first attempt counts, a failed one may already have applied the counter updates
+                scyllaDB.storeMessages(rows, countMessages && attempt == 1).get();
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    throw new IllegalStateException("Giving up on a batch of " + rows.size() + " messages after " + attempt + " attempts", e);
+                }
+                log.warn("Backfill write failed (attempt {}/{}): {}", attempt, maxRetries, e.getMessage());
+                Thread.sleep(Math.min(30_000L, 500L << attempt));
+            }
+        }
+    }
+
+    private Map<TopicPartition, Long> resolveEnd(MessageConsumer consumer, List<TopicPartition> partitions) {
+        Map<TopicPartition, Long> end = new HashMap<>(consumer.endOffsets(partitions));
+        if (toTime != null) {
+            Map<TopicPartition, Long> timestamps = new HashMap<>();
+            partitions.forEach(partition -> timestamps.put(partition, toTime));
+            consumer.offsetsForTimes(timestamps).forEach((partition, offset) -> {
+                if (offset != null) {
+                    end.put(partition, Math.min(end.get(partition), offset.offset()));
+                }
+            });
+        }
+        if (toOffset != null) {
+            end.replaceAll((partition, offset) -> Math.min(offset, toOffset));
+        }
+        return end;
+    }
+
+    private Map<TopicPartition, Long> resolveStart(MessageConsumer consumer, List<TopicPartition> partitions, Map<TopicPartition, Long> end) {
+        Map<TopicPartition, Long> start = new HashMap<>(consumer.beginningOffsets(partitions));
+        if (fromTime != null) {
+            Map<TopicPartition, Long> timestamps = new HashMap<>();
+            partitions.forEach(partition -> timestamps.put(partition, fromTime));
+            Map<TopicPartition, OffsetAndTimestamp> offsets = consumer.offsetsForTimes(timestamps);
+            // No record at or after the timestamp means there is nothing to backfill in that partition
+            start.replaceAll((partition, offset) -> offsets.get(partition) == null ? end.get(partition) : offsets.get(partition).offset());
+        } else if (fromOffset != null) {
+            start.replaceAll((partition, offset) -> Math.max(offset, fromOffset));
+        }
+        return start;
+    }
+
+    private void logProgress(long total, long startedAt) {
+        long done = processed.get();
+        double seconds = Math.max(1, System.nanoTime() - startedAt) / 1e9;
+        double rate = done / seconds;
+        String eta = rate > 0 ? Duration.ofSeconds((long) ((total - done) / rate)).toString() : "unknown";
+        log.info("Backfill progress: {}/{} records ({}%), {} msg/s, ETA {}",
+                done, total, done * 100 / total, (long) rate, eta);
+    }
+
+    private static Properties consumerProperties() {
+        Properties properties = new Properties();
+        // Never committed, the group id only identifies the backfill in broker logs and metrics
+        properties.put("group.id", Config.getProperty("backfill.group-id", "chat-backend-backfill"));
+        properties.put("enable.auto.commit", false);
+        properties.put("max.poll.records", Config.getProperty("backfill.max-poll-records", "5000"));
+        properties.put("fetch.min.bytes", Config.getProperty("backfill.fetch-min-bytes", "1048576"));
+        properties.put("fetch.max.bytes", Config.getProperty("backfill.fetch-max-bytes", "104857600"));
+        properties.put("max.partition.fetch.bytes", Config.getProperty("backfill.max-partition-fetch-bytes", "10485760"));
+        return properties;
+    }
+
+    private static Long parseTime(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException ignored) {
+                throw new ConfigException("Invalid backfill time: " + value);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.chatservice.dbpersistence.backfill;
+
+import org.example.chatservice.dbpersistence.config.Config;
+import org.example.chatservice.dbpersistence.scylla.MessageRow;
+import org.example.chatservice.dbpersistence.scylla.ScyllaDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies the legacy {@code messages} table, written before history was bucketed per channel and day, into
+ * {@code channel_messages} and {@code messages_by_sender}. Inserts are idempotent, so an interrupted migration is
+ * simply run again. The legacy table is left in place; drop it once the migration has finished.
+ * <p>
+ * Migrated messages are not added to channel_message_counts, which would count them again on every re-run.
+ */
+public class LegacyMigration {
+    private static final Logger log = LoggerFactory.getLogger(LegacyMigration.class.getSimpleName());
+    private final ScyllaDB scyllaDB;
+    private final int fetchSize;
+    private final int batchSize;
+    private final int maxRetries;
+    private final RateLimiter rateLimiter;
+
+    public LegacyMigration(ScyllaDB scyllaDB) {
+        this.scyllaDB = scyllaDB;
+        this.fetchSize = Integer.parseInt(Config.getProperty("migration.fetch-size", "1000"));
+        this.batchSize = Integer.parseInt(Config.getProperty("migration.batch-size", "500"));
+        this.maxRetries = Integer.parseInt(Config.getProperty("backfill.max-retries", "5"));
+        this.rateLimiter = new RateLimiter(Long.parseLong(Config.getProperty("backfill.rate-limit", "0")));
+    }
+
+    public void run() throws InterruptedException {
+        if (!scyllaDB.hasLegacyMessages()) {
+            log.info("No legacy messages table, nothing to migrate");
+            return;
+        }
+        long migrated = 0;
+        long skipped = 0;
+        List<MessageRow> batch = new ArrayList<>(batchSize);
+        for (MessageRow row : scyllaDB.legacyMessages(fetchSize)) {
+            // The legacy key was (channel_id, created_at), a row without a message id cannot be keyed anew
+            if (row.messageId() == null || row.messageId().isEmpty()) {
+                skipped++;
+                continue;
+            }
+            batch.add(row);
+            if (batch.size() == batchSize) {
+                store(batch);
+                migrated += batch.size();
+                batch.clear();
+                if (migrated % (100L * batchSize) == 0) {
+                    log.info("Migrated {} legacy messages", migrated);
+                }
+            }
+        }
+        store(batch);
+        migrated += batch.size();
+        log.info("Legacy migration finished: {} messages migrated, {} without a message id skipped", migrated, skipped);
+    }
+
+    private void store(List<MessageRow> rows) throws InterruptedException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        rateLimiter.acquire(rows.size());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                scyllaDB.storeMessages(rows, false).get();
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    throw new IllegalStateException("Giving up on a batch of " + rows.size() + " messages after "
+                            + attempt + " attempts, re-run the migration to complete it", e);
+                }
+                log.warn("Legacy migration write failed (attempt {}/{}): {}", attempt, maxRetries, e.getMessage());
+                Thread.sleep(Math.min(30_000L, 500L << attempt));
+            }
+        }
+    }
+}
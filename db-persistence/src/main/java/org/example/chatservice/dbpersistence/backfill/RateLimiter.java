@@ -0,0 +1,33 @@
+package org.example.chatservice.dbpersistence.backfill;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evenly spaced permits shared by all backfill readers. A rate of zero or less disables limiting.
+ */
+public class RateLimiter {
+    private final long nanosPerPermit;
+    private long nextFreeNanos = System.nanoTime();
+
+    public RateLimiter(long permitsPerSecond) {
+        this.nanosPerPermit = permitsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+    }
+
+    public void acquire(int permits) throws InterruptedException {
+        if (nanosPerPermit == 0 || permits <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) {
+                nextFreeNanos = now;
+            }
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += permits * nanosPerPermit;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
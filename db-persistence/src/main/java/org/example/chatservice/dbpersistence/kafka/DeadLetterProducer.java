@@ -0,0 +1,62 @@
+package org.example.chatservice.dbpersistence.kafka;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.example.chatservice.dbpersistence.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Publishes chat-stream records that could not be persisted to the dead-letter topic, unchanged, with headers
+ * describing where they came from and why they failed.
+ */
+public class DeadLetterProducer {
+    public static final String DLQ_TOPIC = "chat-stream-dlq";
+    public static final String HEADER_TOPIC = "dlq.original.topic";
+    public static final String HEADER_PARTITION = "dlq.original.partition";
+    public static final String HEADER_OFFSET = "dlq.original.offset";
+    public static final String HEADER_REASON = "dlq.reason";
+    public static final String HEADER_ERROR_CLASS = "dlq.error.class";
+    public static final String HEADER_ERROR_MESSAGE = "dlq.error.message";
+    public static final String HEADER_ATTEMPTS = "dlq.attempts";
+    public static final String HEADER_FAILED_AT = "dlq.failed-at";
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterProducer.class.getSimpleName());
+    private final KafkaProducer<String, byte[]> kafkaProducer;
+
+    public DeadLetterProducer() {
+        Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", Config.getProperty("kafka.consumer.bootstrap-servers"));
+        producerProps.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+        producerProps.put("value.serializer", "org.apache.kafka.common.serialization.ByteArraySerializer");
+        producerProps.put("acks", "all");
+        producerProps.put("enable.idempotence", true);
+
+        this.kafkaProducer = new KafkaProducer<>(producerProps);
+    }
+
+    public void send(String topic, int partition, long offset, String key, byte[] value,
+                     String reason, Throwable error, int attempts, Callback callback) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(DLQ_TOPIC, key, value);
+        Headers headers = record.headers();
+        headers.add(HEADER_TOPIC, topic.getBytes(UTF_8));
+        headers.add(HEADER_PARTITION, String.valueOf(partition).getBytes(UTF_8));
+        headers.add(HEADER_OFFSET, String.valueOf(offset).getBytes(UTF_8));
+        headers.add(HEADER_REASON, reason.getBytes(UTF_8));
+        headers.add(HEADER_ERROR_CLASS, error.getClass().getName().getBytes(UTF_8));
+        headers.add(HEADER_ERROR_MESSAGE, String.valueOf(error.getMessage()).getBytes(UTF_8));
+        headers.add(HEADER_ATTEMPTS, String.valueOf(attempts).getBytes(UTF_8));
+        headers.add(HEADER_FAILED_AT, String.valueOf(System.currentTimeMillis()).getBytes(UTF_8));
+        log.warn("Dead-lettering record at {}-{}, offset: {}, reason: {}, error: {}", topic, partition, offset, reason, error.getMessage());
+        kafkaProducer.send(record, callback);
+    }
+
+    public void close() {
+        kafkaProducer.close();
+    }
+}
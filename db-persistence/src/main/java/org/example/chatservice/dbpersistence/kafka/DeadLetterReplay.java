@@ -0,0 +1,101 @@
+package org.example.chatservice.dbpersistence.kafka;
+
+import com.example.chat.proto.ChatMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.example.chatservice.dbpersistence.config.Config;
+import org.example.chatservice.dbpersistence.scylla.MessageRow;
+import org.example.chatservice.dbpersistence.scylla.ScyllaDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Drains the dead-letter topic up to its end offsets at start: every record that parses is written to ScyllaDB
+ * (inserts are idempotent) and the replay group's offsets are committed after each stored poll. Records that
+ * still cannot be parsed are logged with their diagnostic headers and skipped.
+ */
+public class DeadLetterReplay {
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterReplay.class.getSimpleName());
+    private final ScyllaDB scyllaDB;
+
+    public DeadLetterReplay(ScyllaDB scyllaDB) {
+        this.scyllaDB = scyllaDB;
+    }
+
+    public void run() throws Exception {
+        Properties overrides = new Properties();
+        overrides.put("group.id", Config.getProperty("dlq.replay.group-id", "chat-stream-dlq-replay"));
+        overrides.put("auto.offset.reset", "earliest");
+        MessageConsumer consumer = new MessageConsumer(overrides);
+        long pollTimeoutMs = Long.parseLong(Config.getProperty("kafka.consumer.poll-timeout-ms", "1000"));
+        long replayed = 0;
+        long skipped = 0;
+        try {
+            List<TopicPartition> partitions = consumer.partitionsFor(DeadLetterProducer.DLQ_TOPIC);
+            Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+            consumer.assign(partitions);
+            while (!caughtUp(consumer, partitions, end)) {
+                ConsumerRecords<String, byte[]> records = consumer.poll(pollTimeoutMs);
+                List<MessageRow> rows = new ArrayList<>(records.count());
+                Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    commits.put(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1));
+                    try {
+                        ChatMessage message = ChatMessage.parseFrom(record.value());
+                        rows.add(new MessageRow(
+                            message.getChannel().getChannelId(),
+                            message.getMessageId(),
+                            message.getSender().getUserId(),
+                            message.getBody(),
+                            new Date(message.getTimeStamp())
+                        ));
+                    } catch (InvalidProtocolBufferException e) {
+                        skipped++;
+                        log.warn("Skipping unparseable dead letter from {}-{} offset {}, reason: {}",
+                                header(record, DeadLetterProducer.HEADER_TOPIC), header(record, DeadLetterProducer.HEADER_PARTITION),
+                                header(record, DeadLetterProducer.HEADER_OFFSET), header(record, DeadLetterProducer.HEADER_REASON));
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    // A failure aborts the replay before committing, the next run starts from the same records.
+                    // Dead-lettered messages were counted when the worker first tried to store them.
+                    scyllaDB.storeMessages(rows, false).get();
+                    replayed += rows.size();
+                }
+                if (!commits.isEmpty()) {
+                    consumer.commitSync(commits);
+                }
+            }
+        } finally {
+            consumer.close();
+        }
+        log.info("Dead-letter replay finished: {} messages stored, {} skipped", replayed, skipped);
+    }
+
+    private static boolean caughtUp(MessageConsumer consumer, List<TopicPartition> partitions, Map<TopicPartition, Long> end) {
+        for (TopicPartition partition : partitions) {
+            if (consumer.position(partition) < end.get(partition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String header(ConsumerRecord<String, byte[]> record, String key) {
+        Header header = record.headers().lastHeader(key);
+        return header == null ? "?" : new String(header.value(), UTF_8);
+    }
+}
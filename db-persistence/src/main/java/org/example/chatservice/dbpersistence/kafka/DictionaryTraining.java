@@ -0,0 +1,107 @@
+package org.example.chatservice.dbpersistence.kafka;
+
+import com.example.chat.proto.ChatMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.example.chatservice.dbpersistence.config.Config;
+import org.example.chatservice.dbpersistence.config.ConfigException;
+import org.example.chatservice.dbpersistence.scylla.BodyCodec;
+import org.example.chatservice.dbpersistence.scylla.ScyllaDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Trains a new body dictionary from the most recent chat-stream messages and stores it as the next version in
+ * {@code body_dictionaries}. Partitions are assigned directly and nothing is committed. Writers running with
+ * scylla.body.encoding=dictionary pick up the new version when they restart; rows written with older versions
+ * stay readable.
+ */
+public class DictionaryTraining {
+    private static final Logger log = LoggerFactory.getLogger(DictionaryTraining.class.getSimpleName());
+    private static final String TOPIC = "chat-stream";
+    private final ScyllaDB scyllaDB;
+
+    public DictionaryTraining(ScyllaDB scyllaDB) {
+        this.scyllaDB = scyllaDB;
+    }
+
+    public void run() {
+        int sampleSize = Integer.parseInt(Config.getProperty("dictionary.sample-size", "100000"));
+        int dictionarySize = Integer.parseInt(Config.getProperty("dictionary.size-bytes", "65536"));
+        int level = Integer.parseInt(Config.getProperty("scylla.body.zstd-level", "3"));
+        long pollTimeoutMs = Long.parseLong(Config.getProperty("kafka.consumer.poll-timeout-ms", "1000"));
+
+        List<String> samples = new ArrayList<>(sampleSize);
+        Properties overrides = new Properties();
+        overrides.put("group.id", Config.getProperty("dictionary.group-id", "chat-backend-dictionary"));
+        overrides.put("enable.auto.commit", "false");
+        MessageConsumer consumer = new MessageConsumer(overrides);
+        try {
+            // The tail of every partition, an equal share each
+            List<TopicPartition> partitions = consumer.partitionsFor(TOPIC);
+            if (partitions.isEmpty()) {
+                throw new ConfigException("Topic " + TOPIC + " does not exist or has no partitions, nothing to train a dictionary on");
+            }
+            Map<TopicPartition, Long> beginning = consumer.beginningOffsets(partitions);
+            Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+            long perPartition = Math.max(1, sampleSize / partitions.size());
+            consumer.assign(partitions);
+            for (TopicPartition partition : partitions) {
+                consumer.seek(partition, Math.max(beginning.get(partition), end.get(partition) - perPartition));
+            }
+            while (samples.size() < sampleSize && !caughtUp(consumer, partitions, end)) {
+                ConsumerRecords<String, byte[]> records = consumer.poll(pollTimeoutMs);
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    if (record.offset() >= end.get(new TopicPartition(record.topic(), record.partition()))) {
+                        continue;
+                    }
+                    try {
+                        String body = ChatMessage.parseFrom(record.value()).getBody();
+                        if (!body.isEmpty()) {
+                            samples.add(body);
+                        }
+                    } catch (InvalidProtocolBufferException e) {
+                        log.warn("Skipping unparseable record at partition: {}, offset: {}", record.partition(), record.offset());
+                    }
+                }
+            }
+        } finally {
+            consumer.close();
+        }
+        if (samples.size() < 1000) {
+            throw new ConfigException("Not enough messages in " + TOPIC + " to train a dictionary: " + samples.size());
+        }
+
+        byte[] dictionary = BodyCodec.train(samples, dictionarySize);
+        int version = scyllaDB.storeBodyDictionary(dictionary);
+
+        // Compression ratio on the training sample, as a rough guide
+        BodyCodec codec = new BodyCodec(version, dictionary, level);
+        long plainBytes = 0;
+        long encodedBytes = 0;
+        for (String sample : samples) {
+            plainBytes += sample.getBytes(UTF_8).length;
+            encodedBytes += codec.encode(sample).remaining();
+        }
+        log.info("Stored body dictionary version {} ({} bytes) trained on {} messages, sample compresses {} -> {} bytes",
+                version, dictionary.length, samples.size(), plainBytes, encodedBytes);
+    }
+
+    private static boolean caughtUp(MessageConsumer consumer, List<TopicPartition> partitions, Map<TopicPartition, Long> end) {
+        for (TopicPartition partition : partitions) {
+            if (consumer.position(partition) < end.get(partition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,21 +1,33 @@
 package org.example.chatservice.dbpersistence.kafka;
 
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.example.chatservice.dbpersistence.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 public class MessageConsumer {
     private static final Logger log = LoggerFactory.getLogger(MessageConsumer.class);
     private final KafkaConsumer<String, byte[]> kafkaConsumer;
 
     public MessageConsumer() {
+        this(new Properties());
+    }
+
+    // Overrides replace the defaults from dbpersistence.properties, e.g. for the backfill consumers
+    public MessageConsumer(Properties overrides) {
         Properties consumerProps = new Properties();
         consumerProps.put("bootstrap.servers", Config.getProperty("kafka.consumer.bootstrap-servers"));
         consumerProps.put("group.id", Config.getProperty("kafka.consumer.group-id"));
@@ -23,6 +35,9 @@ public class MessageConsumer {
         consumerProps.put("value.deserializer", Config.getProperty("kafka.consumer.value-deserializer"));
         consumerProps.put("auto.offset.reset", Config.getProperty("kafka.consumer.auto-offset-reset", "earliest"));
         consumerProps.put("enable.auto.commit", Boolean.parseBoolean(Config.getProperty("kafka.consumer.enable-auto-commit", "false")));
+        consumerProps.put("partition.assignment.strategy", Config.getProperty("kafka.consumer.partition-assignment-strategy",
+                "org.apache.kafka.clients.consumer.CooperativeStickyAssignor"));
+        consumerProps.putAll(overrides);
 
         this.kafkaConsumer = new KafkaConsumer<String, byte[]>(consumerProps);
     }
@@ -36,6 +51,45 @@ public class MessageConsumer {
         log.info("Subscribed to topic '{}' for partitions: {}", topic, partitions);
     }
 
+    public void subscribe(String topic, ConsumerRebalanceListener listener) {
+        kafkaConsumer.subscribe(List.of(topic), listener);
+        log.info("Subscribed to topic '{}' with group '{}'", topic, Config.getProperty("kafka.consumer.group-id"));
+    }
+
+    public void assign(Collection<TopicPartition> partitions) {
+        kafkaConsumer.assign(partitions);
+        log.info("Assigned partitions: {}", partitions);
+    }
+
+    public List<TopicPartition> partitionsFor(String topic) {
+        List<TopicPartition> partitions = new ArrayList<>();
+        List<PartitionInfo> infos = kafkaConsumer.partitionsFor(topic);
+        if (infos == null) {
+            // The client answers a topic it has no metadata for with null rather than an empty list
+            return partitions;
+        }
+        for (PartitionInfo info : infos) {
+            partitions.add(new TopicPartition(info.topic(), info.partition()));
+        }
+        return partitions;
+    }
+
+    public Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(Map<TopicPartition, Long> timestamps) {
+        return kafkaConsumer.offsetsForTimes(timestamps);
+    }
+
+    public Map<TopicPartition, Long> beginningOffsets(Collection<TopicPartition> partitions) {
+        return kafkaConsumer.beginningOffsets(partitions);
+    }
+
+    public Map<TopicPartition, Long> endOffsets(Collection<TopicPartition> partitions) {
+        return kafkaConsumer.endOffsets(partitions);
+    }
+
+    public long position(TopicPartition partition) {
+        return kafkaConsumer.position(partition);
+    }
+
     public ConsumerRecords<String, byte[]> poll(long timeout) {
         return kafkaConsumer.poll(java.time.Duration.ofMillis(timeout));
     }
@@ -47,4 +101,44 @@ public class MessageConsumer {
     public void commitSync(){
         kafkaConsumer.commitSync();
     }
+
+    public void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets){
+        kafkaConsumer.commitSync(offsets);
+    }
+
+    public void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets){
+        kafkaConsumer.commitAsync(offsets, (committed, exception) -> {
+            if (exception != null) {
+                log.warn("Failed to commit offsets {}: {}", committed, exception.getMessage());
+            }
+        });
+    }
+
+    public Map<TopicPartition, OffsetAndMetadata> committed(Set<TopicPartition> partitions) {
+        return kafkaConsumer.committed(partitions);
+    }
+
+    public Set<TopicPartition> assignment() {
+        return kafkaConsumer.assignment();
+    }
+
+    public Set<TopicPartition> paused() {
+        return kafkaConsumer.paused();
+    }
+
+    public void pause(Collection<TopicPartition> partitions) {
+        kafkaConsumer.pause(partitions);
+    }
+
+    public void resume(Collection<TopicPartition> partitions) {
+        kafkaConsumer.resume(partitions);
+    }
+
+    public void seek(TopicPartition partition, long offset) {
+        kafkaConsumer.seek(partition, offset);
+    }
+
+    public void close() {
+        kafkaConsumer.close();
+    }
 }
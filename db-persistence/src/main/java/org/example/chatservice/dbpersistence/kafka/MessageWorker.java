@@ -1,85 +1,440 @@
 package org.example.chatservice.dbpersistence.kafka;
 
-import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.exceptions.QueryValidationException;
 import com.example.chat.proto.ChatMessage;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
 import org.example.chatservice.dbpersistence.config.Config;
+import org.example.chatservice.dbpersistence.scylla.MessageRow;
 import org.example.chatservice.dbpersistence.scylla.ScyllaDB;
+import org.example.chatservice.dbpersistence.spool.Spool;
+import org.example.chatservice.dbpersistence.spool.SpoolRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-public class MessageWorker implements Runnable{
+/**
+ * Persists chat-stream records for the partitions the consumer group assigns to this worker, without waiting
+ * for a poll's writes before polling again. Up to
+ * {@code pipeline.max-in-flight} records may be in flight across polls; beyond that the consumer is paused.
+ * Offsets are committed per partition up to the highest contiguous persisted record. Transient write failures are
+ * retried with exponential backoff for as long as they last, with the partition paused meanwhile; only rows
+ * ScyllaDB rejects as invalid on their own and records that cannot be parsed are dead-lettered. A commit never
+ * skips a lost message. Before a partition is revoked its in-flight writes are drained and its offset committed,
+ * so the next owner starts where this one stopped. With a {@link Spool} every poll is appended to it instead and counts as completed once it is durable
+ * there; the consumer pauses while the spool is full.
+ */
+public class MessageWorker implements Runnable, ConsumerRebalanceListener {
+    // Poll timeout while partitions are paused, so completions are picked up promptly
+    private static final long PAUSED_POLL_TIMEOUT_MS = 10;
     private final Logger log;
-    private final Integer startPartition;
-    private final Integer totalPartitions;
+    private final int workerId;
     private final MessageConsumer consumer;
     private final ScyllaDB scyllaDB;
+    private final RetryScheduler retryScheduler;
+    private final DeadLetterProducer deadLetters;
+    // Null unless spool.enabled
+    private final Spool spool;
+    private final boolean batchWrites;
+    private final WriteStats writeStats;
+    private final long pollTimeoutMs;
+    private final long maxInFlight;
+    private final long retryBackoffMs;
+    private final long revokeDrainMs;
+    private final OffsetTracker offsets = new OffsetTracker();
+    // Writes complete on driver and producer threads, the consumer may only be touched from the polling thread
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    private final Map<TopicPartition, Long> backoffUntil = new HashMap<>();
+    // Partitions with a write waiting for its retry stay paused until it succeeds
+    private final Map<TopicPartition, Set<Write>> retrying = new HashMap<>();
+    private boolean windowFull;
 
-    public MessageWorker(Integer startPartition, Integer totalPartitions) {
-        log = LoggerFactory.getLogger(MessageWorker.class.getSimpleName() + "-Partition-" + startPartition);
-        this.startPartition = startPartition;
-        this.totalPartitions = totalPartitions;
+    public MessageWorker(int workerId, ScyllaDB scyllaDB, RetryScheduler retryScheduler, DeadLetterProducer deadLetters,
+                         Spool spool) {
+        log = LoggerFactory.getLogger(MessageWorker.class.getSimpleName() + "-" + workerId);
+        this.workerId = workerId;
         this.consumer = new MessageConsumer();
-        this.scyllaDB = new ScyllaDB();
+        this.scyllaDB = scyllaDB;
+        this.retryScheduler = retryScheduler;
+        this.deadLetters = deadLetters;
+        this.spool = spool;
+        // "batch" groups each poll into per-partition UNLOGGED batches, "single" writes one INSERT per record
+        String writeMode = Config.getProperty("scylla.write-mode", "batch");
+        this.batchWrites = !"single".equalsIgnoreCase(writeMode);
+        this.writeStats = new WriteStats(log, writeMode, Long.parseLong(Config.getProperty("stats.log-interval-ms", "10000")));
+        this.pollTimeoutMs = Long.parseLong(Config.getProperty("kafka.consumer.poll-timeout-ms", "1000"));
+        this.maxInFlight = Long.parseLong(Config.getProperty("pipeline.max-in-flight", "5000"));
+        this.retryBackoffMs = Long.parseLong(Config.getProperty("pipeline.retry-backoff-ms", "1000"));
+        this.revokeDrainMs = Long.parseLong(Config.getProperty("pipeline.revoke-drain-ms", "5000"));
     }
 
     @Override
     public void run() {
-        consumer.subscribe("chat-stream", startPartition, totalPartitions);
-        log.info("Started MessageWorker for partitions starting at {} to {}", startPartition, startPartition + totalPartitions);
+        consumer.subscribe("chat-stream", this);
+        log.info("Started MessageWorker {}", workerId);
         try {
             while (true) {
-                final ConsumerRecords<String, byte[]> records = consumer.poll(Integer.parseInt(Config.getProperty("kafka.consumer.poll-timeout-ms", "1000")));
-                List<ResultSetFuture> futures = new ArrayList<>();
-
-                records.forEach(record -> {
-                    log.info("Processing record with partition: {}, offset: {}",
-                            record.partition(), record.offset());
-                    try {
-                        ChatMessage message = ChatMessage.parseFrom(record.value());
-                        ResultSetFuture resultSetFuture = scyllaDB.storeMessage(
-                            message.getChannel().getChannelId(),
-                            message.getMessageId(),
-                            message.getSender().getUserId(),
-                            message.getBody(),
-                            new Date(message.getTimeStamp())
-                        );
-                        futures.add(resultSetFuture);
-                    } catch (InvalidProtocolBufferException e) {
-                        log.error("Failed to parse ChatMessage from record at partition: {}, offset: {}, value: {}",
-                                record.partition(), record.offset(), e.getMessage());
-                    }
-                });
+                applyCompletions();
+                Map<TopicPartition, OffsetAndMetadata> committable = offsets.committable();
+                if (!committable.isEmpty()) {
+                    consumer.commitAsync(committable);
+                }
+                updatePauses();
 
-                try {
-                    for (ResultSetFuture future : futures) {
-                        future.get();
-                    }
-                    consumer.commitSync();
-                    log.info("Successfully stored {} messages and committed offsets", futures.size());
-                } catch (Exception e) {
-                    log.error("Error while waiting for futures to complete: {}", e.getMessage(), e);
+                final ConsumerRecords<String, byte[]> records = consumer.poll(consumer.paused().isEmpty() ? pollTimeoutMs : PAUSED_POLL_TIMEOUT_MS);
+                if (!records.isEmpty()) {
+                    submit(records);
                 }
             }
         } catch (WakeupException e) {
-            log.info("Shutdown signal received for MessageWorker starting at partition {}", startPartition);
+            log.info("Shutdown signal received for MessageWorker {}", workerId);
         } catch (Exception e) {
-            log.error("Unexpected error in MessageWorker starting at partition {}: {}", startPartition, e.getMessage(), e);
+            log.error("Unexpected error in MessageWorker {}: {}", workerId, e.getMessage(), e);
         } finally {
-            log.info("Closing consumer for MessageWorker starting at partition {}", startPartition);
+            log.info("Closing consumer for MessageWorker {}", workerId);
+            // Commit what has completed so far, writes still in flight are read again on restart
+            try {
+                applyCompletions();
+                Map<TopicPartition, OffsetAndMetadata> committable = offsets.committable();
+                if (!committable.isEmpty()) {
+                    consumer.commitSync(committable);
+                }
+            } catch (Exception e) {
+                log.warn("Final offset commit failed: {}", e.getMessage());
+            }
+            consumer.close();
+        }
+    }
+
+    private void submit(ConsumerRecords<String, byte[]> records) {
+        if (spool != null && spool(records)) {
+            return;
+        }
+        // One write per partition, so a failing write only holds back, pauses and rewinds its own partition. Records
+        // counted before, read again after a rewind or from a previous owner, are stored without counting.
+        Map<TopicPartition, Write> writes = new LinkedHashMap<>();
+        Map<TopicPartition, Write> replays = new LinkedHashMap<>();
+        records.forEach(record -> {
+            log.debug("Processing record with partition: {}, offset: {}",
+                    record.partition(), record.offset());
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            offsets.submitted(partition, record.offset());
+            boolean counted = offsets.count(partition, record.offset());
+            Pending submitted = new Pending(partition, record.offset(), offsets.generation(partition), record.key(), record.value());
+            try {
+                ChatMessage message = ChatMessage.parseFrom(record.value());
+                Write write = (counted ? writes : replays).computeIfAbsent(partition,
+                        p -> new Write(new ArrayList<>(), new ArrayList<>(), counted));
+                write.rows.add(new MessageRow(
+                    message.getChannel().getChannelId(),
+                    message.getMessageId(),
+                    message.getSender().getUserId(),
+                    message.getBody(),
+                    new Date(message.getTimeStamp())
+                ));
+                write.records.add(submitted);
+            } catch (InvalidProtocolBufferException e) {
+                log.error("Failed to parse ChatMessage from record at partition: {}, offset: {}, value: {}",
+                        record.partition(), record.offset(), e.getMessage());
+                // Retrying cannot help, the record goes straight to the dead-letter topic
+                deadLetter(submitted, "parse-failed", e, 1);
+            }
+        });
+        writes.values().forEach(this::submit);
+        replays.values().forEach(this::submit);
+    }
+
+    private void submit(Write write) {
+        if (batchWrites) {
+            store(write);
+        } else {
+            for (int i = 0; i < write.rows.size(); i++) {
+                store(new Write(List.of(write.rows.get(i)), List.of(write.records.get(i)), write.countMessages));
+            }
+        }
+    }
+
+    // The poll is acknowledged once it is durable in the spool, the drainer writes it to ScyllaDB. Returns false if
+    // the spool cannot take it, the poll is then written directly.
+    private boolean spool(ConsumerRecords<String, byte[]> records) {
+        List<SpoolRecord> spooled = new ArrayList<>(records.count());
+        records.forEach(record -> spooled.add(
+                new SpoolRecord(record.topic(), record.partition(), record.offset(), record.key(), record.value())));
+        try {
+            spool.append(spooled);
+        } catch (IOException e) {
+            log.error("Spooling {} records failed, writing them directly: {}", spooled.size(), e.getMessage());
+            return false;
+        }
+        records.forEach(record -> {
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            offsets.submitted(partition, record.offset());
+            offsets.completed(partition, record.offset(), offsets.generation(partition));
+        });
+        return true;
+    }
+
+    // Also called from the retry scheduler, the outcome is handed back to the polling thread. Only the first attempt
+    // counts the messages, a failed attempt may already have applied the counter update.
+    private void store(Write write) {
+        write.attempts++;
+        boolean countMessages = write.countMessages && write.attempts == 1;
+        long start = System.nanoTime();
+        ListenableFuture<?> future = write.rows.size() == 1
+                ? scyllaDB.storeMessage(write.rows.get(0).channelId(), write.rows.get(0).messageId(),
+                        write.rows.get(0).sender(), write.rows.get(0).body(), write.rows.get(0).timestamp(), countMessages)
+                : scyllaDB.storeMessages(write.rows, countMessages);
+        Futures.addCallback(future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                long latencyNanos = System.nanoTime() - start;
+                completions.add(() -> onWritten(write, latencyNanos));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                completions.add(() -> onWriteFailed(write, t));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void onWritten(Write write, long latencyNanos) {
+        doneRetrying(write);
+        for (Pending record : write.records) {
+            offsets.completed(record.partition, record.offset, record.generation);
+        }
+        writeStats.record(write.records.size(), latencyNanos);
+    }
+
+    // Unavailable hosts, timeouts and other transient failures are retried with backoff until ScyllaDB is back, an
+    // outage must not dead-letter live traffic. The offsets stay pending, so nothing is committed past them, and the
+    // partitions stop polling while they wait. Only rows ScyllaDB rejects as invalid on their own are dead-lettered:
+    // one invalid row fails its whole write, part of which may already be applied, so the rows of a rejected write
+    // are tried again one by one. They are not counted again, the failed write may have counted them.
+    private void onWriteFailed(Write write, Throwable error) {
+        // Records of revoked or rewound partitions are someone else's, or will be read again
+        if (write.records.stream().noneMatch(record -> offsets.isCurrent(record.partition, record.generation))) {
+            doneRetrying(write);
+            return;
+        }
+        if (!(error instanceof QueryValidationException)) {
+            long delay = retryScheduler.delayFor(write.attempts);
+            log.warn("Write of {} messages failed (attempt {}), retrying in {} ms: {}",
+                    write.rows.size(), write.attempts, delay, error.getMessage());
+            for (Pending record : write.records) {
+                retrying.computeIfAbsent(record.partition, p -> new HashSet<>()).add(write);
+            }
+            retryScheduler.schedule(() -> store(write), delay);
+            return;
+        }
+        doneRetrying(write);
+        if (write.rows.size() > 1) {
+            log.warn("Write of {} messages was rejected, writing them one by one: {}", write.rows.size(), error.getMessage());
+            for (int i = 0; i < write.rows.size(); i++) {
+                Pending record = write.records.get(i);
+                if (offsets.isCurrent(record.partition, record.generation)) {
+                    store(new Write(List.of(write.rows.get(i)), List.of(record), false));
+                }
+            }
+            return;
+        }
+        for (Pending record : write.records) {
+            if (offsets.isCurrent(record.partition, record.generation)) {
+                deadLetter(record, "write-failed", error, write.attempts);
+            }
+        }
+    }
+
+    private void doneRetrying(Write write) {
+        for (Pending record : write.records) {
+            Set<Write> writes = retrying.get(record.partition);
+            if (writes != null && writes.remove(write) && writes.isEmpty()) {
+                retrying.remove(record.partition);
+            }
+        }
+    }
+
+    private void deadLetter(Pending record, String reason, Throwable error, int attempts) {
+        deadLetters.send(record.partition.topic(), record.partition.partition(), record.offset, record.key, record.value,
+                reason, error, attempts, (metadata, exception) -> completions.add(() -> {
+                    if (exception == null) {
+                        offsets.completed(record.partition, record.offset, record.generation);
+                    } else if (record.generation == offsets.generation(record.partition)) {
+                        rewind(record.partition, exception);
+                    }
+                }));
+    }
+
+    // Last resort when a record can neither be stored nor dead-lettered: read the partition again from its first
+    // unpersisted record after a pause
+    private void rewind(TopicPartition partition, Exception cause) {
+        long offset = offsets.rewind(partition);
+        if (offset >= 0) {
+            log.warn("Dead-lettering failed for {}, rewinding to offset {} and retrying in {} ms: {}",
+                    partition, offset, retryBackoffMs, cause.getMessage());
+            consumer.seek(partition, offset);
+            backoffUntil.put(partition, System.currentTimeMillis() + retryBackoffMs);
+        }
+    }
+
+    private void applyCompletions() {
+        Runnable completion;
+        while ((completion = completions.poll()) != null) {
+            completion.run();
+        }
+    }
+
+    // Pauses every partition while the in-flight window or the spool is full, partitions backing off after a failed
+    // dead-letter and partitions with a write waiting for its retry
+    private void updatePauses() {
+        long inFlight = offsets.inFlight();
+        boolean spoolFull = spool != null && !spool.hasCapacity();
+        boolean full = spoolFull || inFlight >= maxInFlight || (windowFull && inFlight > maxInFlight / 2);
+        if (full != windowFull) {
+            if (spoolFull) {
+                log.warn("Spool full at {} bytes, pausing until it drains", spool.sizeBytes());
+            }
+            log.debug("In-flight window {} at {} records", full ? "full" : "drained", inFlight);
+            windowFull = full;
+        }
+        long now = System.currentTimeMillis();
+        backoffUntil.values().removeIf(until -> until <= now);
+
+        Set<TopicPartition> wanted = new HashSet<>(windowFull ? consumer.assignment() : backoffUntil.keySet());
+        if (!windowFull) {
+            wanted.addAll(retrying.keySet());
+        }
+        Set<TopicPartition> paused = consumer.paused();
+        List<TopicPartition> toPause = new ArrayList<>();
+        for (TopicPartition partition : wanted) {
+            if (!paused.contains(partition)) {
+                toPause.add(partition);
+            }
+        }
+        List<TopicPartition> toResume = new ArrayList<>();
+        for (TopicPartition partition : paused) {
+            if (!wanted.contains(partition)) {
+                toResume.add(partition);
+            }
+        }
+        if (!toPause.isEmpty()) {
+            consumer.pause(toPause);
+        }
+        if (!toResume.isEmpty()) {
+            consumer.resume(toResume);
         }
     }
 
-    public void shutdown(CountDownLatch countDownLatch){
-        log.info("Shutdown initiated for MessageWorker starting at partition {}", startPartition);
+    // Called from within poll on this worker's thread
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + revokeDrainMs;
+        applyCompletions();
+        while (inFlight(partitions) > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(PAUSED_POLL_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            applyCompletions();
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> committable = offsets.committable();
+        try {
+            if (!committable.isEmpty()) {
+                consumer.commitSync(committable);
+            }
+        } catch (Exception e) {
+            log.warn("Offset commit on revocation failed: {}", e.getMessage());
+        }
+        long abandoned = inFlight(partitions);
+        if (abandoned > 0) {
+            log.warn("Revoking {} with {} writes still in flight, the next owner re-reads them", partitions, abandoned);
+        }
+        forget(partitions);
+        log.info("Partitions revoked: {}", partitions);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        log.info("Partitions assigned: {}", partitions);
+        if (partitions.isEmpty()) {
+            return;
+        }
+        try {
+            consumer.committed(new HashSet<>(partitions)).forEach(offsets::assigned);
+        } catch (Exception e) {
+            // Records the previous owner had counted but not committed are counted again
+            log.warn("Could not read the committed offsets of {}: {}", partitions, e.getMessage());
+        }
+    }
+
+    // Partitions were already reassigned elsewhere, committing for them would fail
+    @Override
+    public void onPartitionsLost(Collection<TopicPartition> partitions) {
+        log.warn("Partitions lost: {}", partitions);
+        forget(partitions);
+    }
+
+    private long inFlight(Collection<TopicPartition> partitions) {
+        long inFlight = 0;
+        for (TopicPartition partition : partitions) {
+            inFlight += offsets.inFlight(partition);
+        }
+        return inFlight;
+    }
+
+    private void forget(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            offsets.remove(partition);
+            backoffUntil.remove(partition);
+            retrying.remove(partition);
+        }
+    }
+
+    // Wakes the polling thread, which commits what has completed and closes the consumer
+    public void shutdown(){
+        log.info("Shutdown initiated for MessageWorker {}", workerId);
         consumer.shutdown();
-        countDownLatch.countDown();
+    }
+
+    private record Pending(TopicPartition partition, long offset, int generation, String key, byte[] value) {
+    }
+
+    private static final class Write {
+        private final List<MessageRow> rows;
+        private final List<Pending> records;
+        private final boolean countMessages;
+        private volatile int attempts;
+
+        private Write(List<MessageRow> rows, List<Pending> records, boolean countMessages) {
+            this.rows = rows;
+            this.records = records;
+            this.countMessages = countMessages;
+        }
     }
 }
@@ -0,0 +1,131 @@
+package org.example.chatservice.dbpersistence.kafka;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks submitted and completed offsets per partition so that only the highest contiguous completed offset is
+ * ever committed, no matter in which order writes finish. Only used from the polling thread.
+ * <p>
+ * It also remembers the highest offset whose message was counted in channel_message_counts. That offset travels in
+ * the commit metadata, so records read again after a rewind, a rebalance or a restart are not counted twice.
+ */
+public class OffsetTracker {
+    private static final String COUNTED_PREFIX = "counted=";
+    private final Map<TopicPartition, PartitionOffsets> partitions = new HashMap<>();
+    private long inFlight;
+
+    public void submitted(TopicPartition partition, long offset) {
+        partitions.computeIfAbsent(partition, p -> new PartitionOffsets()).pending.addLast(offset);
+        inFlight++;
+    }
+
+    // Completions from before the last rewind of the partition are ignored
+    public void completed(TopicPartition partition, long offset, int generation) {
+        PartitionOffsets offsets = partitions.get(partition);
+        if (offsets == null || offsets.generation != generation) {
+            return;
+        }
+        offsets.done.add(offset);
+        while (!offsets.pending.isEmpty() && offsets.done.remove(offsets.pending.peekFirst())) {
+            offsets.next = offsets.pending.removeFirst() + 1;
+            inFlight--;
+        }
+    }
+
+    // Marks a submitted record as counted. Returns false if it was counted before, by this worker or a previous owner.
+    public boolean count(TopicPartition partition, long offset) {
+        PartitionOffsets offsets = partitions.computeIfAbsent(partition, p -> new PartitionOffsets());
+        if (offset <= offsets.countedThrough) {
+            return false;
+        }
+        offsets.countedThrough = offset;
+        return true;
+    }
+
+    // Picks up how far the partition's previous owner counted, from the metadata of its last commit
+    public void assigned(TopicPartition partition, OffsetAndMetadata committed) {
+        if (committed == null || committed.metadata() == null || !committed.metadata().startsWith(COUNTED_PREFIX)) {
+            return;
+        }
+        try {
+            long countedThrough = Long.parseLong(committed.metadata().substring(COUNTED_PREFIX.length()));
+            PartitionOffsets offsets = partitions.computeIfAbsent(partition, p -> new PartitionOffsets());
+            offsets.countedThrough = Math.max(offsets.countedThrough, countedThrough);
+        } catch (NumberFormatException ignored) {
+            // Not written by this tracker, every record is counted
+        }
+    }
+
+    public int generation(TopicPartition partition) {
+        PartitionOffsets offsets = partitions.get(partition);
+        return offsets == null ? 0 : offsets.generation;
+    }
+
+    public boolean isCurrent(TopicPartition partition, int generation) {
+        PartitionOffsets offsets = partitions.get(partition);
+        return offsets != null && offsets.generation == generation;
+    }
+
+    // Drops everything in flight for the partition and returns the first offset that is not persisted yet,
+    // or -1 if nothing was pending
+    public long rewind(TopicPartition partition) {
+        PartitionOffsets offsets = partitions.get(partition);
+        if (offsets == null || offsets.pending.isEmpty()) {
+            return -1;
+        }
+        long first = offsets.pending.peekFirst();
+        inFlight -= offsets.pending.size();
+        offsets.pending.clear();
+        offsets.done.clear();
+        offsets.generation++;
+        return first;
+    }
+
+    public long inFlight() {
+        return inFlight;
+    }
+
+    public long inFlight(TopicPartition partition) {
+        PartitionOffsets offsets = partitions.get(partition);
+        return offsets == null ? 0 : offsets.pending.size();
+    }
+
+    // Forgets a partition that is no longer assigned, late completions for it are ignored
+    public void remove(TopicPartition partition) {
+        PartitionOffsets offsets = partitions.remove(partition);
+        if (offsets != null) {
+            inFlight -= offsets.pending.size();
+        }
+    }
+
+    // Offsets or counted positions that advanced since the last call, ready to be committed
+    public Map<TopicPartition, OffsetAndMetadata> committable() {
+        Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+        for (Map.Entry<TopicPartition, PartitionOffsets> entry : partitions.entrySet()) {
+            PartitionOffsets offsets = entry.getValue();
+            if (offsets.next >= 0 && (offsets.next > offsets.committed || offsets.countedThrough > offsets.committedCounted)) {
+                commits.put(entry.getKey(), new OffsetAndMetadata(offsets.next, COUNTED_PREFIX + offsets.countedThrough));
+                offsets.committed = offsets.next;
+                offsets.committedCounted = offsets.countedThrough;
+            }
+        }
+        return commits;
+    }
+
+    private static final class PartitionOffsets {
+        private final ArrayDeque<Long> pending = new ArrayDeque<>();
+        private final Set<Long> done = new HashSet<>();
+        private long next = -1;
+        private long committed = -1;
+        private long countedThrough = -1;
+        private long committedCounted = -1;
+        private int generation;
+    }
+}
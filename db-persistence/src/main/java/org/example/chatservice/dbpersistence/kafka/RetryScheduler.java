@@ -0,0 +1,41 @@
+package org.example.chatservice.dbpersistence.kafka;
+
+import org.example.chatservice.dbpersistence.config.Config;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-runs failed writes after an exponential backoff with jitter, off the polling threads, so the partitions of
+ * healthy writes keep flowing while a failed one waits. Shared by all workers of the process.
+ */
+public class RetryScheduler {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "write-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    public RetryScheduler() {
+        this.baseDelayMs = Long.parseLong(Config.getProperty("retry.base-delay-ms", "200"));
+        this.maxDelayMs = Long.parseLong(Config.getProperty("retry.max-delay-ms", "30000"));
+    }
+
+    // Delay before the given retry (1 = first retry): base * 2^(retry - 1), capped, plus up to 20% jitter
+    public long delayFor(int retry) {
+        long delay = Math.min(maxDelayMs, baseDelayMs << Math.min(retry - 1, 20));
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    }
+
+    public void schedule(Runnable task, long delayMs) {
+        executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
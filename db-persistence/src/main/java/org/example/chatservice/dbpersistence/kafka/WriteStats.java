@@ -0,0 +1,50 @@
+package org.example.chatservice.dbpersistence.kafka;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write throughput and latency of a worker, logged once per interval so the write modes can be compared
+ * under the same load.
+ */
+public class WriteStats {
+    private final Logger log;
+    private final String writeMode;
+    private final long intervalNanos;
+    private long intervalStart = System.nanoTime();
+    private long messages;
+    private long writes;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    public WriteStats(Logger log, String writeMode, long intervalMillis) {
+        this.log = log;
+        this.writeMode = writeMode;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    // Records one write of messageCount messages that took latencyNanos from submit until completion
+    public void record(int messageCount, long latencyNanos) {
+        messages += messageCount;
+        writes++;
+        totalLatencyNanos += latencyNanos;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+
+        long now = System.nanoTime();
+        long elapsed = now - intervalStart;
+        if (elapsed < intervalNanos) {
+            return;
+        }
+        log.info("Write stats [{}]: {} messages in {} writes, {} msg/s, avg write latency {} ms, max {} ms",
+                writeMode, messages, writes,
+                messages * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos / writes),
+                TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos));
+        intervalStart = now;
+        messages = 0;
+        writes = 0;
+        totalLatencyNanos = 0;
+        maxLatencyNanos = 0;
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.chatservice.dbpersistence.scylla;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compresses message bodies with a shared zstd dictionary. A single chat message is too short for block
+ * compression to find repetition in, a dictionary trained on a sample of chat-stream supplies it up front.
+ * Dictionaries are versioned in {@code body_dictionaries} and every compressed row records the version it needs,
+ * so chat-backend can decode rows written with any dictionary. Must stay in sync with chat-backend's BodyDictionaries.
+ */
+public final class BodyCodec {
+    private final int version;
+    private final ZstdDictCompress dictionary;
+
+    public BodyCodec(int version, byte[] dictionary, int level) {
+        this.version = version;
+        this.dictionary = new ZstdDictCompress(dictionary, level);
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public ByteBuffer encode(String body) {
+        return ByteBuffer.wrap(Zstd.compress(body.getBytes(UTF_8), dictionary));
+    }
+
+    public static String decode(ByteBuffer compressed, ZstdDictDecompress dictionary) {
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.duplicate().get(bytes);
+        return new String(Zstd.decompress(bytes, dictionary, (int) Zstd.decompressedSize(bytes)), UTF_8);
+    }
+
+    // Trains a dictionary of at most dictionarySize bytes from sample message bodies
+    public static byte[] train(List<String> samples, int dictionarySize) {
+        long sampleBytes = 0;
+        for (String sample : samples) {
+            sampleBytes += sample.getBytes(UTF_8).length;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE - 8, sampleBytes), dictionarySize);
+        for (String sample : samples) {
+            trainer.addSample(sample.getBytes(UTF_8));
+        }
+        return trainer.trainSamples();
+    }
+}
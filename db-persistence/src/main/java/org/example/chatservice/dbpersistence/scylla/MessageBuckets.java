@@ -0,0 +1,17 @@
+package org.example.chatservice.dbpersistence.scylla;
+
+/**
+ * Messages are partitioned by (channel_id, bucket) and (sender, bucket) where a bucket is one UTC day, keeping
+ * partition size bounded however long a channel or user lives. Must stay in sync with chat-backend, which reads the buckets.
+ */
+public final class MessageBuckets {
+    public static final long BUCKET_MILLIS = 24L * 60 * 60 * 1000;
+
+    private MessageBuckets() {
+        // private constructor to prevent instantiation
+    }
+
+    public static int bucketOf(long timestampMillis) {
+        return (int) Math.floorDiv(timestampMillis, BUCKET_MILLIS);
+    }
+}
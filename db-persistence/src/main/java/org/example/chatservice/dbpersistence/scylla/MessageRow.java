@@ -0,0 +1,13 @@
+package org.example.chatservice.dbpersistence.scylla;
+
+import java.util.Date;
+
+/**
+ * One chat message as stored in {@code channel_messages} and {@code messages_by_sender}.
+ */
+public record MessageRow(String channelId, String messageId, String sender, String body, Date timestamp) {
+
+    public int bucket() {
+        return MessageBuckets.bucketOf(timestamp.getTime());
+    }
+}
@@ -1,38 +1,137 @@
 package org.example.chatservice.dbpersistence.scylla;
 
 import com.datastax.driver.core.*;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.example.chatservice.dbpersistence.config.Config;
 import org.example.chatservice.dbpersistence.scylla.session.ScyllaSession;
+import org.example.chatservice.scylla.SchemaChanges;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class ScyllaDB {
     private static final Logger log = LoggerFactory.getLogger(ScyllaDB.class);
     private final Session session;
+    private static final int MAX_TRACKED_BUCKETS = 100_000;
     private final Map<String, PreparedStatement> preparedStatements = new HashMap<>();
+    private final Set<String> writtenBuckets = ConcurrentHashMap.newKeySet();
+    private final int batchMaxStatements;
+    private final int batchMaxBytes;
+    // Null when bodies are stored as plain text
+    private final BodyCodec bodyCodec;
+    private final Map<Integer, ZstdDictDecompress> bodyDictionaries = new ConcurrentHashMap<>();
 
     public ScyllaDB() {
         session = ScyllaSession.getSession();
+        batchMaxStatements = Integer.parseInt(Config.getProperty("scylla.batch.max-statements", "100"));
+        batchMaxBytes = Integer.parseInt(Config.getProperty("scylla.batch.max-bytes", "32768"));
         createTablesIfNotExists();
         createPreparedStatements();
+        bodyCodec = "dictionary".equals(Config.getProperty("scylla.body.encoding", "plain"))
+                ? loadLatestBodyCodec(Integer.parseInt(Config.getProperty("scylla.body.zstd-level", "3")))
+                : null;
     }
 
     private void createTablesIfNotExists(){
-        // messages table
-        String createMessagesTable = "CREATE TABLE IF NOT EXISTS messages (" +
+        // Messages partitioned per channel and day, clustered newest first. message_id keeps messages with the
+        // same timestamp apart and makes re-inserting a message idempotent.
+        String createMessagesTable = "CREATE TABLE IF NOT EXISTS channel_messages (" +
                 "channel_id text," +
+                "bucket int," +
+                "created_at timestamp," +
                 "message_id text," +
                 "sender text," +
                 "body text," +
-                "created_at timestamp," +
-                "PRIMARY KEY (channel_id, created_at)" +
-                ") WITH CLUSTERING ORDER BY (created_at DESC);";
+                "PRIMARY KEY ((channel_id, bucket), created_at, message_id)" +
+                ") WITH CLUSTERING ORDER BY (created_at DESC, message_id DESC);";
         session.execute(createMessagesTable);
 
+        // Non-empty buckets per channel, so readers can walk history without probing empty days
+        String createMessageBucketsTable = "CREATE TABLE IF NOT EXISTS channel_message_buckets (" +
+                "channel_id text," +
+                "bucket int," +
+                "PRIMARY KEY (channel_id, bucket)" +
+                ") WITH CLUSTERING ORDER BY (bucket DESC);";
+        session.execute(createMessageBucketsTable);
+
+        // The same messages partitioned per sender and day, for per-user history without scanning every channel
+        String createMessagesBySenderTable = "CREATE TABLE IF NOT EXISTS messages_by_sender (" +
+                "sender text," +
+                "bucket int," +
+                "created_at timestamp," +
+                "message_id text," +
+                "channel_id text," +
+                "body text," +
+                "PRIMARY KEY ((sender, bucket), created_at, message_id)" +
+                ") WITH CLUSTERING ORDER BY (created_at DESC, message_id DESC);";
+        session.execute(createMessagesBySenderTable);
+
+        String createSenderBucketsTable = "CREATE TABLE IF NOT EXISTS sender_message_buckets (" +
+                "sender text," +
+                "bucket int," +
+                "PRIMARY KEY (sender, bucket)" +
+                ") WITH CLUSTERING ORDER BY (bucket DESC);";
+        session.execute(createSenderBucketsTable);
+
+        SchemaChanges.addBodyColumns(session);
+
+        String createBodyDictionariesTable = "CREATE TABLE IF NOT EXISTS body_dictionaries (" +
+                "version int," +
+                "dictionary blob," +
+                "created_at timestamp," +
+                "PRIMARY KEY (version)" +
+                ");";
+        session.execute(createBodyDictionariesTable);
+
+        // Archive segments holding history moved out of channel_messages, see ArchiveJob
+        String createArchiveSegmentsTable = "CREATE TABLE IF NOT EXISTS channel_archive_segments (" +
+                "channel_id text," +
+                "first_bucket int," +
+                "generation bigint," +
+                "last_bucket int," +
+                "file text," +
+                "message_count bigint," +
+                "PRIMARY KEY (channel_id, first_bucket, generation)" +
+                ") WITH CLUSTERING ORDER BY (first_bucket DESC, generation DESC);";
+        session.execute(createArchiveSegmentsTable);
+
+        // Latest message per channel, written with the message time as write timestamp so the newest message wins
+        // regardless of the order writes arrive in
+        String createChannelSummaryTable = "CREATE TABLE IF NOT EXISTS channel_summary (" +
+                "channel_id text," +
+                "last_message_id text," +
+                "last_sender text," +
+                "last_body text," +
+                "last_activity timestamp," +
+                "PRIMARY KEY (channel_id)" +
+                ");";
+        session.execute(createChannelSummaryTable);
+
+        // Counters cannot share a table with regular columns
+        String createChannelMessageCountsTable = "CREATE TABLE IF NOT EXISTS channel_message_counts (" +
+                "channel_id text," +
+                "message_count counter," +
+                "PRIMARY KEY (channel_id)" +
+                ");";
+        session.execute(createChannelMessageCountsTable);
+
         // Channel table
         String createChannelTable = "CREATE TABLE IF NOT EXISTS channels (" +
                 "channel_id text," +
@@ -56,21 +155,347 @@ public class ScyllaDB {
     }
 
     private void createPreparedStatements() {
-        // storeMessage prepared statement
-        String storeMessageCQL = "INSERT INTO messages (channel_id, message_id, sender, body, created_at) VALUES (?, ?, ?, ?, ?);";
+        // storeMessage prepared statements
+        String storeMessageCQL = "INSERT INTO channel_messages (channel_id, bucket, created_at, message_id, sender, body) VALUES (?, ?, ?, ?, ?, ?);";
         preparedStatements.put("storeMessage", session.prepare(storeMessageCQL));
+
+        String storeMessageBucketCQL = "INSERT INTO channel_message_buckets (channel_id, bucket) VALUES (?, ?);";
+        preparedStatements.put("storeMessageBucket", session.prepare(storeMessageBucketCQL));
+
+        String storeMessageBySenderCQL = "INSERT INTO messages_by_sender (sender, bucket, created_at, message_id, channel_id, body) VALUES (?, ?, ?, ?, ?, ?);";
+        preparedStatements.put("storeMessageBySender", session.prepare(storeMessageBySenderCQL));
+
+        String storeMessageCompressedCQL = "INSERT INTO channel_messages (channel_id, bucket, created_at, message_id, sender, body_zstd, body_dictionary) VALUES (?, ?, ?, ?, ?, ?, ?);";
+        preparedStatements.put("storeMessageCompressed", session.prepare(storeMessageCompressedCQL));
+
+        String storeMessageBySenderCompressedCQL = "INSERT INTO messages_by_sender (sender, bucket, created_at, message_id, channel_id, body_zstd, body_dictionary) VALUES (?, ?, ?, ?, ?, ?, ?);";
+        preparedStatements.put("storeMessageBySenderCompressed", session.prepare(storeMessageBySenderCompressedCQL));
+
+        String storeSenderBucketCQL = "INSERT INTO sender_message_buckets (sender, bucket) VALUES (?, ?);";
+        preparedStatements.put("storeSenderBucket", session.prepare(storeSenderBucketCQL));
+
+        String storeChannelSummaryCQL = "INSERT INTO channel_summary (channel_id, last_message_id, last_sender, last_body, last_activity) " +
+                "VALUES (?, ?, ?, ?, ?) USING TIMESTAMP ?;";
+        preparedStatements.put("storeChannelSummary", session.prepare(storeChannelSummaryCQL));
+
+        preparedStatements.put("getBodyDictionary", session.prepare("SELECT dictionary FROM body_dictionaries WHERE version = ?;"));
+        preparedStatements.put("getBodyDictionaries", session.prepare("SELECT version, dictionary FROM body_dictionaries;"));
+        preparedStatements.put("storeBodyDictionary", session.prepare(
+                "INSERT INTO body_dictionaries (version, dictionary, created_at) VALUES (?, ?, ?) IF NOT EXISTS;"));
+
+        // Archiving
+        preparedStatements.put("getChannelsWithMessages", session.prepare("SELECT DISTINCT channel_id FROM channel_message_buckets;"));
+        preparedStatements.put("getMessageBucketsBefore", session.prepare(
+                "SELECT bucket FROM channel_message_buckets WHERE channel_id = ? AND bucket < ?;"));
+        preparedStatements.put("getMessagesInBucket", session.prepare(
+                "SELECT * FROM channel_messages WHERE channel_id = ? AND bucket = ?;"));
+        preparedStatements.put("deleteMessagesInBucket", session.prepare(
+                "DELETE FROM channel_messages USING TIMESTAMP ? WHERE channel_id = ? AND bucket = ?;"));
+        preparedStatements.put("deleteMessageBucket", session.prepare(
+                "DELETE FROM channel_message_buckets USING TIMESTAMP ? WHERE channel_id = ? AND bucket = ?;"));
+        preparedStatements.put("storeArchiveSegment", session.prepare(
+                "INSERT INTO channel_archive_segments (channel_id, first_bucket, generation, last_bucket, file, message_count) " +
+                "VALUES (?, ?, ?, ?, ?, ?);"));
+
+        String countChannelMessagesCQL = "UPDATE channel_message_counts SET message_count = message_count + ? WHERE channel_id = ?;";
+        preparedStatements.put("countChannelMessages", session.prepare(countChannelMessagesCQL));
+    }
+
+    public ListenableFuture<?> storeMessage(String channelId, String messageId, String sender, String body, Date timestamp,
+                                            boolean countMessages){
+        MessageRow row = new MessageRow(channelId, messageId, sender, body, timestamp);
+        ByteBuffer encoded = encode(row);
+        List<ListenableFuture<?>> futures = new ArrayList<>(6);
+        futures.add(session.executeAsync(bind(row, encoded)));
+        futures.add(session.executeAsync(bindBySender(row, encoded)));
+        ListenableFuture<?> bucketFuture = storeBucket("storeMessageBucket", channelId, row.bucket());
+        if (bucketFuture != null) {
+            futures.add(bucketFuture);
+        }
+        ListenableFuture<?> senderBucketFuture = storeBucket("storeSenderBucket", sender, row.bucket());
+        if (senderBucketFuture != null) {
+            futures.add(senderBucketFuture);
+        }
+        futures.addAll(storeSummary(row, countMessages ? 1 : 0));
+        return Futures.allAsList(futures);
+    }
+
+    // Groups the rows by partition and writes each partition with UNLOGGED batches capped by statement count and
+    // payload size. All statements in a batch target the same replica set, so a batch is a single round trip.
+    // messages_by_sender is partitioned differently and gets its own batches.
+    // Channel summaries are coalesced to one write per channel. Counter updates are not idempotent, so callers count
+    // a message only the first time they submit it: retries, re-reads and replays pass countMessages=false. A first
+    // attempt that fails before the counter is applied leaves the count short rather than inflated.
+    public ListenableFuture<?> storeMessages(List<MessageRow> rows, boolean countMessages){
+        Map<String, List<MessageRow>> partitions = new LinkedHashMap<>();
+        Map<String, List<MessageRow>> senderPartitions = new LinkedHashMap<>();
+        for (MessageRow row : rows) {
+            partitions.computeIfAbsent(row.channelId() + ":" + row.bucket(), key -> new ArrayList<>()).add(row);
+            senderPartitions.computeIfAbsent(row.sender() + ":" + row.bucket(), key -> new ArrayList<>()).add(row);
+        }
+
+        // Each body is compressed once for both tables
+        Map<MessageRow, ByteBuffer> encoded = new IdentityHashMap<>();
+        if (bodyCodec != null) {
+            for (MessageRow row : rows) {
+                encoded.put(row, encode(row));
+            }
+        }
+
+        List<ListenableFuture<?>> futures = new ArrayList<>();
+        for (List<MessageRow> partition : partitions.values()) {
+            storeBatches(partition, row -> bind(row, encoded.get(row)), futures);
+            MessageRow first = partition.get(0);
+            ListenableFuture<?> bucketFuture = storeBucket("storeMessageBucket", first.channelId(), first.bucket());
+            if (bucketFuture != null) {
+                futures.add(bucketFuture);
+            }
+        }
+        for (List<MessageRow> partition : senderPartitions.values()) {
+            storeBatches(partition, row -> bindBySender(row, encoded.get(row)), futures);
+            MessageRow first = partition.get(0);
+            ListenableFuture<?> bucketFuture = storeBucket("storeSenderBucket", first.sender(), first.bucket());
+            if (bucketFuture != null) {
+                futures.add(bucketFuture);
+            }
+        }
+
+        Map<String, MessageRow> latest = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (MessageRow row : rows) {
+            latest.merge(row.channelId(), row, (current, candidate) ->
+                    candidate.timestamp().after(current.timestamp()) ? candidate : current);
+            counts.merge(row.channelId(), 1, Integer::sum);
+        }
+        for (MessageRow row : latest.values()) {
+            futures.addAll(storeSummary(row, countMessages ? counts.get(row.channelId()) : 0));
+        }
+        return Futures.allAsList(futures);
+    }
+
+    private void storeBatches(List<MessageRow> partition, Function<MessageRow, BoundStatement> binder,
+                              List<ListenableFuture<?>> futures) {
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        int batchBytes = 0;
+        for (MessageRow row : partition) {
+            int rowBytes = row.messageId().length() + row.sender().length() + row.body().length();
+            if (batch.size() > 0 && (batch.size() >= batchMaxStatements || batchBytes + rowBytes > batchMaxBytes)) {
+                futures.add(session.executeAsync(batch));
+                batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                batchBytes = 0;
+            }
+            batch.add(binder.apply(row));
+            batchBytes += rowBytes;
+        }
+        futures.add(session.executeAsync(batch));
+    }
+
+    private List<ListenableFuture<?>> storeSummary(MessageRow latest, int newMessages) {
+        List<ListenableFuture<?>> futures = new ArrayList<>(2);
+        futures.add(session.executeAsync(preparedStatements.get("storeChannelSummary").bind(
+                latest.channelId(),
+                latest.messageId(),
+                latest.sender(),
+                latest.body(),
+                latest.timestamp(),
+                latest.timestamp().getTime() * 1000
+        )));
+        if (newMessages > 0) {
+            futures.add(session.executeAsync(preparedStatements.get("countChannelMessages")
+                    .bind((long) newMessages, latest.channelId())));
+        }
+        return futures;
+    }
+
+    // Stores a dictionary as the next version and returns that version. Versions are claimed with a lightweight
+    // transaction, so concurrent training runs cannot overwrite each other.
+    public int storeBodyDictionary(byte[] dictionary) {
+        while (true) {
+            int version = latestBodyDictionaryVersion() + 1;
+            ResultSet result = session.execute(preparedStatements.get("storeBodyDictionary")
+                    .bind(version, ByteBuffer.wrap(dictionary), new Date()));
+            if (result.wasApplied()) {
+                return version;
+            }
+        }
+    }
+
+    public List<String> channelsWithMessages() {
+        List<String> channelIds = new ArrayList<>();
+        for (Row row : session.execute(preparedStatements.get("getChannelsWithMessages").bind())) {
+            channelIds.add(row.getString("channel_id"));
+        }
+        return channelIds;
+    }
+
+    // Non-empty buckets of the channel older than the given bucket, newest first
+    public List<Integer> messageBucketsBefore(String channelId, int bucket) {
+        List<Integer> buckets = new ArrayList<>();
+        for (Row row : session.execute(preparedStatements.get("getMessageBucketsBefore").bind(channelId, bucket))) {
+            buckets.add(row.getInt("bucket"));
+        }
+        return buckets;
+    }
+
+    // Every message of one channel bucket in history order (newest first), pulled page by page
+    public void forEachMessageInBucket(String channelId, int bucket, int fetchSize, Consumer<MessageRow> consumer) {
+        BoundStatement statement = preparedStatements.get("getMessagesInBucket").bind(channelId, bucket);
+        statement.setFetchSize(fetchSize);
+        for (Row row : session.execute(statement)) {
+            consumer.accept(new MessageRow(channelId, row.getString("message_id"), row.getString("sender"),
+                    body(row), row.getTimestamp("created_at")));
+        }
+    }
+
+    // The messages table written before history was bucketed, false once it has been dropped
+    public boolean hasLegacyMessages() {
+        return session.getCluster().getMetadata().getKeyspace(session.getLoggedKeyspace()).getTable("messages") != null;
+    }
+
+    // Every row of the legacy messages table, in token order, pulled page by page as it is iterated
+    public Iterable<MessageRow> legacyMessages(int fetchSize) {
+        Statement statement = new SimpleStatement("SELECT channel_id, message_id, sender, body, created_at FROM messages;");
+        statement.setFetchSize(fetchSize);
+        return Iterables.transform(session.execute(statement), row -> new MessageRow(row.getString("channel_id"),
+                row.getString("message_id"), row.getString("sender"), row.getString("body"), row.getTimestamp("created_at")));
+    }
+
+    public void storeArchiveSegment(String channelId, int firstBucket, int lastBucket, long generation, String file,
+                                    long messageCount) {
+        session.execute(preparedStatements.get("storeArchiveSegment")
+                .bind(channelId, firstBucket, generation, lastBucket, file, messageCount));
+    }
+
+    // Drops an archived bucket: its partition first, then its entry in the bucket index. Only writes older than
+    // deleteBeforeMicros are removed, messages and index entries written since the bucket was archived survive.
+    public void deleteMessageBucket(String channelId, int bucket, long deleteBeforeMicros) {
+        session.execute(preparedStatements.get("deleteMessagesInBucket").bind(deleteBeforeMicros, channelId, bucket));
+        session.execute(preparedStatements.get("deleteMessageBucket").bind(deleteBeforeMicros, channelId, bucket));
+        writtenBuckets.remove("storeMessageBucket:" + channelId + ":" + bucket);
     }
 
-    public ResultSetFuture storeMessage(String channelId, String messageId, String sender, String body, Date timestamp){
-        PreparedStatement storedMessageStmt = preparedStatements.get("storeMessage");
-        BoundStatement boundStatement = storedMessageStmt.bind(
-                channelId,
-                messageId,
-                sender,
-                body,
-                timestamp
+    // Body text of a stored row, decompressing dictionary-encoded bodies
+    private String body(Row row) {
+        if (row.isNull("body_dictionary")) {
+            return row.getString("body");
+        }
+        int version = row.getInt("body_dictionary");
+        ZstdDictDecompress dictionary = bodyDictionaries.computeIfAbsent(version, missing -> {
+            Row stored = session.execute(preparedStatements.get("getBodyDictionary").bind(missing)).one();
+            if (stored == null) {
+                throw new IllegalStateException("Body dictionary version " + missing + " does not exist");
+            }
+            ByteBuffer buffer = stored.getBytes("dictionary");
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new ZstdDictDecompress(bytes);
+        });
+        return BodyCodec.decode(row.getBytes("body_zstd"), dictionary);
+    }
+
+    private int latestBodyDictionaryVersion() {
+        int latest = 0;
+        for (Row row : session.execute(preparedStatements.get("getBodyDictionaries").bind())) {
+            latest = Math.max(latest, row.getInt("version"));
+        }
+        return latest;
+    }
+
+    private BodyCodec loadLatestBodyCodec(int level) {
+        Row latest = null;
+        for (Row row : session.execute(preparedStatements.get("getBodyDictionaries").bind())) {
+            if (latest == null || row.getInt("version") > latest.getInt("version")) {
+                latest = row;
+            }
+        }
+        if (latest == null) {
+            log.warn("scylla.body.encoding=dictionary but no body dictionary exists yet, storing plain text. " +
+                    "Run with the train-dictionary argument to create one.");
+            return null;
+        }
+        ByteBuffer buffer = latest.getBytes("dictionary");
+        byte[] dictionary = new byte[buffer.remaining()];
+        buffer.get(dictionary);
+        log.info("Compressing message bodies with dictionary version {}", latest.getInt("version"));
+        return new BodyCodec(latest.getInt("version"), dictionary, level);
+    }
+
+    private ByteBuffer encode(MessageRow row) {
+        return bodyCodec == null ? null : bodyCodec.encode(row.body());
+    }
+
+    private BoundStatement bind(MessageRow row, ByteBuffer encoded) {
+        if (encoded != null) {
+            return preparedStatements.get("storeMessageCompressed").bind(
+                    row.channelId(),
+                    row.bucket(),
+                    row.timestamp(),
+                    row.messageId(),
+                    row.sender(),
+                    encoded,
+                    bodyCodec.version()
+            );
+        }
+        return preparedStatements.get("storeMessage").bind(
+                row.channelId(),
+                row.bucket(),
+                row.timestamp(),
+                row.messageId(),
+                row.sender(),
+                row.body()
         );
-        return session.executeAsync(boundStatement);
+    }
+
+    private BoundStatement bindBySender(MessageRow row, ByteBuffer encoded) {
+        if (encoded != null) {
+            return preparedStatements.get("storeMessageBySenderCompressed").bind(
+                    row.sender(),
+                    row.bucket(),
+                    row.timestamp(),
+                    row.messageId(),
+                    row.channelId(),
+                    encoded,
+                    bodyCodec.version()
+            );
+        }
+        return preparedStatements.get("storeMessageBySender").bind(
+                row.sender(),
+                row.bucket(),
+                row.timestamp(),
+                row.messageId(),
+                row.channelId(),
+                row.body()
+        );
+    }
+
+    // Each bucket row of live traffic only needs to be written once per process, returns null if it already was.
+    // Older buckets are written every time: the archive job may have deleted their index entry in another process,
+    // and a message written there later must bring it back.
+    private ListenableFuture<?> storeBucket(String statement, String partitionKey, int bucket) {
+        String bucketKey = statement + ":" + partitionKey + ":" + bucket;
+        boolean live = bucket >= MessageBuckets.bucketOf(System.currentTimeMillis()) - 1;
+        if (!live) {
+            return session.executeAsync(preparedStatements.get(statement).bind(partitionKey, bucket));
+        }
+        if (writtenBuckets.contains(bucketKey)) {
+            return null;
+        }
+        if (writtenBuckets.size() > MAX_TRACKED_BUCKETS) {
+            writtenBuckets.clear();
+        }
+        writtenBuckets.add(bucketKey);
+        ResultSetFuture bucketFuture = session.executeAsync(preparedStatements.get(statement).bind(partitionKey, bucket));
+        Futures.addCallback(bucketFuture, new FutureCallback<>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                writtenBuckets.remove(bucketKey);
+            }
+        }, MoreExecutors.directExecutor());
+        return bucketFuture;
     }
 
 }
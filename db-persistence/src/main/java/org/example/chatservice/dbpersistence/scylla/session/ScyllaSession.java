@@ -10,8 +10,9 @@ public class ScyllaSession {
         // private constructor to prevent instantiation
     }
 
-    public static Session getSession(){
-        if(session == null){;
+    // Shared by every worker in the process, the driver session is thread-safe
+    public static synchronized Session getSession(){
+        if(session == null){
             session = ScyllaCluster.getSession();
         }
         return session;
@@ -0,0 +1,225 @@
+package org.example.chatservice.dbpersistence.spool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Local write-ahead spool for chat-stream records. Records are appended to preallocated, memory-mapped segment
+ * files of a fixed size and forced to disk before {@link #append} returns, so the caller may acknowledge them to
+ * Kafka. A full segment is sealed and a new one started; the {@link SpoolDrainer} reads segments in order and
+ * releases them once they are in ScyllaDB. Appends always go to a fresh segment after a restart, so a record torn
+ * by a crash is only ever at the end of a sealed segment, where its CRC stops the reader.
+ *
+ * <pre>
+ * header  magic, version, sequence
+ * records [length, crc32, topic, partition, offset, key, value]*
+ * </pre>
+ *
+ * Strings are an int length followed by UTF-8 bytes, a null key has length -1. Unwritten space is zeros, so a
+ * length of 0 ends the data.
+ */
+public class Spool implements Closeable {
+    public static final int MAGIC = 0x43485350;
+    public static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+    private long writeSequence;
+    private MappedByteBuffer writeBuffer;
+    private int position;
+    // Bytes of the write segment that are durable and may be drained
+    private int committed;
+    private boolean closed;
+    // Read by the workers on every poll, kept outside the lock that appends hold while forcing
+    private volatile long sizeBytes;
+
+    public Spool(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        // Two processes appending to the same spool would corrupt it
+        lockChannel = FileChannel.open(directory.resolve("spool.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Spool directory " + directory + " is in use by another process");
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        writeSequence = segments.isEmpty() ? 0 : segments.lastKey();
+        rotate();
+    }
+
+    // Appends the records and forces them to disk; when this returns they survive a crash of the process
+    public synchronized void append(List<SpoolRecord> records) throws IOException {
+        if (closed) {
+            throw new IOException("Spool is closed");
+        }
+        List<byte[]> topics = new ArrayList<>(records.size());
+        List<byte[]> keys = new ArrayList<>(records.size());
+        for (SpoolRecord record : records) {
+            byte[] topic = record.topic().getBytes(UTF_8);
+            byte[] key = record.key() == null ? null : record.key().getBytes(UTF_8);
+            if (RECORD_HEADER_BYTES + payloadLength(topic, key, record.value()) > segmentBytes - HEADER_BYTES) {
+                throw new IOException("Record at " + record.topic() + "-" + record.partition() + ", offset: "
+                        + record.offset() + " does not fit a spool segment of " + segmentBytes + " bytes");
+            }
+            topics.add(topic);
+            keys.add(key);
+        }
+
+        int start = position;
+        ByteBuffer out = writeBuffer.duplicate();
+        for (int i = 0; i < records.size(); i++) {
+            SpoolRecord record = records.get(i);
+            byte[] topic = topics.get(i);
+            byte[] key = keys.get(i);
+            int length = payloadLength(topic, key, record.value());
+            if (position + RECORD_HEADER_BYTES + length > segmentBytes) {
+                commit(start);
+                rotate();
+                start = position;
+                out = writeBuffer.duplicate();
+            }
+            int payload = position + RECORD_HEADER_BYTES;
+            out.position(payload);
+            out.putInt(topic.length).put(topic);
+            out.putInt(record.partition());
+            out.putLong(record.offset());
+            if (key == null) {
+                out.putInt(-1);
+            } else {
+                out.putInt(key.length).put(key);
+            }
+            out.putInt(record.value().length).put(record.value());
+            crc.reset();
+            crc.update(writeBuffer.slice(payload, length));
+            writeBuffer.putInt(position, length);
+            writeBuffer.putInt(position + 4, (int) crc.getValue());
+            position = payload + length;
+        }
+        commit(start);
+    }
+
+    private void commit(int start) {
+        if (position > start) {
+            writeBuffer.force(start, position - start);
+            committed = position;
+            notifyAll();
+        }
+    }
+
+    private void rotate() throws IOException {
+        long sequence = writeSequence + 1;
+        Path file = directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        writeBuffer.putInt(0, MAGIC);
+        writeBuffer.putInt(4, FORMAT_VERSION);
+        writeBuffer.putLong(8, sequence);
+        writeBuffer.force(0, HEADER_BYTES);
+        writeSequence = sequence;
+        position = HEADER_BYTES;
+        committed = HEADER_BYTES;
+        segments.put(sequence, file);
+        sizeBytes = (long) segments.size() * segmentBytes;
+    }
+
+    private static int payloadLength(byte[] topic, byte[] key, byte[] value) {
+        return 4 + topic.length + 4 + 8 + 4 + (key == null ? 0 : key.length) + 4 + value.length;
+    }
+
+    // Workers pause instead of appending once the segments take up spool.max-bytes
+    public boolean hasCapacity() {
+        return sizeBytes < maxBytes;
+    }
+
+    public long sizeBytes() {
+        return sizeBytes;
+    }
+
+    synchronized Long firstSegment() {
+        return segments.isEmpty() ? null : segments.firstKey();
+    }
+
+    // The oldest segment at or after the given sequence, segments before it may already be released
+    synchronized Long segmentFrom(long sequence) {
+        return segments.ceilingKey(sequence);
+    }
+
+    // A sealed segment receives no more appends and is read until its data ends
+    synchronized boolean isSealed(long sequence) {
+        return sequence != writeSequence;
+    }
+
+    synchronized int readLimit(long sequence) {
+        return sequence == writeSequence ? committed : segmentBytes;
+    }
+
+    synchronized SpoolReader open(long sequence, int position) throws IOException {
+        Path file = segments.get(sequence);
+        if (file == null) {
+            throw new IOException("No spool segment " + sequence + " in " + directory);
+        }
+        return new SpoolReader(file, sequence, position);
+    }
+
+    // Deletes a drained segment, the write segment is never released
+    synchronized void release(long sequence) throws IOException {
+        if (sequence == writeSequence) {
+            return;
+        }
+        Path file = segments.remove(sequence);
+        if (file != null) {
+            sizeBytes = (long) segments.size() * segmentBytes;
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Waits until the write segment holds data beyond the position, or it is sealed, or the timeout passes
+    synchronized void awaitAppend(long sequence, int position, long timeoutMs) throws InterruptedException {
+        if (!closed && sequence == writeSequence && committed <= position) {
+            wait(timeoutMs);
+        }
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        notifyAll();
+        lock.release();
+        lockChannel.close();
+    }
+}
@@ -0,0 +1,296 @@
+package org.example.chatservice.dbpersistence.spool;
+
+import com.datastax.driver.core.exceptions.QueryValidationException;
+import com.example.chat.proto.ChatMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.example.chatservice.dbpersistence.config.Config;
+import org.example.chatservice.dbpersistence.kafka.DeadLetterProducer;
+import org.example.chatservice.dbpersistence.kafka.RetryScheduler;
+import org.example.chatservice.dbpersistence.kafka.WriteStats;
+import org.example.chatservice.dbpersistence.scylla.MessageRow;
+import org.example.chatservice.dbpersistence.scylla.ScyllaDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Writes spooled records to ScyllaDB in order, one batch at a time, so it goes as fast as the cluster takes them
+ * and no faster. Transient write failures are retried with backoff until they succeed, the spool absorbs the
+ * backlog meanwhile. Records that cannot be parsed or stored are dead-lettered. Before a batch is stored, a forced
+ * checkpoint records where it starts and ends, and drained segments are deleted. On startup draining resumes from
+ * the checkpoint, which replays whatever the previous run left in the spool. The batch that may already have been
+ * stored is written again without counting it in channel_message_counts a second time.
+ */
+public class SpoolDrainer implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(SpoolDrainer.class.getSimpleName());
+    private static final String CHECKPOINT_FILE = "drain.checkpoint";
+    private static final int CHECKPOINT_BYTES = 16;
+    private static final int LEGACY_CHECKPOINT_BYTES = 12;
+    private static final long IDLE_WAIT_MS = 100;
+    private final Spool spool;
+    private final ScyllaDB scyllaDB;
+    private final RetryScheduler retryScheduler;
+    private final DeadLetterProducer deadLetters;
+    private final Path checkpointFile;
+    private final int batchSize;
+    private final WriteStats writeStats;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    // Set once a batch is stored, so failures after progress back off from the start again
+    private boolean drained;
+
+    public SpoolDrainer(Spool spool, ScyllaDB scyllaDB, RetryScheduler retryScheduler, DeadLetterProducer deadLetters) {
+        this.spool = spool;
+        this.scyllaDB = scyllaDB;
+        this.retryScheduler = retryScheduler;
+        this.deadLetters = deadLetters;
+        this.checkpointFile = spool.directory().resolve(CHECKPOINT_FILE);
+        this.batchSize = Integer.parseInt(Config.getProperty("spool.drain.batch-size", "1000"));
+        this.writeStats = new WriteStats(log, "spool", Long.parseLong(Config.getProperty("stats.log-interval-ms", "10000")));
+    }
+
+    // An unexpected failure restarts draining from the checkpoint after a backoff. Workers pause once the spool is
+    // full, so a drainer that gave up would stall every partition.
+    @Override
+    public void run() {
+        int failures = 0;
+        while (!isStopping()) {
+            try {
+                drain();
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                failures = drained ? 1 : failures + 1;
+                drained = false;
+                long delay = retryScheduler.delayFor(failures);
+                log.error("Spool drainer failed ({} in a row), restarting from the checkpoint in {} ms with {} bytes spooled: {}",
+                        failures, delay, spool.sizeBytes(), e.getMessage(), e);
+                try {
+                    if (stopped.await(delay, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        log.info("Spool drainer stopped, {} bytes of segments left in the spool", spool.sizeBytes());
+    }
+
+    private void drain() throws IOException, InterruptedException {
+        Checkpoint checkpoint = readCheckpoint();
+        // Segments before the checkpoint were drained, the previous run stopped before deleting them
+        Long first;
+        while ((first = spool.firstSegment()) != null && first < checkpoint.sequence) {
+            spool.release(first);
+        }
+        log.info("Draining spool from segment {}, position {}", checkpoint.sequence, checkpoint.position);
+
+        SpoolReader reader = null;
+        long sequence = checkpoint.sequence;
+        int position = checkpoint.position;
+        // Records of the checkpointed segment before checkpoint.counted were counted by the previous run
+        while (!isStopping()) {
+            if (reader == null) {
+                Long next = spool.segmentFrom(sequence);
+                if (next == null) {
+                    // Only happens when the spool is closed under us
+                    return;
+                }
+                if (next != sequence) {
+                    position = Spool.HEADER_BYTES;
+                }
+                sequence = next;
+                try {
+                    reader = spool.open(sequence, position);
+                } catch (IOException e) {
+                    // A segment whose header never made it to disk holds no acknowledged records
+                    log.warn("Skipping unreadable spool segment {}: {}", sequence, e.getMessage());
+                    spool.release(sequence);
+                    continue;
+                }
+            }
+
+            // Sealed is checked before the limit is read, so no append can slip in between
+            boolean sealed = spool.isSealed(sequence);
+            int batchStart = reader.position();
+            List<SpoolRecord> batch = reader.read(batchSize, spool.readLimit(sequence));
+            if (!batch.isEmpty()) {
+                boolean counted = sequence == checkpoint.sequence && batchStart < checkpoint.counted;
+                // The previous batch is stored, this one is counted once its checkpoint is on disk
+                writeCheckpoint(sequence, batchStart, reader.position());
+                if (!store(batch, !counted)) {
+                    return;
+                }
+                drained = true;
+            } else if (sealed) {
+                writeCheckpoint(sequence + 1, Spool.HEADER_BYTES, Spool.HEADER_BYTES);
+                spool.release(sequence);
+                reader = null;
+                sequence++;
+            } else {
+                spool.awaitAppend(sequence, reader.position(), IDLE_WAIT_MS);
+            }
+        }
+    }
+
+    // Returns false if the drainer is stopped before the batch is stored, it is drained again on the next start.
+    // Only the first attempt counts the messages, a failed one may already have applied the counter update.
+    private boolean store(List<SpoolRecord> batch, boolean countMessages) throws InterruptedException {
+        List<MessageRow> rows = new ArrayList<>(batch.size());
+        List<SpoolRecord> stored = new ArrayList<>(batch.size());
+        for (SpoolRecord record : batch) {
+            try {
+                ChatMessage message = ChatMessage.parseFrom(record.value());
+                rows.add(new MessageRow(
+                    message.getChannel().getChannelId(),
+                    message.getMessageId(),
+                    message.getSender().getUserId(),
+                    message.getBody(),
+                    new Date(message.getTimeStamp())
+                ));
+                stored.add(record);
+            } catch (InvalidProtocolBufferException e) {
+                log.error("Failed to parse spooled ChatMessage from {}-{}, offset: {}: {}",
+                        record.topic(), record.partition(), record.offset(), e.getMessage());
+                if (!deadLetter(record, "parse-failed", e, 1)) {
+                    return false;
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            return true;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                scyllaDB.storeMessages(rows, countMessages && attempt == 1).get();
+                writeStats.record(rows.size(), System.nanoTime() - start);
+                return true;
+            } catch (ExecutionException e) {
+                Throwable error = e.getCause();
+                if (error instanceof QueryValidationException) {
+                    for (SpoolRecord record : stored) {
+                        if (!deadLetter(record, "write-failed", error, attempt)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+                long delay = retryScheduler.delayFor(attempt);
+                log.warn("Spooled write of {} messages failed (attempt {}), retrying in {} ms: {}",
+                        rows.size(), attempt, delay, error.getMessage());
+                if (stopped.await(delay, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private boolean deadLetter(SpoolRecord record, String reason, Throwable error, int attempts) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            CompletableFuture<Void> sent = new CompletableFuture<>();
+            deadLetters.send(record.topic(), record.partition(), record.offset(), record.key(), record.value(),
+                    reason, error, attempts, (metadata, exception) -> {
+                        if (exception == null) {
+                            sent.complete(null);
+                        } else {
+                            sent.completeExceptionally(exception);
+                        }
+                    });
+            try {
+                sent.get();
+                return true;
+            } catch (ExecutionException e) {
+                long delay = retryScheduler.delayFor(attempt);
+                log.warn("Dead-lettering spooled record at {}-{}, offset: {} failed, retrying in {} ms: {}",
+                        record.topic(), record.partition(), record.offset(), delay, e.getCause().getMessage());
+                if (stopped.await(delay, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private boolean isStopping() {
+        return stopped.getCount() == 0;
+    }
+
+    // position is where draining resumes, records of the segment before counted were already counted
+    private record Checkpoint(long sequence, int position, int counted) {
+    }
+
+    // sequence, position, counted, CRC32; a missing or damaged checkpoint drains the spool from its oldest segment.
+    // Checkpoints written before counted existed hold sequence, position, CRC32.
+    private Checkpoint readCheckpoint() {
+        Long first = spool.firstSegment();
+        Checkpoint oldest = new Checkpoint(first == null ? 0 : first, Spool.HEADER_BYTES, Spool.HEADER_BYTES);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpointFile));
+            if (buffer.capacity() != CHECKPOINT_BYTES + 8 && buffer.capacity() != LEGACY_CHECKPOINT_BYTES + 8) {
+                log.warn("Spool checkpoint is damaged, draining from the oldest segment");
+                return oldest;
+            }
+            long sequence = buffer.getLong();
+            int position = buffer.getInt();
+            int counted = buffer.capacity() == CHECKPOINT_BYTES + 8 ? buffer.getInt() : position;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            if (buffer.getLong() != crc.getValue()) {
+                log.warn("Spool checkpoint is damaged, draining from the oldest segment");
+                return oldest;
+            }
+            return new Checkpoint(sequence, position, counted);
+        } catch (NoSuchFileException e) {
+            return oldest;
+        } catch (IOException e) {
+            log.warn("Could not read spool checkpoint, draining from the oldest segment: {}", e.getMessage());
+            return oldest;
+        }
+    }
+
+    // Forced to disk together with the rename, a crash must not leave an older checkpoint behind: its batches would
+    // be counted again
+    private void writeCheckpoint(long sequence, int position, int counted) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_BYTES + 8);
+        buffer.putLong(sequence).putInt(position).putInt(counted);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, CHECKPOINT_BYTES);
+        buffer.putLong(crc.getValue()).flip();
+        Path temp = checkpointFile.resolveSibling(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel directory = FileChannel.open(spool.directory(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    public void shutdown() {
+        stopped.countDown();
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.chatservice.dbpersistence.spool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the records of one spool segment in order from a read-only mapping, checking the CRC of every record.
+ * Only used by the drainer thread.
+ */
+final class SpoolReader {
+    private static final Logger log = LoggerFactory.getLogger(SpoolReader.class.getSimpleName());
+    private final Path file;
+    private final long sequence;
+    private final ByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private int position;
+
+    SpoolReader(Path file, long sequence, int position) throws IOException {
+        this.file = file;
+        this.sequence = sequence;
+        try (FileChannel channel = FileChannel.open(file)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < Spool.HEADER_BYTES || buffer.getInt(0) != Spool.MAGIC) {
+            throw new IOException("Not a spool segment: " + file);
+        }
+        if (buffer.getInt(4) != Spool.FORMAT_VERSION || buffer.getLong(8) != sequence) {
+            throw new IOException("Unsupported spool segment version " + buffer.getInt(4) + " or sequence in " + file);
+        }
+        this.position = Math.max(position, Spool.HEADER_BYTES);
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    int position() {
+        return position;
+    }
+
+    // Up to max records that end before limit. Stops at the end of the data, or at a record torn by a crash
+    List<SpoolRecord> read(int max, int limit) {
+        limit = Math.min(limit, buffer.capacity());
+        List<SpoolRecord> records = new ArrayList<>(Math.min(max, 1024));
+        while (records.size() < max && position + Spool.RECORD_HEADER_BYTES <= limit) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + Spool.RECORD_HEADER_BYTES + length > limit) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(position + Spool.RECORD_HEADER_BYTES, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                // Never acknowledged to Kafka, so the record is read from chat-stream again
+                log.warn("Spool segment {} ends with a torn record at position {}", file.getFileName(), position);
+                break;
+            }
+            records.add(decode(payload));
+            position += Spool.RECORD_HEADER_BYTES + length;
+        }
+        return records;
+    }
+
+    private static SpoolRecord decode(ByteBuffer payload) {
+        String topic = readString(payload);
+        int partition = payload.getInt();
+        long offset = payload.getLong();
+        String key = readString(payload);
+        byte[] value = new byte[payload.getInt()];
+        payload.get(value);
+        return new SpoolRecord(topic, partition, offset, key, value);
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
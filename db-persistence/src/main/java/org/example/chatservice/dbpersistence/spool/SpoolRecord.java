@@ -0,0 +1,8 @@
+package org.example.chatservice.dbpersistence.spool;
+
+/**
+ * A chat-stream record as consumed, kept with its source position so the drainer can dead-letter it like a
+ * worker would.
+ */
+public record SpoolRecord(String topic, int partition, long offset, String key, byte[] value) {
+}
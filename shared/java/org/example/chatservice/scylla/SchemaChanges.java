@@ -0,0 +1,39 @@
+package org.example.chatservice.scylla;
+
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schema changes that CREATE TABLE IF NOT EXISTS cannot make to existing tables. Compiled into both chat-backend and
+ * db-persistence, either of which may start first against an older keyspace.
+ */
+public final class SchemaChanges {
+    private static final Logger log = LoggerFactory.getLogger(SchemaChanges.class.getSimpleName());
+
+    private SchemaChanges() {
+    }
+
+    // Dictionary-compressed bodies go to body_zstd with the dictionary version instead of the body text column
+    public static void addBodyColumns(Session session) {
+        addColumnIfMissing(session, "channel_messages", "body_zstd", "blob");
+        addColumnIfMissing(session, "channel_messages", "body_dictionary", "int");
+        addColumnIfMissing(session, "messages_by_sender", "body_zstd", "blob");
+        addColumnIfMissing(session, "messages_by_sender", "body_dictionary", "int");
+    }
+
+    public static void addColumnIfMissing(Session session, String table, String column, String type) {
+        TableMetadata metadata = session.getCluster().getMetadata().getKeyspace(session.getLoggedKeyspace()).getTable(table);
+        if (metadata == null || metadata.getColumn(column) != null) {
+            return;
+        }
+        try {
+            session.execute("ALTER TABLE " + table + " ADD " + column + " " + type + ";");
+        } catch (InvalidQueryException e) {
+            // Another process added it first
+            log.debug("Column {}.{} already exists: {}", table, column, e.getMessage());
+        }
+    }
+}